@@ -0,0 +1,93 @@
+package com.smartylighting.streetlights.config;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.serde.StreetlightsDeserializer;
+import com.smartylighting.streetlights.serde.StreetlightsSerializer;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.JacksonUtils;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command value deserialization as the listener containers configure it:
+ * {@link ErrorHandlingDeserializer} around {@link StreetlightsDeserializer},
+ * for JSON and binary payloads, against the old path that decoded into a Map
+ * and converted it with {@code ObjectMapper.convertValue}. Run with
+ * {@code -prof gc} to compare the bytes allocated per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDeserializationBenchmark {
+
+    private static final String TURN_ON_TOPIC = "smartylighting.streetlights.1.0.action.bench-001.turn.on";
+    private static final String DIM_TOPIC = "smartylighting.streetlights.1.0.action.bench-001.dim";
+
+    private ErrorHandlingDeserializer<Object> deserializer;
+    private JsonDeserializer<HashMap> mapDeserializer;
+    private ObjectMapper objectMapper;
+
+    private byte[] turnOnJson;
+    private byte[] dimJson;
+    private byte[] turnOnBinary;
+    private RecordHeaders jsonHeaders;
+    private RecordHeaders binaryHeaders;
+
+    @Setup
+    public void setUp() {
+        TopicResolver topics = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+                1000);
+        deserializer = new ErrorHandlingDeserializer<>(
+                new StreetlightsDeserializer(KafkaConfig.commandValueDeserializer(topics)));
+        mapDeserializer = new JsonDeserializer<>(HashMap.class, false);
+        objectMapper = JacksonUtils.enhancedObjectMapper();
+
+        LocalDateTime sentAt = LocalDateTime.of(2024, 1, 1, 18, 0);
+        TurnOnOffCommand turnOn = new TurnOnOffCommand("on", sentAt, 50);
+        jsonHeaders = new RecordHeaders();
+        binaryHeaders = new RecordHeaders();
+        try (StreetlightsSerializer json = new StreetlightsSerializer(List.of());
+             StreetlightsSerializer binary = new StreetlightsSerializer(List.of("smartylighting.streetlights.1.0.action"))) {
+            turnOnJson = json.serialize(TURN_ON_TOPIC, new RecordHeaders(), turnOn);
+            dimJson = json.serialize(DIM_TOPIC, new RecordHeaders(), new DimLightCommand(40, sentAt, 50));
+            turnOnBinary = binary.serialize(TURN_ON_TOPIC, binaryHeaders, turnOn);
+        }
+    }
+
+    @Benchmark
+    public Object turnOnJson() {
+        return deserializer.deserialize(TURN_ON_TOPIC, jsonHeaders, turnOnJson);
+    }
+
+    @Benchmark
+    public Object turnOnJsonMapThenConvertValue() {
+        return objectMapper.convertValue(mapDeserializer.deserialize(TURN_ON_TOPIC, jsonHeaders, turnOnJson),
+                TurnOnOffCommand.class);
+    }
+
+    @Benchmark
+    public Object dimJson() {
+        return deserializer.deserialize(DIM_TOPIC, jsonHeaders, dimJson);
+    }
+
+    @Benchmark
+    public Object turnOnBinary() {
+        return deserializer.deserialize(TURN_ON_TOPIC, binaryHeaders, turnOnBinary);
+    }
+}
@@ -0,0 +1,62 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.serde.StreetlightsSerializer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LightMeasuredEvent} value serialization, JSON and binary, and a
+ * publish through {@link LightMeasurementProducer} down to the mock producer.
+ * The producer is not started, so publishes are sent on the calling thread
+ * instead of through the buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightMeasuredEventBenchmark {
+
+    private static final String TOPIC = "smartylighting.streetlights.1.0.event.bench-001.lighting.measured";
+
+    private final LightMeasuredEvent event = new LightMeasuredEvent(2500, LocalDateTime.of(2024, 1, 1, 18, 0), 42);
+
+    private StreetlightsSerializer jsonSerializer;
+    private StreetlightsSerializer binarySerializer;
+    private LightMeasurementProducer producer;
+
+    @Setup
+    public void setUp() {
+        jsonSerializer = new StreetlightsSerializer(List.of());
+        binarySerializer = new StreetlightsSerializer(List.of("smartylighting.streetlights.1.0.event"));
+        TopicResolver topicResolver = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim", 100_000);
+        producer = new LightMeasurementProducer(OfflineKafkaTemplates.kafkaTemplate(), topicResolver,
+                1024, 500, "block", new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public byte[] serializeJson() {
+        return jsonSerializer.serialize(TOPIC, new RecordHeaders(), event);
+    }
+
+    @Benchmark
+    public byte[] serializeBinary() {
+        return binarySerializer.serialize(TOPIC, new RecordHeaders(), event);
+    }
+
+    @Benchmark
+    public void publish() {
+        producer.publishLightMeasurement("bench-001", event);
+    }
+}
@@ -0,0 +1,64 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.serde.StreetlightsSerializer;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * KafkaTemplates backed by Kafka's {@link MockProducer}, so benchmarks run
+ * the real send path, including value serialization, without a broker. Sends
+ * complete immediately and the recorded history is discarded periodically to
+ * keep memory flat over long runs.
+ */
+public final class OfflineKafkaTemplates {
+
+    private static final int HISTORY_LIMIT = 10_000;
+
+    private OfflineKafkaTemplates() {
+    }
+
+    public static KafkaTemplate<String, Object> kafkaTemplate() {
+        return kafkaTemplate(List.of());
+    }
+
+    public static KafkaTemplate<String, Object> kafkaTemplate(List<String> binaryTopicPrefixes) {
+        DiscardingMockProducer producer = new DiscardingMockProducer(new StreetlightsSerializer(binaryTopicPrefixes));
+        return new KafkaTemplate<>(() -> producer);
+    }
+
+    private static final class DiscardingMockProducer extends MockProducer<String, Object> {
+
+        private int sends;
+
+        DiscardingMockProducer(StreetlightsSerializer valueSerializer) {
+            super(true, new StringSerializer(), valueSerializer);
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, Object> record, Callback callback) {
+            Future<RecordMetadata> result = super.send(record, callback);
+            if (++sends == HISTORY_LIMIT) {
+                sends = 0;
+                clear();
+            }
+            return result;
+        }
+
+        // KafkaTemplate closes the producer after every send; a real factory hands out close-safe proxies
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+}
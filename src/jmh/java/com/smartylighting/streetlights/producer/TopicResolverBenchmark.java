@@ -0,0 +1,98 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-light topic names from {@link TopicResolver}, cached and past the cache
+ * bound, against the {@code String.format} the producers used before, and the
+ * streetlight ID taken back out of a received topic name, cached and uncached,
+ * against the {@code split("\\.")} the consumers used before. Run with
+ * {@code -prof gc} to compare allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicResolverBenchmark {
+
+    @Param({"1000"})
+    private int lights;
+
+    private TopicResolver cached;
+    private TopicResolver uncached;
+    private String[] ids;
+    private String[] topics;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cached = resolver(100_000);
+        uncached = resolver(0);
+        ids = new String[lights];
+        for (int i = 0; i < lights; i++) {
+            ids[i] = String.format("light-%05d", i);
+        }
+        topics = new String[lights];
+        for (int i = 0; i < lights; i++) {
+            topics[i] = cached.commandTopic(ids[i], CommandType.TURN_ON);
+            cached.streetlightId(topics[i]);
+        }
+    }
+
+    @Benchmark
+    public String resolverCached() {
+        return cached.lightMeasuredTopic(nextId());
+    }
+
+    @Benchmark
+    public String resolverUncached() {
+        return uncached.commandTopic(nextId(), CommandType.DIM);
+    }
+
+    @Benchmark
+    public String format() {
+        return String.format("smartylighting.streetlights.1.0.event.%s.lighting.measured", nextId());
+    }
+
+    @Benchmark
+    public String streetlightIdCached() {
+        return cached.streetlightId(nextTopic());
+    }
+
+    @Benchmark
+    public String streetlightIdUncached() {
+        return uncached.streetlightId(nextTopic());
+    }
+
+    @Benchmark
+    public String split() {
+        String[] parts = nextTopic().split("\\.");
+        return parts.length >= 6 ? parts[5] : null;
+    }
+
+    private static TopicResolver resolver(int maxCachedLights) {
+        return new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+                maxCachedLights);
+    }
+
+    private String nextId() {
+        String id = ids[next];
+        next = next + 1 == lights ? 0 : next + 1;
+        return id;
+    }
+
+    private String nextTopic() {
+        String topic = topics[next];
+        next = next + 1 == lights ? 0 : next + 1;
+        return topic;
+    }
+}
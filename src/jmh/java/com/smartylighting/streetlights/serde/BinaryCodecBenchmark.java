@@ -0,0 +1,65 @@
+package com.smartylighting.streetlights.serde;
+
+import com.smartylighting.streetlights.config.PayloadTypeResolver;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode plus decode of a {@link LightMeasuredEvent} through
+ * {@link StreetlightsSerializer} and {@link StreetlightsDeserializer}, once as
+ * JSON and once in the binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryCodecBenchmark {
+
+    private static final String EVENT_TOPIC = "smartylighting.streetlights.1.0.event.bench-001.lighting.measured";
+
+    private StreetlightsSerializer jsonSerializer;
+    private StreetlightsSerializer binarySerializer;
+    private StreetlightsDeserializer deserializer;
+    private LightMeasuredEvent event;
+
+    @Setup
+    public void setUp() {
+        jsonSerializer = new StreetlightsSerializer(List.of());
+        binarySerializer = new StreetlightsSerializer(List.of("smartylighting.streetlights.1.0.event."));
+        JsonDeserializer<Object> json = new JsonDeserializer<>(Object.class, false);
+        TopicResolver topics = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+                1000);
+        json.setTypeResolver(new PayloadTypeResolver(topics)::resolveType);
+        deserializer = new StreetlightsDeserializer(json);
+        event = new LightMeasuredEvent(3000, LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_000_000), 42);
+    }
+
+    @Benchmark
+    public Object jsonRoundTrip() {
+        return roundTrip(jsonSerializer);
+    }
+
+    @Benchmark
+    public Object binaryRoundTrip() {
+        return roundTrip(binarySerializer);
+    }
+
+    private Object roundTrip(StreetlightsSerializer serializer) {
+        RecordHeaders headers = new RecordHeaders();
+        byte[] data = serializer.serialize(EVENT_TOPIC, headers, event);
+        return deserializer.deserialize(EVENT_TOPIC, headers, data);
+    }
+}
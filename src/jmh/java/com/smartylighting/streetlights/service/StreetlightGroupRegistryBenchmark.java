@@ -0,0 +1,90 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.producer.OfflineKafkaTemplates;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A zone aggregate from the {@link StreetlightGroupRegistry} bitmap against
+ * what a zone query costs without an index: a scan of every state testing
+ * membership in a hash set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreetlightGroupRegistryBenchmark {
+
+    @Param({"1000000"})
+    private int fleet;
+
+    @Param({"50"})
+    private int zones;
+
+    private LightMeasurementProducer producer;
+    private StreetlightService service;
+    private StreetlightGroupRegistry registry;
+    private Set<String> zone;
+
+    @Setup
+    public void setUp() {
+        TopicResolver topicResolver = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim", 0);
+        producer = new LightMeasurementProducer(OfflineKafkaTemplates.kafkaTemplate(), topicResolver,
+                65_536, 500, "drop", new SimpleMeterRegistry());
+        producer.start();
+        service = new StreetlightService(producer, new InMemoryStreetlightStateStore());
+        registry = new StreetlightGroupRegistry(service);
+
+        LocalDateTime sentAt = LocalDateTime.of(2024, 1, 1, 18, 0);
+        List<List<String>> members = new ArrayList<>();
+        for (int z = 0; z < zones; z++) {
+            members.add(new ArrayList<>());
+        }
+        for (int i = 0; i < fleet; i++) {
+            String id = "light-" + i;
+            service.turnOn(id, new TurnOnOffCommand("on", sentAt, 50));
+            members.get(i % zones).add(id);
+        }
+        for (int z = 0; z < zones; z++) {
+            registry.addMembers("zone-" + z, members.get(z));
+        }
+        zone = new HashSet<>(members.get(7));
+    }
+
+    @TearDown
+    public void tearDown() {
+        producer.stop();
+    }
+
+    @Benchmark
+    public GroupAggregate bitmap() {
+        return registry.aggregate(List.of("zone-7"), null);
+    }
+
+    @Benchmark
+    public int fullScan() {
+        int on = 0;
+        for (StreetlightService.StreetlightState state : service.getAllStates().values()) {
+            if (zone.contains(state.getStreetlightId()) && state.isOn()) {
+                on++;
+            }
+        }
+        return on;
+    }
+}
@@ -0,0 +1,110 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.producer.OfflineKafkaTemplates;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State transitions through {@link StreetlightService} from four threads at
+ * once, for each state store and with every thread on the same light or
+ * spread over many, plus the measurement built for each transition.
+ *
+ * Measurements go through a started {@link LightMeasurementProducer} to the
+ * mock producer with overflow=drop, so a slow sender thread cannot stall the
+ * transitions being measured; {@code LightMeasuredEventBenchmark} covers the
+ * publish itself.
+ *
+ * Every command is sent a microsecond after the previous one, from a clock
+ * shared by all threads, so each one is applied; a repeated {@code sentAt}
+ * would be rejected as a duplicate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreetlightServiceBenchmark {
+
+    @Param({"map", "packed"})
+    private String store;
+
+    @Param({"1", "10000"})
+    private int lights;
+
+    private final LocalDateTime sentAt = LocalDateTime.of(2024, 1, 1, 18, 0);
+    private final AtomicLong clock = new AtomicLong();
+    private final StreetlightState state = new StreetlightState("bench-001", true, 40, sentAt);
+
+    private String[] ids;
+    private LightMeasurementProducer producer;
+    private StreetlightService service;
+
+    @Setup
+    public void setUp() {
+        ids = new String[lights];
+        for (int i = 0; i < lights; i++) {
+            ids[i] = String.format("light-%05d", i);
+        }
+        TopicResolver topicResolver = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim", 100_000);
+        producer = new LightMeasurementProducer(OfflineKafkaTemplates.kafkaTemplate(), topicResolver,
+                65_536, 500, "drop", new SimpleMeterRegistry());
+        producer.start();
+        service = new StreetlightService(producer,
+                "packed".equals(store) ? new PackedStreetlightStateStore() : new InMemoryStreetlightStateStore());
+        for (String id : ids) {
+            service.turnOn(id, new TurnOnOffCommand("on", sentAt, 50));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        producer.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String next(String[] ids) {
+            String id = ids[next];
+            next = next + 1 == ids.length ? 0 : next + 1;
+            return id;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void turnOn(Cursor cursor) {
+        service.turnOn(cursor.next(ids), new TurnOnOffCommand("on", nextSentAt(), 50));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void dim(Cursor cursor) {
+        service.dim(cursor.next(ids), new DimLightCommand(40, nextSentAt(), 50));
+    }
+
+    @Benchmark
+    public LightMeasuredEvent measure() {
+        return StreetlightService.measure(state);
+    }
+
+    private LocalDateTime nextSentAt() {
+        return sentAt.plusNanos(clock.incrementAndGet() * 1_000);
+    }
+}
@@ -1,25 +1,61 @@
 package com.smartylighting.streetlights.config;
 
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.serde.StreetlightsDeserializer;
+import com.smartylighting.streetlights.serde.StreetlightsSerializer;
+import com.smartylighting.streetlights.service.CommandCoalescer;
+import com.smartylighting.streetlights.service.PartitionOwnership;
+import com.smartylighting.streetlights.service.StateSnapshotter;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.system.JavaVersion;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
 @EnableKafka
 public class KafkaConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(KafkaConfig.class);
+
+    // payload types of per-light topics follow the configured topic templates
+    @Autowired
+    private TopicResolver topicResolver;
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
@@ -29,6 +65,40 @@ public class KafkaConfig {
     @Value("${spring.kafka.properties.client.id}")
     private String clientId;
 
+    // batch mode hands each poll to the listener as a List<ConsumerRecord>
+    @Value("${streetlights.consumer.batch-listener:false}")
+    private boolean batchListener;
+
+    @Value("${streetlights.consumer.max-poll-records:500}")
+    private int maxPollRecords;
+
+    // topics starting with one of these prefixes are written in the compact binary format
+    @Value("${streetlights.serde.binary-topic-prefixes:}")
+    private List<String> binaryTopicPrefixes;
+
+    // the measurement sender thread hands records over in bursts, the producer batches them on the wire
+    @Value("${streetlights.producer.linger-ms:5}")
+    private int producerLingerMs;
+
+    @Value("${streetlights.producer.batch-size:65536}")
+    private int producerBatchSize;
+
+    // none, gzip, snappy, lz4 or zstd
+    @Value("${streetlights.producer.compression:lz4}")
+    private String producerCompression;
+
+    // at-least-once, or exactly-once: measurements and consumer offsets commit in one transaction
+    @Value("${streetlights.processing.guarantee:at-least-once}")
+    private String processingGuarantee;
+
+    // on Java 21+ Spring Boot moves Tomcat onto virtual threads; the listener containers are switched here
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    // must be unique per instance, see application.properties
+    @Value("${streetlights.transaction-id-prefix:streetlights-tx-}")
+    private String transactionIdPrefix;
+
     // optional
     @Value("${KAFKA_USERNAME:}")
     private String kafkaUsername;
@@ -36,37 +106,49 @@ public class KafkaConfig {
     @Value("${KAFKA_PASSWORD:}")
     private String kafkaPassword;
 
+    @Bean
+    @ConditionalOnExpression("'${streetlights.command.layout:per-light}' != 'per-light'")
+    public NewTopic commandTopic(@Value("${streetlights.command.topic}") String topic,
+                                 @Value("${streetlights.command.partitions:12}") int partitions) {
+        return TopicBuilder.name(topic).partitions(partitions).build();
+    }
+
     @Bean
     public ProducerFactory<String, Object> producerFactory() {
         Map<String, Object> configProps = new HashMap<>();
 
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         configProps.put(ProducerConfig.CLIENT_ID_CONFIG, clientId);
 
         // Performance tuning
         configProps.put(ProducerConfig.ACKS_CONFIG, "all");
         configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
-        configProps.put(ProducerConfig.LINGER_MS_CONFIG, 1);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, producerLingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, producerBatchSize);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, producerCompression);
 
-        if (!kafkaUsername.isEmpty() && !kafkaPassword.isEmpty()) {
-            configProps.put("security.protocol", "SASL_SSL");
-            configProps.put("sasl.mechanism", "SCRAM-SHA-256");
-            configProps.put("sasl.jaas.config",
-                    String.format(
-                            "org.apache.kafka.common.security.scram.ScramLoginModule required username=\"%s\" password=\"%s\";",
-                            kafkaUsername, kafkaPassword
-                    )
-            );
+        addSecurityConfig(configProps);
+
+        if (exactlyOnce()) {
+            configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
         }
 
-        return new DefaultKafkaProducerFactory<>(configProps);
+        DefaultKafkaProducerFactory<String, Object> factory = new DefaultKafkaProducerFactory<>(configProps,
+                new StringSerializer(),
+                new StreetlightsSerializer(binaryTopicPrefixes));
+        if (exactlyOnce()) {
+            factory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        return factory;
     }
 
     @Bean
     public KafkaTemplate<String, Object> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+        KafkaTemplate<String, Object> template = new KafkaTemplate<>(producerFactory());
+        // commands from the REST API and measurements outside a listener are sent without a transaction
+        template.setAllowNonTransactional(exactlyOnce());
+        return template;
     }
 
     @Bean
@@ -76,14 +158,141 @@ public class KafkaConfig {
         configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ConsumerConfig.GROUP_ID_CONFIG, consumerGroupId);
         configProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
         configProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        configProps.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
-        configProps.put(JsonDeserializer.USE_TYPE_INFO_HEADERS, false);
-        configProps.put(JsonDeserializer.VALUE_DEFAULT_TYPE, "java.util.HashMap");
         configProps.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, 30000);
         configProps.put(ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG, 10000);
+        configProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        if (exactlyOnce()) {
+            // only see measurements and commands from committed transactions
+            configProps.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
+
+        addSecurityConfig(configProps);
+
+        // poison payloads surface as a DeserializationException instead of killing the poll loop
+        return new DefaultKafkaConsumerFactory<>(configProps,
+                new StringDeserializer(),
+                new ErrorHandlingDeserializer<>(new StreetlightsDeserializer(commandValueDeserializer(topicResolver))));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.changelog.enabled", havingValue = "true")
+    public NewTopic stateChangelogTopic(@Value("${streetlights.changelog.topic}") String topic,
+                                        @Value("${streetlights.changelog.partitions:12}") int partitions) {
+        return TopicBuilder.name(topic).partitions(partitions).compact().build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.changelog.enabled", havingValue = "true")
+    public KafkaTemplate<String, byte[]> stateChangelogTemplate() {
+        Map<String, Object> configProps = new HashMap<>();
+
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configProps.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-changelog");
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        addSecurityConfig(configProps);
+
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(configProps));
+    }
+
+    /**
+     * Group-less consumer for bulk-reading the state changelog on startup,
+     * tuned for large fetches rather than latency.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.changelog.enabled", havingValue = "true")
+    public ConsumerFactory<String, byte[]> stateRestoreConsumerFactory(
+            @Value("${streetlights.changelog.restore-fetch-max-bytes:67108864}") int fetchMaxBytes) {
+        Map<String, Object> configProps = new HashMap<>();
+
+        configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        configProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        configProps.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, false);
+        configProps.put(ConsumerConfig.FETCH_MAX_BYTES_CONFIG, fetchMaxBytes);
+        configProps.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, fetchMaxBytes / 4);
+        configProps.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, 1024 * 1024);
+        configProps.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, 100);
+        configProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 10_000);
+        addSecurityConfig(configProps);
 
+        return new DefaultKafkaConsumerFactory<>(configProps);
+    }
+
+    /**
+     * Single-threaded container for the {@code StateReplica} changelog tail.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.ownership.enabled", havingValue = "true")
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> stateReplicaContainerFactory(
+            @Qualifier("stateRestoreConsumerFactory") ConsumerFactory<String, byte[]> stateRestoreConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+
+        factory.setConsumerFactory(stateRestoreConsumerFactory);
+        factory.setConcurrency(1);
+        factory.setAutoStartup(true);
+
+        return factory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.rollup.enabled", havingValue = "true")
+    public NewTopic rollupTopic(@Value("${streetlights.rollup.topic}") String topic,
+                                @Value("${streetlights.rollup.partitions:12}") int partitions) {
+        return TopicBuilder.name(topic).partitions(partitions).build();
+    }
+
+    /**
+     * Single-threaded container for the {@code TelemetryRollup} measurement
+     * stream, so windows see each light's measurements in topic order. Unlike
+     * the command containers it takes no part in snapshots or ownership.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "streetlights.rollup.enabled", havingValue = "true")
+    public ConcurrentKafkaListenerContainerFactory<String, Object> rollupContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Object> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(1);
+        factory.setAutoStartup(true);
+        useVirtualThreads(factory, "rollup-");
+
+        return factory;
+    }
+
+    /**
+     * Runs the factory's consumer threads as virtual threads when
+     * {@code spring.threads.virtual.enabled=true} on Java 21 or later. A
+     * listener blocked in a send then releases its carrier thread instead of
+     * holding a platform thread.
+     */
+    private void useVirtualThreads(ConcurrentKafkaListenerContainerFactory<?, ?> factory, String threadNamePrefix) {
+        if (!virtualThreadsEnabled) {
+            return;
+        }
+        if (JavaVersion.getJavaVersion().isOlderThan(JavaVersion.TWENTY_ONE)) {
+            log.warn("spring.threads.virtual.enabled needs Java 21 or later, running on {}; "
+                    + "listener containers keep platform threads", JavaVersion.getJavaVersion());
+            return;
+        }
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        factory.getContainerProperties().setListenerTaskExecutor(executor);
+    }
+
+    private boolean exactlyOnce() {
+        return "exactly-once".equals(processingGuarantee);
+    }
+
+    private void addSecurityConfig(Map<String, Object> configProps) {
         if (!kafkaUsername.isEmpty() && !kafkaPassword.isEmpty()) {
             configProps.put("security.protocol", "SASL_SSL");
             configProps.put("sasl.mechanism", "SCRAM-SHA-256");
@@ -94,22 +303,139 @@ public class KafkaConfig {
                     )
             );
         }
+    }
 
-        return new DefaultKafkaConsumerFactory<>(configProps,
-                new StringDeserializer(),
-                new JsonDeserializer<>(Object.class, false));
+    /**
+     * Decodes command payloads straight into the class picked by {@link PayloadTypeResolver}.
+     */
+    static JsonDeserializer<Object> commandValueDeserializer(TopicResolver topicResolver) {
+        JsonDeserializer<Object> deserializer = new JsonDeserializer<>(Object.class, false);
+        deserializer.setTypeResolver(new PayloadTypeResolver(topicResolver)::resolveType);
+        return deserializer;
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(
+            ObjectProvider<StateSnapshotter> stateSnapshotter,
+            ObjectProvider<PartitionOwnership> partitionOwnership,
+            ObjectProvider<CommandCoalescer> commandCoalescer) {
         ConcurrentKafkaListenerContainerFactory<String, Object> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
 
         factory.setConsumerFactory(consumerFactory());
-        // factory.setBatchListener(true);
+        factory.setBatchListener(batchListener);
         factory.setConcurrency(3);
         factory.setAutoStartup(true);
+        useVirtualThreads(factory, "listener-");
+        if (exactlyOnce()) {
+            // each record (or batch) runs in a producer transaction that also commits its offsets
+            factory.getContainerProperties().setTransactionManager(
+                    new KafkaTransactionManager<>(producerFactory()));
+        }
+
+        StateSnapshotter snapshotter = stateSnapshotter.getIfAvailable();
+        CommandCoalescer coalescer = commandCoalescer.getIfAvailable();
+        if (snapshotter != null || coalescer != null) {
+            addInterceptor(factory, snapshotter, coalescer);
+        }
+
+        List<ConsumerAwareRebalanceListener> rebalanceListeners = new ArrayList<>();
+        // the coalescer goes first, so the snapshot and the commit see its pending commands applied
+        if (coalescer != null) {
+            rebalanceListeners.add(coalescer);
+        }
+        if (snapshotter != null) {
+            rebalanceListeners.add(snapshotter);
+        }
+        partitionOwnership.ifAvailable(rebalanceListeners::add);
+        if (!rebalanceListeners.isEmpty()) {
+            factory.getContainerProperties().setConsumerRebalanceListener(combine(rebalanceListeners));
+        }
 
         return factory;
     }
-}
\ No newline at end of file
+
+    /**
+     * Calls every listener in order; the container only takes one.
+     */
+    private static ConsumerAwareRebalanceListener combine(List<ConsumerAwareRebalanceListener> listeners) {
+        return new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+                                                        Collection<TopicPartition> partitions) {
+                listeners.forEach(listener -> listener.onPartitionsRevokedBeforeCommit(consumer, partitions));
+            }
+
+            @Override
+            public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer,
+                                                       Collection<TopicPartition> partitions) {
+                listeners.forEach(listener -> listener.onPartitionsRevokedAfterCommit(consumer, partitions));
+            }
+
+            @Override
+            public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                listeners.forEach(listener -> listener.onPartitionsLost(consumer, partitions));
+            }
+
+            @Override
+            public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                listeners.forEach(listener -> listener.onPartitionsAssigned(consumer, partitions));
+            }
+        };
+    }
+
+    /**
+     * Lets the snapshotter see which records have been applied and, for record
+     * listeners, drains the coalescer once a poll's records are processed:
+     * with the default batch ack mode their offsets are committed just before
+     * the next poll. The batch listener drains it itself, as batch offsets are
+     * committed as soon as the listener returns.
+     */
+    private void addInterceptor(ConcurrentKafkaListenerContainerFactory<String, Object> factory,
+                                StateSnapshotter snapshotter, CommandCoalescer coalescer) {
+        if (batchListener) {
+            if (snapshotter == null) {
+                return;
+            }
+            factory.setBatchInterceptor(new BatchInterceptor<>() {
+                @Override
+                public ConsumerRecords<String, Object> intercept(ConsumerRecords<String, Object> records,
+                                                                 Consumer<String, Object> consumer) {
+                    return records;
+                }
+
+                @Override
+                public void success(ConsumerRecords<String, Object> records, Consumer<String, Object> consumer) {
+                    records.forEach(snapshotter::markProcessed);
+                }
+            });
+        } else {
+            factory.setRecordInterceptor(new RecordInterceptor<>() {
+                @Override
+                public ConsumerRecord<String, Object> intercept(ConsumerRecord<String, Object> record,
+                                                                Consumer<String, Object> consumer) {
+                    return record;
+                }
+
+                @Override
+                public void success(ConsumerRecord<String, Object> record, Consumer<String, Object> consumer) {
+                    if (snapshotter != null) {
+                        snapshotter.markProcessed(record);
+                    }
+                }
+
+                @Override
+                public void clearThreadState(Consumer<?, ?> consumer) {
+                    if (coalescer == null) {
+                        return;
+                    }
+                    try {
+                        coalescer.drain();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+}
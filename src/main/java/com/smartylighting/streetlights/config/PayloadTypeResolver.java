@@ -0,0 +1,55 @@
+package com.smartylighting.streetlights.config;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.util.HashMap;
+
+/**
+ * Picks the target type for an incoming JSON payload so it can be decoded
+ * straight into the command class, without an intermediate {@code Map}.
+ *
+ * The {@link CommandType#HEADER} header wins when present (keyed command
+ * topic); otherwise the {@link TopicResolver} templates decide which per-light
+ * command topic it is. Measurement event topics decode to
+ * {@link LightMeasuredEvent}; anything else still decodes to a {@code HashMap}.
+ */
+public final class PayloadTypeResolver {
+
+    private static final TypeFactory TYPE_FACTORY = TypeFactory.defaultInstance();
+    private static final JavaType MAP_TYPE = TYPE_FACTORY.constructType(HashMap.class);
+    private static final JavaType EVENT_TYPE = TYPE_FACTORY.constructType(LightMeasuredEvent.class);
+    private static final JavaType[] COMMAND_TYPES = new JavaType[CommandType.values().length];
+
+    static {
+        for (CommandType type : CommandType.values()) {
+            COMMAND_TYPES[type.ordinal()] = TYPE_FACTORY.constructType(type.getCommandClass());
+        }
+    }
+
+    private final TopicResolver topicResolver;
+
+    public PayloadTypeResolver(TopicResolver topicResolver) {
+        this.topicResolver = topicResolver;
+    }
+
+    public JavaType resolveType(String topic, byte[] data, Headers headers) {
+        CommandType type = null;
+        Header header = headers != null ? headers.lastHeader(CommandType.HEADER) : null;
+        if (header != null) {
+            type = CommandType.fromHeader(header.value());
+        }
+        if (type == null) {
+            type = topicResolver.commandType(topic);
+        }
+        if (type != null) {
+            return COMMAND_TYPES[type.ordinal()];
+        }
+        return topicResolver.isLightMeasuredTopic(topic) ? EVENT_TYPE : MAP_TYPE;
+    }
+}
@@ -0,0 +1,169 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.CommandDispatcher;
+import com.smartylighting.streetlights.service.FoldedCommands;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch replacement for {@link TurnOnOffConsumer} and {@link DimLightConsumer},
+ * active when {@code streetlights.consumer.batch-listener=true}.
+ *
+ * Listens on the per-light action topics and, depending on
+ * {@code streetlights.command.layout}, on the single keyed command topic.
+ * Each poll is grouped by streetlight ID and every group is folded, in
+ * arrival order, into the light's final on/off and dim state, which reaches the
+ * {@link CommandDispatcher} as one state change with at most one measurement.
+ * A record that cannot be decoded is logged with its coordinates and skipped;
+ * the rest of its group is still applied. If applying a group fails, every
+ * command folded into it counts as failed.
+ * With coalescing enabled the batch returns only once the coalescer has
+ * applied it, so its offsets are never committed ahead of its state.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.consumer.batch-listener", havingValue = "true")
+public class BatchCommandConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCommandConsumer.class);
+
+    private final CommandDispatcher commandDispatcher;
+    private final CommandMetrics commandMetrics;
+    private final TopicResolver topicResolver;
+
+    @Autowired
+    public BatchCommandConsumer(CommandDispatcher commandDispatcher, CommandMetrics commandMetrics,
+                                TopicResolver topicResolver) {
+        this.commandDispatcher = commandDispatcher;
+        this.commandMetrics = commandMetrics;
+        this.topicResolver = topicResolver;
+    }
+
+    @KafkaListener(
+            topicPattern = "#{@topicResolver.commandTopicsPattern()}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'keyed'}"
+    )
+    public void consumeCommands(List<ConsumerRecord<String, Object>> records) {
+        applyBatch(records, true);
+    }
+
+    @KafkaListener(
+            topics = "${streetlights.command.topic}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'per-light'}"
+    )
+    public void consumeKeyedCommands(List<ConsumerRecord<String, Object>> records) {
+        applyBatch(records, false);
+    }
+
+    private void applyBatch(List<ConsumerRecord<String, Object>> records, boolean perLightTopics) {
+        Map<String, List<ConsumerRecord<String, Object>>> byStreetlight = new LinkedHashMap<>();
+        int failed = 0;
+        for (ConsumerRecord<String, Object> record : records) {
+            String streetlightId = perLightTopics ? topicResolver.streetlightId(record.topic()) : record.key();
+            if (streetlightId == null) {
+                failed++;
+                log.error("Dropping command from {}-{}@{} without a streetlight {}", record.topic(),
+                        record.partition(), record.offset(), perLightTopics ? "ID in the topic" : "key");
+                continue;
+            }
+            byStreetlight.computeIfAbsent(streetlightId, id -> new ArrayList<>()).add(record);
+        }
+
+        for (Map.Entry<String, List<ConsumerRecord<String, Object>>> group : byStreetlight.entrySet()) {
+            failed += applyGroup(group.getKey(), group.getValue(), perLightTopics);
+        }
+        // the container commits the batch's offsets as soon as this returns
+        try {
+            commandDispatcher.awaitApplied();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failed > 0) {
+            log.warn("Processed batch of {} command(s) for {} streetlight(s), {} failed",
+                    records.size(), byStreetlight.size(), failed);
+        }
+    }
+
+    /**
+     * Folds one streetlight's commands in order, applies the result and returns
+     * how many commands failed.
+     */
+    private int applyGroup(String streetlightId, List<ConsumerRecord<String, Object>> group,
+                           boolean perLightTopics) {
+        int failed = 0;
+        FoldedCommands folded = new FoldedCommands();
+        List<CommandType> types = new ArrayList<>(group.size());
+        long[] starts = new long[group.size()];
+
+        for (ConsumerRecord<String, Object> record : group) {
+            CommandType type = null;
+            long start = System.nanoTime();
+            try {
+                type = perLightTopics
+                        ? topicResolver.commandType(record.topic())
+                        : CommandType.fromHeader(headerValue(record, CommandType.HEADER));
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown command type for record on " + record.topic());
+                }
+                // null when ErrorHandlingDeserializer could not decode the payload
+                if (record.value() == null) {
+                    throw new IllegalArgumentException("Payload could not be deserialized");
+                }
+                LightCommand command = type.getCommandClass().cast(record.value());
+                start = commandMetrics.received(type, command);
+
+                folded.fold(type, command);
+                starts[types.size()] = start;
+                types.add(type);
+
+            } catch (Exception e) {
+                failed++;
+                commandMetrics.failed(type, e, start);
+                log.error("Failed to process command from {}-{}@{} for streetlight {}: {}",
+                        record.topic(), record.partition(), record.offset(), streetlightId, e.getMessage(), e);
+            }
+        }
+        if (types.isEmpty()) {
+            return failed;
+        }
+
+        try {
+            log.debug("Applying {} folded command(s) for streetlight {}: {}", types.size(), streetlightId, folded);
+            commandDispatcher.dispatch(streetlightId, folded);
+            for (int i = 0; i < types.size(); i++) {
+                commandMetrics.processed(types.get(i), starts[i]);
+            }
+        } catch (Exception e) {
+            failed += types.size();
+            for (int i = 0; i < types.size(); i++) {
+                commandMetrics.failed(types.get(i), e, starts[i]);
+            }
+            log.error("Failed to apply {} command(s) for streetlight {}: {}",
+                    types.size(), streetlightId, e.getMessage(), e);
+        }
+        return failed;
+    }
+
+    private static byte[] headerValue(ConsumerRecord<String, Object> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header != null ? header.value() : null;
+    }
+}
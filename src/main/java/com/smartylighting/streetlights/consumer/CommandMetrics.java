@@ -0,0 +1,113 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters the command consumers record into, tagged by command type:
+ * <ul>
+ *   <li>{@code streetlights.command.lag}: receipt time minus the command's sentAt</li>
+ *   <li>{@code streetlights.command.processing}: time from receipt to dispatched, by outcome</li>
+ *   <li>{@code streetlights.command.failures}: failed commands by exception type</li>
+ * </ul>
+ * Timers are resolved once per type so the hot path does no meter lookups;
+ * percentile histograms are switched on in application.properties.
+ */
+@Component
+public class CommandMetrics {
+
+    private static final String UNKNOWN_TYPE = "unknown";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<CommandType, Timer> lag = new EnumMap<>(CommandType.class);
+    private final Map<CommandType, Timer> succeeded = new EnumMap<>(CommandType.class);
+    private final Map<CommandType, Timer> failed = new EnumMap<>(CommandType.class);
+    private final Timer failedUnknownType;
+
+    @Autowired
+    public CommandMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (CommandType type : CommandType.values()) {
+            String tag = tag(type);
+            lag.put(type, Timer.builder("streetlights.command.lag")
+                    .description("Time from a command's sentAt until it was received")
+                    .tag("type", tag)
+                    .register(meterRegistry));
+            succeeded.put(type, processingTimer(tag, "success"));
+            failed.put(type, processingTimer(tag, "failure"));
+        }
+        failedUnknownType = processingTimer(UNKNOWN_TYPE, "failure");
+    }
+
+    /**
+     * Records the command's lag and returns the start of its processing for
+     * {@link #processed} or {@link #failed}.
+     */
+    public long received(CommandType type, LightCommand command) {
+        long start = System.nanoTime();
+        LocalDateTime sentAt = command != null ? command.getSentAt() : null;
+        if (type != null && sentAt != null) {
+            // clocks of other senders may run ahead; count those as no lag
+            long lagMicros = Math.max(0, ChronoUnit.MICROS.between(sentAt, LocalDateTime.now(ZoneOffset.UTC)));
+            lag.get(type).record(lagMicros, TimeUnit.MICROSECONDS);
+        }
+        return start;
+    }
+
+    public void processed(CommandType type, long start) {
+        succeeded.get(type).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void failed(CommandType type, Exception e, long start) {
+        (type != null ? failed.get(type) : failedUnknownType).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        // failures are rare, so the per-exception counter is looked up when needed
+        Counter.builder("streetlights.command.failures")
+                .description("Commands that could not be processed")
+                .tag("type", type != null ? tag(type) : UNKNOWN_TYPE)
+                .tag("exception", e.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Commands of this type processed successfully since startup.
+     */
+    public long getProcessedCount(CommandType type) {
+        return succeeded.get(type).count();
+    }
+
+    /**
+     * Commands that failed since startup, of any type.
+     */
+    public long getFailedCount() {
+        long count = failedUnknownType.count();
+        for (Timer timer : failed.values()) {
+            count += timer.count();
+        }
+        return count;
+    }
+
+    private Timer processingTimer(String type, String outcome) {
+        return Timer.builder("streetlights.command.processing")
+                .description("Time to process a received command")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static String tag(CommandType type) {
+        return type.name().toLowerCase().replace('_', '-');
+    }
+}
@@ -1,67 +1,61 @@
 package com.smartylighting.streetlights.consumer;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smartylighting.streetlights.model.command.CommandType;
 import com.smartylighting.streetlights.model.command.DimLightCommand;
-import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.CommandDispatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-
 @Component
+@ConditionalOnProperty(name = "streetlights.consumer.batch-listener", havingValue = "false", matchIfMissing = true)
 public class DimLightConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(DimLightConsumer.class);
-    private final StreetlightService streetlightService;
-    private final ObjectMapper objectMapper;
+    private final CommandDispatcher commandDispatcher;
+    private final CommandMetrics commandMetrics;
+    private final TopicResolver topicResolver;
 
     @Autowired
-    public DimLightConsumer(StreetlightService streetlightService, ObjectMapper objectMapper) {
-        this.streetlightService = streetlightService;
-        this.objectMapper = objectMapper;
+    public DimLightConsumer(CommandDispatcher commandDispatcher, CommandMetrics commandMetrics,
+                            TopicResolver topicResolver) {
+        this.commandDispatcher = commandDispatcher;
+        this.commandMetrics = commandMetrics;
+        this.topicResolver = topicResolver;
     }
 
     @KafkaListener(
-            topicPattern = "smartylighting\\.streetlights\\.1\\.0\\.action\\..*\\.dim",
+            topicPattern = "#{@topicResolver.commandTopicPattern('DIM')}",
             groupId = "${spring.kafka.consumer.group-id}",
-            containerFactory = "kafkaListenerContainerFactory"
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'keyed'}"
     )
     public void consumeDimCommand(
-            @Payload Map<String, Object> payload,
-            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-            @Header(value = KafkaHeaders.RECEIVED_KEY, required = false) String key) {
-
-        log.info("Received DIM command from topic: {}", topic);
-        log.debug("Message key: {}, Payload: {}", key, payload);
+            @Payload DimLightCommand command,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
 
+        long start = commandMetrics.received(CommandType.DIM, command);
         try {
-            DimLightCommand command = objectMapper.convertValue(payload, DimLightCommand.class);
-            String streetlightId = extractStreetlightId(topic);
-
-            log.debug("Parsed command: {}", command);
+            String streetlightId = topicResolver.streetlightId(topic);
+            if (streetlightId == null) {
+                throw new IllegalArgumentException("Topic does not match the dim template: " + topic);
+            }
 
-            streetlightService.dim(streetlightId, command);
+            commandDispatcher.dispatch(streetlightId, CommandType.DIM, command);
+            commandMetrics.processed(CommandType.DIM, start);
 
-            log.info("Successfully processed DIM command for streetlight: {} to {}%",
-                    streetlightId, command.getPercentage());
+            log.debug("Processed DIM command for streetlight {}: {}", streetlightId, command);
 
         } catch (Exception e) {
+            commandMetrics.failed(CommandType.DIM, e, start);
             log.error("Failed to process DIM command: {}", e.getMessage(), e);
         }
     }
-
-    private String extractStreetlightId(String topic) {
-        String[] parts = topic.split("\\.");
-        if (parts.length >= 6) {
-            return parts[5]; // streetlightId at index 5
-        }
-        log.warn("Could not extract streetlightId from topic: {}", topic);
-        return "unknown";
-    }
 }
\ No newline at end of file
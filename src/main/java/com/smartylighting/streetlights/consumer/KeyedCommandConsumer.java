@@ -0,0 +1,65 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import com.smartylighting.streetlights.service.CommandDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Consumes the single keyed command topic: the record key is the streetlight ID
+ * and the {@link CommandType#HEADER} header selects turn on, turn off or dim.
+ *
+ * Started when {@code streetlights.command.layout} is {@code keyed} or {@code compat}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.consumer.batch-listener", havingValue = "false", matchIfMissing = true)
+public class KeyedCommandConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyedCommandConsumer.class);
+
+    private final CommandDispatcher commandDispatcher;
+    private final CommandMetrics commandMetrics;
+
+    @Autowired
+    public KeyedCommandConsumer(CommandDispatcher commandDispatcher, CommandMetrics commandMetrics) {
+        this.commandDispatcher = commandDispatcher;
+        this.commandMetrics = commandMetrics;
+    }
+
+    @KafkaListener(
+            topics = "${streetlights.command.topic}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'per-light'}"
+    )
+    public void consumeCommand(
+            @Payload LightCommand command,
+            @Header(value = KafkaHeaders.RECEIVED_KEY, required = false) String streetlightId,
+            @Header(value = CommandType.HEADER, required = false) byte[] typeHeader) {
+
+        CommandType type = CommandType.fromHeader(typeHeader);
+        long start = commandMetrics.received(type, command);
+        try {
+            if (streetlightId == null || type == null) {
+                throw new IllegalArgumentException("Command record needs a streetlight key and a "
+                        + CommandType.HEADER + " header");
+            }
+            commandDispatcher.dispatch(streetlightId, type, command);
+            commandMetrics.processed(type, start);
+
+            log.debug("Processed {} command for streetlight {}", type, streetlightId);
+
+        } catch (Exception e) {
+            commandMetrics.failed(type, e, start);
+            log.error("Failed to process keyed command: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.TelemetryRollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feeds the per-light measurement topics into {@link TelemetryRollup}. The
+ * {@code <application>-rollup} group is shared by all instances, so each one
+ * rolls up only the measurement topics assigned to it: per-light rollups are
+ * complete, group rollups are per-instance partials (see
+ * {@link com.smartylighting.streetlights.model.event.LumensRollup}).
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.rollup.enabled", havingValue = "true")
+public class LightMeasurementConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(LightMeasurementConsumer.class);
+    private final TelemetryRollup telemetryRollup;
+    private final TopicResolver topicResolver;
+
+    @Autowired
+    public LightMeasurementConsumer(TelemetryRollup telemetryRollup, TopicResolver topicResolver) {
+        this.telemetryRollup = telemetryRollup;
+        this.topicResolver = topicResolver;
+    }
+
+    @KafkaListener(
+            topicPattern = "#{@topicResolver.lightMeasuredTopicPattern()}",
+            groupId = "${spring.application.name}-rollup",
+            containerFactory = "rollupContainerFactory"
+    )
+    public void consumeMeasurement(
+            @Payload LightMeasuredEvent event,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
+
+        String streetlightId = topicResolver.streetlightId(topic);
+        if (streetlightId == null) {
+            log.warn("Skipping measurement from topic {}, which does not match the measurement template", topic);
+            return;
+        }
+        try {
+            telemetryRollup.accept(streetlightId, event);
+        } catch (Exception e) {
+            log.error("Failed to roll up measurement from topic {}: {}", topic, e.getMessage(), e);
+        }
+    }
+}
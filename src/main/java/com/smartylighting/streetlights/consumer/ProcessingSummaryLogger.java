@@ -0,0 +1,144 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.service.StreetlightService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs one INFO line per {@code streetlights.logging.summary-interval-ms} with
+ * the commands processed, failed and rejected as stale, and the measurements
+ * published, failed and dropped in that interval. Per-command lines are DEBUG
+ * only; failures are still logged individually where they happen.
+ *
+ * Intervals without any activity are not logged. An interval of 0 disables
+ * the summary.
+ */
+@Component
+public class ProcessingSummaryLogger {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessingSummaryLogger.class);
+
+    private final CommandMetrics commandMetrics;
+    private final StreetlightService streetlightService;
+    private final LightMeasurementProducer lightMeasurementProducer;
+    private final long intervalMs;
+
+    // totals at the end of the previous interval
+    private final long[] processed = new long[CommandType.values().length];
+    private long failed;
+    private long stale;
+    private long published;
+    private long publishFailed;
+    private long dropped;
+    private long backpressureWaits;
+    private long intervalStart = System.nanoTime();
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ProcessingSummaryLogger(CommandMetrics commandMetrics,
+                                   StreetlightService streetlightService,
+                                   LightMeasurementProducer lightMeasurementProducer,
+                                   @Value("${streetlights.logging.summary-interval-ms:10000}") long intervalMs) {
+        this.commandMetrics = commandMetrics;
+        this.streetlightService = streetlightService;
+        this.lightMeasurementProducer = lightMeasurementProducer;
+        this.intervalMs = intervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalMs <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "processing-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::logSummary, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        // whatever happened since the last summary
+        logSummary();
+    }
+
+    private void logSummary() {
+        try {
+            String summary = summarize();
+            if (summary != null) {
+                log.info(summary);
+            }
+        } catch (Exception e) {
+            log.error("Failed to summarize processing: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Builds the summary of everything counted since the previous call, or
+     * returns null when nothing was processed or published in between.
+     */
+    synchronized String summarize() {
+        long now = System.nanoTime();
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - intervalStart));
+        intervalStart = now;
+
+        StringBuilder byType = new StringBuilder();
+        long processedTotal = 0;
+        for (CommandType type : CommandType.values()) {
+            long total = commandMetrics.getProcessedCount(type);
+            long count = total - processed[type.ordinal()];
+            processed[type.ordinal()] = total;
+            processedTotal += count;
+            if (byType.length() > 0) {
+                byType.append(", ");
+            }
+            byType.append(type.name().toLowerCase().replace('_', '-')).append(' ').append(count);
+        }
+        long failedTotal = commandMetrics.getFailedCount();
+        long staleTotal = streetlightService.getStaleCommandCount();
+        long publishedTotal = lightMeasurementProducer.getPublishedCount();
+        long publishFailedTotal = lightMeasurementProducer.getFailedCount();
+        long droppedTotal = lightMeasurementProducer.getDroppedCount();
+        long waitTotal = lightMeasurementProducer.getBackpressureWaitCount();
+
+        long failedCount = failedTotal - failed;
+        long staleCount = staleTotal - stale;
+        long publishedCount = publishedTotal - published;
+        long publishFailedCount = publishFailedTotal - publishFailed;
+        long droppedCount = droppedTotal - dropped;
+        long waitCount = waitTotal - backpressureWaits;
+
+        failed = failedTotal;
+        stale = staleTotal;
+        published = publishedTotal;
+        publishFailed = publishFailedTotal;
+        dropped = droppedTotal;
+        backpressureWaits = waitTotal;
+
+        if (processedTotal + failedCount + staleCount + publishedCount + publishFailedCount + droppedCount == 0) {
+            return null;
+        }
+        return String.format("Last %d ms: %d command(s) processed (%s), %d/s, %d failed, %d stale; "
+                        + "%d measurement(s) published, %d failed, %d dropped, %d backpressure wait(s)",
+                elapsedMs, processedTotal, byType, processedTotal * 1000 / elapsedMs, failedCount, staleCount,
+                publishedCount, publishFailedCount, droppedCount, waitCount);
+    }
+}
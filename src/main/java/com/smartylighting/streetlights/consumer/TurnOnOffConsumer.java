@@ -1,96 +1,93 @@
 package com.smartylighting.streetlights.consumer;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smartylighting.streetlights.model.command.CommandType;
 import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
-import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.CommandDispatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-
 @Component
+@ConditionalOnProperty(name = "streetlights.consumer.batch-listener", havingValue = "false", matchIfMissing = true)
 public class TurnOnOffConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(TurnOnOffConsumer.class);
 
-    private final StreetlightService streetlightService;
-    private final ObjectMapper objectMapper;
+    private final CommandDispatcher commandDispatcher;
+    private final CommandMetrics commandMetrics;
+    private final TopicResolver topicResolver;
 
     @Autowired
-    public TurnOnOffConsumer(StreetlightService streetlightService, ObjectMapper objectMapper) {
-        this.streetlightService = streetlightService;
-        this.objectMapper = objectMapper;
+    public TurnOnOffConsumer(CommandDispatcher commandDispatcher, CommandMetrics commandMetrics,
+                             TopicResolver topicResolver) {
+        this.commandDispatcher = commandDispatcher;
+        this.commandMetrics = commandMetrics;
+        this.topicResolver = topicResolver;
     }
 
     @KafkaListener(
-            topicPattern = "smartylighting\\.streetlights\\.1\\.0\\.action\\..*\\.turn\\.on",
+            topicPattern = "#{@topicResolver.commandTopicPattern('TURN_ON')}",
             groupId = "${spring.kafka.consumer.group-id}",
-            containerFactory = "kafkaListenerContainerFactory"
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'keyed'}"
     )
     public void consumeTurnOnCommand(
-            @Payload Map<String, Object> payload,
-            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-            @Header(value = KafkaHeaders.RECEIVED_KEY, required = false) String key) {
-
-        log.info("Received TURN ON command from topic: {}", topic);
-        log.debug("Message key: {}, Payload: {}", key, payload);
+            @Payload TurnOnOffCommand command,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
 
+        long start = commandMetrics.received(CommandType.TURN_ON, command);
         try {
-            TurnOnOffCommand command = objectMapper.convertValue(payload, TurnOnOffCommand.class);
-            String streetlightId = extractStreetlightId(topic);
-
-            log.debug("Parsed command: {}", command);
+            String streetlightId = streetlightId(topic);
 
             // Process the command
-            streetlightService.turnOn(streetlightId, command);
+            commandDispatcher.dispatch(streetlightId, CommandType.TURN_ON, command);
+            commandMetrics.processed(CommandType.TURN_ON, start);
 
-            log.info("Successfully processed TURN ON command for streetlight: {}", streetlightId);
+            log.debug("Processed TURN ON command for streetlight {}: {}", streetlightId, command);
 
         } catch (Exception e) {
+            commandMetrics.failed(CommandType.TURN_ON, e, start);
             log.error("Failed to process TURN ON command: {}", e.getMessage(), e);
         }
     }
 
     @KafkaListener(
-            topicPattern = "smartylighting\\.streetlights\\.1\\.0\\.action\\..*\\.turn\\.off",
+            topicPattern = "#{@topicResolver.commandTopicPattern('TURN_OFF')}",
             groupId = "${spring.kafka.consumer.group-id}",
-            containerFactory = "kafkaListenerContainerFactory"
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{'${streetlights.command.layout:per-light}' != 'keyed'}"
     )
     public void consumeTurnOffCommand(
-            @Payload Map<String, Object> payload,
-            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-            @Header(value = KafkaHeaders.RECEIVED_KEY, required = false) String key) {
-
-        log.info("Received TURN OFF command from topic: {}", topic);
-        log.debug("Message key: {}, Payload: {}", key, payload);
+            @Payload TurnOnOffCommand command,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
 
+        long start = commandMetrics.received(CommandType.TURN_OFF, command);
         try {
-            TurnOnOffCommand command = objectMapper.convertValue(payload, TurnOnOffCommand.class);
-            String streetlightId = extractStreetlightId(topic);
-
-            log.debug("Parsed command: {}", command);
+            String streetlightId = streetlightId(topic);
 
-            streetlightService.turnOff(streetlightId, command);
+            commandDispatcher.dispatch(streetlightId, CommandType.TURN_OFF, command);
+            commandMetrics.processed(CommandType.TURN_OFF, start);
 
-            log.info("Successfully processed TURN OFF command for streetlight: {}", streetlightId);
+            log.debug("Processed TURN OFF command for streetlight {}: {}", streetlightId, command);
 
         } catch (Exception e) {
+            commandMetrics.failed(CommandType.TURN_OFF, e, start);
             log.error("Failed to process TURN OFF command: {}", e.getMessage(), e);
         }
     }
 
-    private String extractStreetlightId(String topic) {
-        String[] parts = topic.split("\\.");
-        if (parts.length >= 6) {
-            return parts[5]; // streetlightId is at index 5
+    private String streetlightId(String topic) {
+        String streetlightId = topicResolver.streetlightId(topic);
+        if (streetlightId == null) {
+            throw new IllegalArgumentException("Topic does not match the turn-on/turn-off templates: " + topic);
         }
-        log.warn("Could not extract streetlightId from topic: {}", topic);
-        return "unknown";
+        return streetlightId;
     }
-}
\ No newline at end of file
+}
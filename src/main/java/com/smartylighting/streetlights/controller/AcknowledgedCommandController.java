@@ -0,0 +1,118 @@
+package com.smartylighting.streetlights.controller;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.service.AcknowledgedCommandService;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Command endpoints that answer only once the broker has acknowledged the
+ * command, with the partition and offset it was written to. The response is
+ * completed asynchronously from the producer's callback, so no request thread
+ * waits for the broker.
+ *
+ * 503 when too many commands are already awaiting acknowledgement, 504 when
+ * the acknowledgement does not arrive in time (the command may still be
+ * written), 502 when the send failed.
+ */
+@RestController
+@RequestMapping("/api/v1/streetlights/acked")
+public class AcknowledgedCommandController {
+
+    private static final Logger log = LoggerFactory.getLogger(AcknowledgedCommandController.class);
+    private final AcknowledgedCommandService acknowledgedCommandService;
+
+    @Autowired
+    public AcknowledgedCommandController(AcknowledgedCommandService acknowledgedCommandService) {
+        this.acknowledgedCommandService = acknowledgedCommandService;
+    }
+
+    @PostMapping("/{streetlightId}/turn-on")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendTurnOnCommand(
+            @PathVariable String streetlightId) {
+        return send(streetlightId, CommandType.TURN_ON,
+                new TurnOnOffCommand("on", LocalDateTime.now(ZoneOffset.UTC), 50));
+    }
+
+    @PostMapping("/{streetlightId}/turn-off")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendTurnOffCommand(
+            @PathVariable String streetlightId) {
+        return send(streetlightId, CommandType.TURN_OFF,
+                new TurnOnOffCommand("off", LocalDateTime.now(ZoneOffset.UTC), 50));
+    }
+
+    @PostMapping("/{streetlightId}/dim")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendDimCommand(
+            @PathVariable String streetlightId,
+            @RequestParam Integer percentage) {
+
+        if (percentage < 0 || percentage > 100) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Percentage must be between 0 and 100");
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(error));
+        }
+        return send(streetlightId, CommandType.DIM,
+                new DimLightCommand(percentage, LocalDateTime.now(ZoneOffset.UTC), 50));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("inFlight", acknowledgedCommandService.getInFlightCount());
+        response.put("maxInFlight", acknowledgedCommandService.getMaxInFlight());
+        response.put("acknowledged", acknowledgedCommandService.getAcknowledgedCount());
+        response.put("failed", acknowledgedCommandService.getFailedCount());
+        response.put("timedOut", acknowledgedCommandService.getTimedOutCount());
+        response.put("rejected", acknowledgedCommandService.getRejectedCount());
+        return ResponseEntity.ok(response);
+    }
+
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> send(String streetlightId, CommandType type,
+                                                                        LightCommand command) {
+        return acknowledgedCommandService.send(streetlightId, type, command).handle((result, ex) -> {
+            Map<String, Object> response = new HashMap<>();
+            if (ex == null) {
+                RecordMetadata metadata = result.getRecordMetadata();
+                response.put("message", String.format("%s command for streetlight %s acknowledged by the broker",
+                        type, streetlightId));
+                response.put("topic", metadata.topic());
+                response.put("partition", metadata.partition());
+                response.put("offset", metadata.offset());
+                response.put("timestamp", metadata.timestamp());
+                return ResponseEntity.ok(response);
+            }
+
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            HttpStatus status;
+            if (cause instanceof RejectedExecutionException) {
+                status = HttpStatus.SERVICE_UNAVAILABLE;
+            } else if (cause instanceof TimeoutException) {
+                status = HttpStatus.GATEWAY_TIMEOUT;
+                response.put("timeoutMs", acknowledgedCommandService.getTimeoutMs());
+            } else {
+                status = HttpStatus.BAD_GATEWAY;
+                log.error("Failed to send {} command for streetlight {}: {}", type, streetlightId, cause.getMessage());
+            }
+            response.put("error", String.format("%s command for streetlight %s not acknowledged: %s",
+                    type, streetlightId, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName()));
+            return ResponseEntity.status(status).body(response);
+        });
+    }
+}
@@ -1,33 +1,75 @@
 package com.smartylighting.streetlights.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.smartylighting.streetlights.model.command.BulkCommandRequest;
+import com.smartylighting.streetlights.model.command.CommandType;
 import com.smartylighting.streetlights.model.command.DimLightCommand;
 import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.service.BulkCommandJob;
+import com.smartylighting.streetlights.service.BulkCommandService;
+import com.smartylighting.streetlights.service.CommandCoalescer;
+import com.smartylighting.streetlights.service.FleetAggregates;
 import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.service.TelemetryRollup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Predicate;
 
 @RestController
 @RequestMapping("/api/v1/streetlights")
 public class StreetlightController {
 
     private static final Logger log = LoggerFactory.getLogger(StreetlightController.class);
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_STREAM_LIMIT = 50_000;
     private final StreetlightService streetlightService;
-    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final CommandPublisher commandPublisher;
+    private final BulkCommandService bulkCommandService;
+    private final FleetAggregates fleetAggregates;
+    private final LightMeasurementProducer lightMeasurementProducer;
+    private final ObjectProvider<CommandCoalescer> commandCoalescer;
+    private final ObjectProvider<TelemetryRollup> telemetryRollup;
+    private final ObjectWriter ndjsonWriter;
 
     @Autowired
     public StreetlightController(StreetlightService streetlightService,
-                                 KafkaTemplate<String, Object> kafkaTemplate) {
+                                 CommandPublisher commandPublisher,
+                                 BulkCommandService bulkCommandService,
+                                 FleetAggregates fleetAggregates,
+                                 LightMeasurementProducer lightMeasurementProducer,
+                                 ObjectProvider<CommandCoalescer> commandCoalescer,
+                                 ObjectProvider<TelemetryRollup> telemetryRollup,
+                                 ObjectMapper objectMapper) {
         this.streetlightService = streetlightService;
-        this.kafkaTemplate = kafkaTemplate;
+        this.commandPublisher = commandPublisher;
+        this.bulkCommandService = bulkCommandService;
+        this.fleetAggregates = fleetAggregates;
+        this.lightMeasurementProducer = lightMeasurementProducer;
+        this.commandCoalescer = commandCoalescer;
+        this.telemetryRollup = telemetryRollup;
+        this.ndjsonWriter = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n");
     }
 
     @GetMapping("/health")
@@ -41,11 +83,11 @@ public class StreetlightController {
 
     @PostMapping("/{streetlightId}/turn-on")
     public ResponseEntity<Map<String, String>> sendTurnOnCommand(@PathVariable String streetlightId) {
-        String topic = String.format("smartylighting.streetlights.1.0.action.%s.turn.on", streetlightId);
-        TurnOnOffCommand command = new TurnOnOffCommand("on", LocalDateTime.now(), 50);
+        String topic = commandPublisher.topicFor(streetlightId, CommandType.TURN_ON);
+        TurnOnOffCommand command = new TurnOnOffCommand("on", LocalDateTime.now(ZoneOffset.UTC), 50);
 
-        log.info("Sending TURN ON command to topic: {}", topic);
-        kafkaTemplate.send(topic, streetlightId, command);
+        log.debug("Sending TURN ON command to topic: {}", topic);
+        commandPublisher.send(streetlightId, CommandType.TURN_ON, command);
 
         Map<String, String> response = new HashMap<>();
         response.put("message", String.format("Turn ON command sent to streetlight %s", streetlightId));
@@ -56,11 +98,11 @@ public class StreetlightController {
 
     @PostMapping("/{streetlightId}/turn-off")
     public ResponseEntity<Map<String, String>> sendTurnOffCommand(@PathVariable String streetlightId) {
-        String topic = String.format("smartylighting.streetlights.1.0.action.%s.turn.off", streetlightId);
-        TurnOnOffCommand command = new TurnOnOffCommand("off", LocalDateTime.now(), 50);
+        String topic = commandPublisher.topicFor(streetlightId, CommandType.TURN_OFF);
+        TurnOnOffCommand command = new TurnOnOffCommand("off", LocalDateTime.now(ZoneOffset.UTC), 50);
 
-        log.info("Sending TURN OFF command to topic: {}", topic);
-        kafkaTemplate.send(topic, streetlightId, command);
+        log.debug("Sending TURN OFF command to topic: {}", topic);
+        commandPublisher.send(streetlightId, CommandType.TURN_OFF, command);
 
         Map<String, String> response = new HashMap<>();
         response.put("message", String.format("Turn OFF command sent to streetlight %s", streetlightId));
@@ -80,11 +122,11 @@ public class StreetlightController {
             return ResponseEntity.badRequest().body(error);
         }
 
-        String topic = String.format("smartylighting.streetlights.1.0.action.%s.dim", streetlightId);
-        DimLightCommand command = new DimLightCommand(percentage, LocalDateTime.now(), 50);
+        String topic = commandPublisher.topicFor(streetlightId, CommandType.DIM);
+        DimLightCommand command = new DimLightCommand(percentage, LocalDateTime.now(ZoneOffset.UTC), 50);
 
-        log.info("Sending DIM command to topic: {} with percentage: {}", topic, percentage);
-        kafkaTemplate.send(topic, streetlightId, command);
+        log.debug("Sending DIM command to topic: {} with percentage: {}", topic, percentage);
+        commandPublisher.send(streetlightId, CommandType.DIM, command);
 
         Map<String, String> response = new HashMap<>();
         response.put("message", String.format("Dim command sent to streetlight %s - %d%%",
@@ -94,6 +136,41 @@ public class StreetlightController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Sends one command to many streetlights, chosen by {@code ids}, {@code range}
+     * or {@code selector}. Small fan-outs answer 200 with the finished job; larger
+     * ones answer 202 with the running job, followed at {@code GET /bulk/{jobId}}.
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<?> sendBulkCommand(@RequestBody BulkCommandRequest request) {
+        BulkCommandJob job;
+        try {
+            job = bulkCommandService.submit(request);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        if (job.getStatus() == BulkCommandJob.Status.RUNNING) {
+            return ResponseEntity.accepted().body(job);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping("/bulk/{jobId}")
+    public ResponseEntity<?> getBulkJob(@PathVariable String jobId) {
+        BulkCommandJob job = bulkCommandService.getJob(jobId);
+
+        if (job == null) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", String.format("Bulk job %s not found", jobId));
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+
+        return ResponseEntity.ok(job);
+    }
+
     @PostMapping("/{streetlightId}/measure")
     public ResponseEntity<Map<String, String>> measureLight(@PathVariable String streetlightId) {
         log.info("Triggering manual light measurement for streetlight: {}", streetlightId);
@@ -123,4 +200,126 @@ public class StreetlightController {
         Map<String, StreetlightService.StreetlightState> states = streetlightService.getAllStates();
         return ResponseEntity.ok(states);
     }
+
+    /**
+     * Streams states as NDJSON, one state per line, without building the full
+     * response in memory. Pages are resumed with the {@code cursor} returned in
+     * the final line, {@code {"nextCursor": ...}}, which is null on the last page.
+     */
+    @GetMapping(value = "/states/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamStates(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(required = false) Boolean on,
+            @RequestParam(defaultValue = "0") int minDim,
+            @RequestParam(defaultValue = "100") int maxDim) {
+
+        if (limit < 1 || limit > MAX_STREAM_LIMIT || minDim < 0 || maxDim > 100 || minDim > maxDim) {
+            return streamError(String.format(
+                    "limit must be between 1 and %d and 0 <= minDim <= maxDim <= 100", MAX_STREAM_LIMIT));
+        }
+        // once streaming has started the status is sent, so a bad cursor must be caught here
+        if (!streetlightService.isValidCursor(cursor)) {
+            return streamError(String.format("Invalid cursor %s, pass the nextCursor of the previous page", cursor));
+        }
+
+        Predicate<StreetlightService.StreetlightState> filter = state ->
+                (on == null || state.isOn() == on)
+                        && state.getDimPercentage() >= minDim && state.getDimPercentage() <= maxDim;
+
+        StreamingResponseBody body = out -> {
+            try (SequenceWriter writer = ndjsonWriter.writeValues(out)) {
+                String nextCursor = streetlightService.scanStates(cursor, limit, filter, state -> {
+                    try {
+                        writer.write(state);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.write(Collections.singletonMap("nextCursor", nextCursor));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    /**
+     * 400 with the usual error map. Written as a streaming body because Spring
+     * MVC only streams a {@code ResponseEntity} declared with that body type.
+     */
+    private ResponseEntity<StreamingResponseBody> streamError(String message) {
+        Map<String, String> error = Collections.singletonMap("error", message);
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                .body(out -> ndjsonWriter.writeValue(out, error));
+    }
+
+    /**
+     * Fleet totals maintained incrementally by {@link FleetAggregates}; the cost
+     * does not depend on the number of lights.
+     */
+    @GetMapping("/aggregates")
+    public ResponseEntity<Map<String, Object>> getAggregates() {
+        long[] dimHistogram = fleetAggregates.getDimHistogram();
+        long lights = 0;
+        long dimSum = 0;
+        for (int percentage = 0; percentage < dimHistogram.length; percentage++) {
+            lights += dimHistogram[percentage];
+            dimSum += percentage * dimHistogram[percentage];
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("lights", fleetAggregates.getLightCount());
+        response.put("on", fleetAggregates.getOnCount());
+        response.put("totalLumens", fleetAggregates.getTotalLumens());
+        response.put("averageDimPercentage", lights == 0 ? 0.0 : (double) dimSum / lights);
+        response.put("dimHistogram", dimHistogram);
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/coalescing")
+    public ResponseEntity<Map<String, Object>> getCoalescingStats() {
+        CommandCoalescer coalescer = commandCoalescer.getIfAvailable();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("enabled", coalescer != null);
+        if (coalescer != null) {
+            response.put("received", coalescer.getReceivedCount());
+            response.put("applied", coalescer.getAppliedCount());
+            response.put("collapsed", coalescer.getCollapsedCount());
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/rollup")
+    public ResponseEntity<Map<String, Object>> getRollupStats() {
+        TelemetryRollup rollup = telemetryRollup.getIfAvailable();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("enabled", rollup != null);
+        if (rollup != null) {
+            response.put("measurements", rollup.getMeasurementCount());
+            response.put("emitted", rollup.getEmittedCount());
+            response.put("failed", rollup.getFailedCount());
+            response.put("late", rollup.getLateCount());
+            response.put("closedEarly", rollup.getEarlyClosedCount());
+            response.put("openWindows", rollup.getOpenWindowCount());
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/publishing")
+    public ResponseEntity<Map<String, Object>> getPublishingStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("buffered", lightMeasurementProducer.getBufferedCount());
+        response.put("capacity", lightMeasurementProducer.getBufferCapacity());
+        response.put("enqueued", lightMeasurementProducer.getEnqueuedCount());
+        response.put("published", lightMeasurementProducer.getPublishedCount());
+        response.put("failed", lightMeasurementProducer.getFailedCount());
+        response.put("dropped", lightMeasurementProducer.getDroppedCount());
+        response.put("backpressureWaits", lightMeasurementProducer.getBackpressureWaitCount());
+        response.put("backpressureWaitMs", lightMeasurementProducer.getBackpressureWaitMillis());
+        response.put("batches", lightMeasurementProducer.getBatchCount());
+        return ResponseEntity.ok(response);
+    }
 }
\ No newline at end of file
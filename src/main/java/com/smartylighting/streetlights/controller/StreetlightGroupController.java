@@ -0,0 +1,148 @@
+package com.smartylighting.streetlights.controller;
+
+import com.smartylighting.streetlights.model.command.BulkCommandRequest;
+import com.smartylighting.streetlights.service.BulkCommandJob;
+import com.smartylighting.streetlights.service.BulkCommandService;
+import com.smartylighting.streetlights.service.GroupAggregate;
+import com.smartylighting.streetlights.service.StreetlightGroupRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Group (zone) management, group aggregates and group-addressed commands.
+ * Commands fan out through {@link BulkCommandService} with a group selector.
+ */
+@RestController
+@RequestMapping("/api/v1/streetlights/groups")
+public class StreetlightGroupController {
+
+    private static final Logger log = LoggerFactory.getLogger(StreetlightGroupController.class);
+    private final StreetlightGroupRegistry groupRegistry;
+    private final BulkCommandService bulkCommandService;
+
+    @Autowired
+    public StreetlightGroupController(StreetlightGroupRegistry groupRegistry,
+                                      BulkCommandService bulkCommandService) {
+        this.groupRegistry = groupRegistry;
+        this.bulkCommandService = bulkCommandService;
+    }
+
+    @GetMapping
+    public ResponseEntity<Map<String, Integer>> getGroups() {
+        return ResponseEntity.ok(groupRegistry.getGroupSizes());
+    }
+
+    @PutMapping("/{group}/members")
+    public ResponseEntity<Map<String, Object>> addMembers(@PathVariable String group,
+                                                          @RequestBody List<String> streetlightIds) {
+        int size = groupRegistry.addMembers(group, streetlightIds);
+        log.info("Added {} streetlight(s) to group {}, now {} member(s)", streetlightIds.size(), group, size);
+        return ResponseEntity.ok(groupSize(group, size));
+    }
+
+    @DeleteMapping("/{group}/members")
+    public ResponseEntity<Map<String, Object>> removeMembers(@PathVariable String group,
+                                                             @RequestBody List<String> streetlightIds) {
+        int size = groupRegistry.removeMembers(group, streetlightIds);
+        return ResponseEntity.ok(groupSize(group, size));
+    }
+
+    @DeleteMapping("/{group}")
+    public ResponseEntity<?> deleteGroup(@PathVariable String group) {
+        if (!groupRegistry.deleteGroup(group)) {
+            return notFound(group);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/{group}/members")
+    public ResponseEntity<?> getMembers(@PathVariable String group) {
+        if (!groupRegistry.exists(group)) {
+            return notFound(group);
+        }
+        return ResponseEntity.ok(groupRegistry.members(List.of(group), null));
+    }
+
+    @GetMapping("/{group}/aggregate")
+    public ResponseEntity<?> getGroupAggregate(@PathVariable String group) {
+        if (!groupRegistry.exists(group)) {
+            return notFound(group);
+        }
+        return ResponseEntity.ok(groupRegistry.aggregate(List.of(group), null));
+    }
+
+    /**
+     * Aggregates the union of {@code any} intersected with every group in
+     * {@code all}, e.g. {@code ?any=district-1,district-2&all=circuit-a}.
+     */
+    @GetMapping("/aggregate")
+    public ResponseEntity<?> getAggregate(@RequestParam(required = false) List<String> any,
+                                          @RequestParam(required = false) List<String> all) {
+        try {
+            GroupAggregate aggregate = groupRegistry.aggregate(any, all);
+            return ResponseEntity.ok(aggregate);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    @PostMapping("/{group}/turn-on")
+    public ResponseEntity<?> sendTurnOnCommand(@PathVariable String group) {
+        return sendGroupCommand(group, "turn-on", null);
+    }
+
+    @PostMapping("/{group}/turn-off")
+    public ResponseEntity<?> sendTurnOffCommand(@PathVariable String group) {
+        return sendGroupCommand(group, "turn-off", null);
+    }
+
+    @PostMapping("/{group}/dim")
+    public ResponseEntity<?> sendDimCommand(@PathVariable String group, @RequestParam Integer percentage) {
+        return sendGroupCommand(group, "dim", percentage);
+    }
+
+    private ResponseEntity<?> sendGroupCommand(String group, String command, Integer percentage) {
+        if (!groupRegistry.exists(group)) {
+            return notFound(group);
+        }
+
+        BulkCommandRequest request = new BulkCommandRequest(command, percentage, null, null,
+                new BulkCommandRequest.Selector(List.of(group), null, null, null, null, null));
+        BulkCommandJob job;
+        try {
+            job = bulkCommandService.submit(request);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        if (job.getStatus() == BulkCommandJob.Status.RUNNING) {
+            return ResponseEntity.accepted().body(job);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    private static Map<String, Object> groupSize(String group, int size) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("group", group);
+        response.put("members", size);
+        return response;
+    }
+
+    private static ResponseEntity<Map<String, String>> notFound(String group) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", String.format("Group %s not found", group));
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+    }
+}
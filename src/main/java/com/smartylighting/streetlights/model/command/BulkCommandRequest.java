@@ -0,0 +1,236 @@
+package com.smartylighting.streetlights.model.command;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Body of a bulk command: the command, and exactly one way of choosing the
+ * lights it goes to.
+ *
+ * <ul>
+ *   <li>{@code ids}: an explicit list of streetlight IDs</li>
+ *   <li>{@code range}: {@code prefix} followed by the numbers {@code from..to},
+ *       zero-padded to {@code width} digits, e.g. light-00001..light-20000</li>
+ *   <li>{@code selector}: the members of {@code groups} (any of) and {@code allGroups}
+ *       (every one of), or all known lights when neither is given, narrowed by an
+ *       ID prefix and state filters</li>
+ * </ul>
+ */
+public class BulkCommandRequest {
+
+    /**
+     * turn-on, turn-off or dim, as in the single-light endpoints.
+     */
+    @JsonProperty("command")
+    private String command;
+
+    @JsonProperty("percentage")
+    private Integer percentage;
+
+    @JsonProperty("ids")
+    private List<String> ids;
+
+    @JsonProperty("range")
+    private IdRange range;
+
+    @JsonProperty("selector")
+    private Selector selector;
+
+    // constructor for Jackson
+    public BulkCommandRequest() {
+    }
+
+    public BulkCommandRequest(String command, Integer percentage, List<String> ids, IdRange range, Selector selector) {
+        this.command = command;
+        this.percentage = percentage;
+        this.ids = ids;
+        this.range = range;
+        this.selector = selector;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public Integer getPercentage() {
+        return percentage;
+    }
+
+    public void setPercentage(Integer percentage) {
+        this.percentage = percentage;
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    public IdRange getRange() {
+        return range;
+    }
+
+    public void setRange(IdRange range) {
+        this.range = range;
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    public void setSelector(Selector selector) {
+        this.selector = selector;
+    }
+
+    public static class IdRange {
+
+        @JsonProperty("prefix")
+        private String prefix = "";
+
+        @JsonProperty("from")
+        private long from;
+
+        @JsonProperty("to")
+        private long to;
+
+        @JsonProperty("width")
+        private int width;
+
+        // constructor for Jackson
+        public IdRange() {
+        }
+
+        public IdRange(String prefix, long from, long to, int width) {
+            this.prefix = prefix;
+            this.from = from;
+            this.to = to;
+            this.width = width;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public void setFrom(long from) {
+            this.from = from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public void setTo(long to) {
+            this.to = to;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public void setWidth(int width) {
+            this.width = width;
+        }
+    }
+
+    public static class Selector {
+
+        @JsonProperty("groups")
+        private List<String> groups;
+
+        @JsonProperty("allGroups")
+        private List<String> allGroups;
+
+        @JsonProperty("prefix")
+        private String prefix;
+
+        @JsonProperty("on")
+        private Boolean on;
+
+        @JsonProperty("minDim")
+        private Integer minDim;
+
+        @JsonProperty("maxDim")
+        private Integer maxDim;
+
+        // constructor for Jackson
+        public Selector() {
+        }
+
+        public Selector(String prefix, Boolean on, Integer minDim, Integer maxDim) {
+            this(null, null, prefix, on, minDim, maxDim);
+        }
+
+        public Selector(List<String> groups, List<String> allGroups, String prefix, Boolean on,
+                        Integer minDim, Integer maxDim) {
+            this.groups = groups;
+            this.allGroups = allGroups;
+            this.prefix = prefix;
+            this.on = on;
+            this.minDim = minDim;
+            this.maxDim = maxDim;
+        }
+
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        public void setGroups(List<String> groups) {
+            this.groups = groups;
+        }
+
+        public List<String> getAllGroups() {
+            return allGroups;
+        }
+
+        public void setAllGroups(List<String> allGroups) {
+            this.allGroups = allGroups;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Boolean getOn() {
+            return on;
+        }
+
+        public void setOn(Boolean on) {
+            this.on = on;
+        }
+
+        public Integer getMinDim() {
+            return minDim;
+        }
+
+        public void setMinDim(Integer minDim) {
+            this.minDim = minDim;
+        }
+
+        public Integer getMaxDim() {
+            return maxDim;
+        }
+
+        public void setMaxDim(Integer maxDim) {
+            this.maxDim = maxDim;
+        }
+    }
+}
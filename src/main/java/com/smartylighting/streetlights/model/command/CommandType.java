@@ -0,0 +1,51 @@
+package com.smartylighting.streetlights.model.command;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The command kinds a streetlight accepts, with the payload class each one
+ * uses. Per-light action topic names come from the {@code streetlights.topic.*}
+ * templates, see {@code TopicResolver}.
+ */
+public enum CommandType {
+
+    TURN_ON(TurnOnOffCommand.class),
+    TURN_OFF(TurnOnOffCommand.class),
+    DIM(DimLightCommand.class);
+
+    /**
+     * Header carrying the command type on the single keyed command topic.
+     */
+    public static final String HEADER = "streetlights_command_type";
+
+    private final Class<? extends LightCommand> commandClass;
+
+    CommandType(Class<? extends LightCommand> commandClass) {
+        this.commandClass = commandClass;
+    }
+
+    public Class<? extends LightCommand> getCommandClass() {
+        return commandClass;
+    }
+
+    /**
+     * Resolves the command type from the value of the {@link #HEADER} header,
+     * or null if the header is missing or unknown.
+     */
+    public static CommandType fromHeader(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        String name = new String(value, StandardCharsets.UTF_8);
+        for (CommandType type : values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    public byte[] headerValue() {
+        return name().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -8,7 +8,7 @@ import jakarta.validation.constraints.NotNull;
 
 import java.time.LocalDateTime;
 
-public class DimLightCommand {
+public class DimLightCommand implements LightCommand {
 
     @NotNull(message = "Percentage cannot be null")
     @Min(value = 0, message = "Percentage must be at least 0")
@@ -48,6 +48,7 @@ public class DimLightCommand {
         this.percentage = percentage;
     }
 
+    @Override
     public LocalDateTime getSentAt() {
         return sentAt;
     }
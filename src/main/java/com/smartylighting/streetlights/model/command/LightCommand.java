@@ -0,0 +1,11 @@
+package com.smartylighting.streetlights.model.command;
+
+import java.time.LocalDateTime;
+
+/**
+ * Common view over the commands sent to a streetlight.
+ */
+public interface LightCommand {
+
+    LocalDateTime getSentAt();
+}
@@ -7,7 +7,7 @@ import jakarta.validation.constraints.Pattern;
 
 import java.time.LocalDateTime;
 
-public class TurnOnOffCommand {
+public class TurnOnOffCommand implements LightCommand {
 
     @NotNull(message = "Command cannot be null")
     @Pattern(regexp = "^(on|off)$", message = "Command must be either 'on' or 'off'")
@@ -39,6 +39,7 @@ public class TurnOnOffCommand {
         this.command = command;
     }
 
+    @Override
     public LocalDateTime getSentAt() {
         return sentAt;
     }
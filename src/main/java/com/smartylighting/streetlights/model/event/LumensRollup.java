@@ -0,0 +1,180 @@
+package com.smartylighting.streetlights.model.event;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Lumens measured for one streetlight or group over one window, emitted in
+ * place of the individual measurements once the window closes.
+ *
+ * Each instance rolls up only the measurement topics assigned to it, so a
+ * group rollup covers that instance's share of the group: one partial per
+ * instance, keyed {@code <group>@<instance>} on the rollup topic. Consumers
+ * combine the partials of a window by summing {@code lights}, {@code count}
+ * and {@code onMs}, taking the min and max, and weighting {@code avgLumens}
+ * by {@code count}.
+ */
+public class LumensRollup {
+
+    public static final String LIGHT = "light";
+    public static final String GROUP = "group";
+
+    /**
+     * light or group
+     */
+    @JsonProperty("scope")
+    private String scope;
+
+    /**
+     * Streetlight ID or group name.
+     */
+    @JsonProperty("key")
+    private String key;
+
+    /**
+     * tumbling or hopping
+     */
+    @JsonProperty("window")
+    private String window;
+
+    /**
+     * Window bounds in epoch milliseconds, start inclusive and end exclusive.
+     */
+    @JsonProperty("start")
+    private long start;
+
+    @JsonProperty("end")
+    private long end;
+
+    /**
+     * Lights contributing to the rollup; 1 for a light.
+     */
+    @JsonProperty("lights")
+    private int lights;
+
+    @JsonProperty("count")
+    private long count;
+
+    @JsonProperty("minLumens")
+    private int minLumens;
+
+    @JsonProperty("maxLumens")
+    private int maxLumens;
+
+    @JsonProperty("avgLumens")
+    private double avgLumens;
+
+    /**
+     * Time within the window spent on, summed over the contributing lights.
+     */
+    @JsonProperty("onMs")
+    private long onMs;
+
+    /**
+     * Instance that computed the rollup, see {@code streetlights.rollup.instance-id}.
+     */
+    @JsonProperty("instance")
+    private String instance;
+
+    // constructor for Jackson
+    public LumensRollup() {
+    }
+
+    public LumensRollup(String scope, String key, String window, long start, long end, int lights, long count,
+                        int minLumens, int maxLumens, double avgLumens, long onMs) {
+        this.scope = scope;
+        this.key = key;
+        this.window = window;
+        this.start = start;
+        this.end = end;
+        this.lights = lights;
+        this.count = count;
+        this.minLumens = minLumens;
+        this.maxLumens = maxLumens;
+        this.avgLumens = avgLumens;
+        this.onMs = onMs;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getWindow() {
+        return window;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public int getLights() {
+        return lights;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getMinLumens() {
+        return minLumens;
+    }
+
+    public int getMaxLumens() {
+        return maxLumens;
+    }
+
+    public double getAvgLumens() {
+        return avgLumens;
+    }
+
+    public long getOnMs() {
+        return onMs;
+    }
+
+    public String getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns a copy attributed to {@code instance}.
+     */
+    public LumensRollup withInstance(String instance) {
+        LumensRollup copy = new LumensRollup(scope, key, window, start, end, lights, count,
+                minLumens, maxLumens, avgLumens, onMs);
+        copy.instance = instance;
+        return copy;
+    }
+
+    /**
+     * Record key on the rollup topic: the streetlight ID, or the group and the
+     * instance for a group's per-instance partial.
+     */
+    public String recordKey() {
+        return GROUP.equals(scope) ? key + "@" + instance : key;
+    }
+
+    @Override
+    public String toString() {
+        return "LumensRollup{" +
+                "scope='" + scope + '\'' +
+                ", key='" + key + '\'' +
+                ", window='" + window + '\'' +
+                ", start=" + start +
+                ", end=" + end +
+                ", lights=" + lights +
+                ", count=" + count +
+                ", minLumens=" + minLumens +
+                ", maxLumens=" + maxLumens +
+                ", avgLumens=" + avgLumens +
+                ", onMs=" + onMs +
+                ", instance='" + instance + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes streetlight commands in the configured topic layout.
+ *
+ * With {@code streetlights.command.layout=per-light} (the default) every command
+ * goes to its light's own action topic. With {@code keyed} or {@code compat} it
+ * goes to the single command topic, keyed by streetlight ID with the command
+ * type in the {@link CommandType#HEADER} header.
+ */
+@Service
+public class CommandPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandPublisher.class);
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final TopicResolver topicResolver;
+    private final String commandTopic;
+    private final boolean keyedLayout;
+
+    @Autowired
+    public CommandPublisher(KafkaTemplate<String, Object> kafkaTemplate,
+                            TopicResolver topicResolver,
+                            @Value("${streetlights.command.topic}") String commandTopic,
+                            @Value("${streetlights.command.layout:per-light}") String layout) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topicResolver = topicResolver;
+        this.commandTopic = commandTopic;
+        this.keyedLayout = !"per-light".equals(layout);
+    }
+
+    public String topicFor(String streetlightId, CommandType type) {
+        if (keyedLayout) {
+            return commandTopic;
+        }
+        return topicResolver.commandTopic(streetlightId, type);
+    }
+
+    public CompletableFuture<SendResult<String, Object>> send(String streetlightId, CommandType type,
+                                                              LightCommand command) {
+        String topic = topicFor(streetlightId, type);
+        log.debug("Sending {} command for streetlight {} to topic {}", type, streetlightId, topic);
+
+        ProducerRecord<String, Object> record = new ProducerRecord<>(topic, streetlightId, command);
+        if (keyedLayout) {
+            record.headers().add(CommandType.HEADER, type.headerValue());
+        }
+        return kafkaTemplate.send(record);
+    }
+}
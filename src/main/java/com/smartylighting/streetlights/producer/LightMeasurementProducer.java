@@ -1,62 +1,294 @@
 package com.smartylighting.streetlights.producer;
 
 import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Publishes light measurements without making the caller wait on Kafka.
+ *
+ * {@link #publishLightMeasurement} only puts the event into a bounded ring
+ * buffer ({@code streetlights.producer.buffer-capacity}); a dedicated sender
+ * thread drains it in batches of up to {@code streetlights.producer.drain-batch}
+ * and hands them to the producer, whose linger, batch size and compression do
+ * the actual batching on the wire. One thread keeps per-light order.
+ *
+ * When the buffer is full, {@code streetlights.producer.overflow=block} (the
+ * default) makes the caller wait for space and counts the wait as backpressure;
+ * {@code drop} discards the event and counts it instead.
+ *
+ * Buffered measurements are at-most-once: the command's offset can be
+ * committed before its measurement leaves the buffer, so a crash in between
+ * loses the measurement without replaying the command. With
+ * {@code streetlights.processing.guarantee=exactly-once} measurements
+ * published from a listener bypass the buffer and are sent on the listener
+ * thread, inside the transaction that also commits the command's offset.
+ *
+ * Meters: {@code streetlights.measurement.publish} times each send until the
+ * broker acknowledges or fails it, by outcome, with failures counted by
+ * exception in {@code streetlights.measurement.publish.failures}; the buffer
+ * is exposed as {@code streetlights.measurement.buffered} and the
+ * enqueued/dropped/backpressure counters alongside it.
+ */
 @Service
 public class LightMeasurementProducer {
 
     private static final Logger log = LoggerFactory.getLogger(LightMeasurementProducer.class);
-    private static final String TOPIC_TEMPLATE = "smartylighting.streetlights.1.0.event.%s.lighting.measured";
     private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final TopicResolver topicResolver;
+
+    private final BlockingQueue<PendingMeasurement> buffer;
+    private final int bufferCapacity;
+    private final int drainBatch;
+    private final boolean dropWhenFull;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private final LongAdder backpressureNanos = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private final MeterRegistry meterRegistry;
+    private final Timer publishSucceeded;
+    private final Timer publishFailed;
+
+    private volatile boolean running;
+    private Thread sender;
 
     @Autowired
-    public LightMeasurementProducer(KafkaTemplate<String, Object> kafkaTemplate) {
+    public LightMeasurementProducer(KafkaTemplate<String, Object> kafkaTemplate,
+                                    TopicResolver topicResolver,
+                                    @Value("${streetlights.producer.buffer-capacity:65536}") int bufferCapacity,
+                                    @Value("${streetlights.producer.drain-batch:500}") int drainBatch,
+                                    @Value("${streetlights.producer.overflow:block}") String overflow,
+                                    MeterRegistry meterRegistry) {
         this.kafkaTemplate = kafkaTemplate;
+        this.topicResolver = topicResolver;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.bufferCapacity = bufferCapacity;
+        this.drainBatch = drainBatch;
+        this.dropWhenFull = "drop".equals(overflow);
+
+        this.meterRegistry = meterRegistry;
+        this.publishSucceeded = publishTimer("success");
+        this.publishFailed = publishTimer("failure");
+        Gauge.builder("streetlights.measurement.buffered", buffer, BlockingQueue::size)
+                .description("Measurements waiting in the buffer for the sender thread")
+                .register(meterRegistry);
+        FunctionCounter.builder("streetlights.measurement.enqueued", enqueued, LongAdder::sum)
+                .register(meterRegistry);
+        FunctionCounter.builder("streetlights.measurement.dropped", dropped, LongAdder::sum)
+                .description("Measurements discarded because the buffer was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("streetlights.measurement.backpressure.waits", backpressureWaits, LongAdder::sum)
+                .description("Publishes that had to wait for buffer space")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        sender = new Thread(this::drainLoop, "measurement-sender");
+        sender.setDaemon(true);
+        sender.start();
+        log.info("Measurement publishing through a {}-slot buffer, overflow={}",
+                bufferCapacity, dropWhenFull ? "drop" : "block");
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything queued while the sender was exiting
+        PendingMeasurement leftover;
+        while ((leftover = buffer.poll()) != null) {
+            send(leftover);
+        }
+        kafkaTemplate.flush();
     }
 
     public void publishLightMeasurement(String streetlightId, LightMeasuredEvent event) {
-        String topic = String.format(TOPIC_TEMPLATE, streetlightId);
-
-        log.info("Publishing light measurement for streetlight {} to topic {}", streetlightId, topic);
-        log.debug("Event payload: {}", event);
-
-        CompletableFuture<SendResult<String, Object>> future = kafkaTemplate.send(topic, streetlightId, event);
-
-        future.whenComplete((result, exception) -> {
-            if (exception == null) {
-                log.info("Successfully published light measurement for streetlight {} - Offset: {}, Partition: {}",
-                        streetlightId,
-                        result.getRecordMetadata().offset(),
-                        result.getRecordMetadata().partition());
-            } else {
-                log.error("Failed to publish light measurement for streetlight {}: {}",
-                        streetlightId, exception.getMessage(), exception);
-            }
-        });
+        log.debug("Queueing light measurement for streetlight {}: {}", streetlightId, event);
+
+        PendingMeasurement measurement = new PendingMeasurement(streetlightId, event);
+        if (!running || kafkaTemplate.inTransaction()) {
+            // sender already stopped during shutdown, or exactly-once: the send must join
+            // the listener's transaction, which is bound to this thread
+            send(measurement);
+            return;
+        }
+        if (buffer.offer(measurement)) {
+            enqueued.increment();
+            return;
+        }
+        if (dropWhenFull) {
+            dropped.increment();
+            return;
+        }
+
+        backpressureWaits.increment();
+        long start = System.nanoTime();
+        try {
+            buffer.put(measurement);
+            enqueued.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+        } finally {
+            backpressureNanos.add(System.nanoTime() - start);
+        }
     }
 
     public SendResult<String, Object> publishLightMeasurementSync(String streetlightId, LightMeasuredEvent event)
             throws Exception {
-        String topic = String.format(TOPIC_TEMPLATE, streetlightId);
-
-        log.info("Publishing light measurement (sync) for streetlight {} to topic {}", streetlightId, topic);
-        log.debug("Event payload: {}", event);
+        String topic = topicResolver.lightMeasuredTopic(streetlightId);
 
         SendResult<String, Object> result = kafkaTemplate.send(topic, streetlightId, event).get();
 
-        log.info("Successfully published light measurement for streetlight {} - Offset: {}, Partition: {}",
-                streetlightId,
-                result.getRecordMetadata().offset(),
-                result.getRecordMetadata().partition());
-
+        if (log.isDebugEnabled()) {
+            log.debug("Published light measurement for streetlight {} to {}-{}@{}", streetlightId, topic,
+                    result.getRecordMetadata().partition(), result.getRecordMetadata().offset());
+        }
         return result;
     }
-}
\ No newline at end of file
+
+    private void drainLoop() {
+        List<PendingMeasurement> batch = new ArrayList<>(drainBatch);
+        while (running || !buffer.isEmpty()) {
+            try {
+                PendingMeasurement first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, drainBatch - 1);
+                batch.forEach(this::send);
+                batches.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(PendingMeasurement measurement) {
+        String topic = topicResolver.lightMeasuredTopic(measurement.streetlightId);
+        long start = System.nanoTime();
+        try {
+            kafkaTemplate.send(topic, measurement.streetlightId, measurement.event)
+                    .whenComplete((result, exception) -> {
+                        if (exception == null) {
+                            published.increment();
+                            publishSucceeded.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        } else {
+                            failed(exception, start);
+                            log.error("Failed to publish light measurement for streetlight {}: {}",
+                                    measurement.streetlightId, exception.getMessage(), exception);
+                        }
+                    });
+        } catch (Exception e) {
+            failed(e, start);
+            log.error("Failed to publish light measurement for streetlight {}: {}",
+                    measurement.streetlightId, e.getMessage(), e);
+        }
+    }
+
+    private void failed(Throwable exception, long start) {
+        failed.increment();
+        publishFailed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        Counter.builder("streetlights.measurement.publish.failures")
+                .description("Measurements the producer failed to publish")
+                .tag("exception", exception.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Timer publishTimer(String outcome) {
+        return Timer.builder("streetlights.measurement.publish")
+                .description("Time from handing a measurement to the producer until the broker acknowledged it")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    /**
+     * Measurements acknowledged by the broker.
+     */
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Measurements discarded because the buffer was full (overflow=drop).
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Publishes that had to wait for buffer space (overflow=block).
+     */
+    public long getBackpressureWaitCount() {
+        return backpressureWaits.sum();
+    }
+
+    public long getBackpressureWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backpressureNanos.sum());
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    private static final class PendingMeasurement {
+        private final String streetlightId;
+        private final LightMeasuredEvent event;
+
+        PendingMeasurement(String streetlightId, LightMeasuredEvent event) {
+            this.streetlightId = streetlightId;
+            this.event = event;
+        }
+    }
+}
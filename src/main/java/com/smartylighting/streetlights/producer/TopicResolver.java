@@ -0,0 +1,204 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves per-light topic names from the {@code streetlights.topic.*}
+ * templates, in which {@code {streetlightId}} stands for the light's ID.
+ *
+ * Each template is split once into the text before and after the placeholder,
+ * so resolving is a plain concatenation. Resolved names are cached per light,
+ * one slot per action, so repeat sends for a light allocate nothing; the cache
+ * holds at most {@code streetlights.topic.cache-size} lights, past which names
+ * are built on every call.
+ *
+ * The per-light listeners subscribe with the patterns built here from the same
+ * templates, e.g. {@code topicPattern = "#{@topicResolver.commandTopicPattern('DIM')}"},
+ * and take received topic names apart with {@link #streetlightId} and
+ * {@link #commandType}, so what is published and what is consumed cannot drift
+ * apart. Parsed topics are cached like resolved ones, up to
+ * {@code streetlights.topic.cache-size} times the number of templates.
+ */
+@Component
+public class TopicResolver {
+
+    static final String PLACEHOLDER = "{streetlightId}";
+
+    // slot 0 is the measurement topic, then one per CommandType
+    private static final int MEASURED = 0;
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+    private static final int SLOTS = COMMAND_TYPES.length + 1;
+    private static final ParsedTopic UNMATCHED = new ParsedTopic(-1, null);
+
+    private final Template[] templates = new Template[SLOTS];
+    private final int maxCachedLights;
+    private final Map<String, String[]> cache = new ConcurrentHashMap<>();
+    private final Map<String, ParsedTopic> parsed = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TopicResolver(
+            @Value("${streetlights.topic.light-measured:smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured}") String lightMeasured,
+            @Value("${streetlights.topic.turn-on:smartylighting.streetlights.1.0.action.{streetlightId}.turn.on}") String turnOn,
+            @Value("${streetlights.topic.turn-off:smartylighting.streetlights.1.0.action.{streetlightId}.turn.off}") String turnOff,
+            @Value("${streetlights.topic.dim:smartylighting.streetlights.1.0.action.{streetlightId}.dim}") String dim,
+            @Value("${streetlights.topic.cache-size:100000}") int maxCachedLights) {
+        templates[MEASURED] = new Template(lightMeasured);
+        templates[slotOf(CommandType.TURN_ON)] = new Template(turnOn);
+        templates[slotOf(CommandType.TURN_OFF)] = new Template(turnOff);
+        templates[slotOf(CommandType.DIM)] = new Template(dim);
+        this.maxCachedLights = maxCachedLights;
+    }
+
+    public String lightMeasuredTopic(String streetlightId) {
+        return resolve(streetlightId, MEASURED);
+    }
+
+    public String commandTopic(String streetlightId, CommandType type) {
+        return resolve(streetlightId, slotOf(type));
+    }
+
+    private String resolve(String streetlightId, int slot) {
+        String[] topics = cache.get(streetlightId);
+        if (topics == null) {
+            if (cache.size() >= maxCachedLights) {
+                return templates[slot].resolve(streetlightId);
+            }
+            topics = cache.computeIfAbsent(streetlightId, id -> new String[SLOTS]);
+        }
+        String topic = topics[slot];
+        if (topic == null) {
+            // racing threads resolve the same name, so a lost write only costs one concatenation
+            topic = templates[slot].resolve(streetlightId);
+            topics[slot] = topic;
+        }
+        return topic;
+    }
+
+    /**
+     * Returns the streetlight ID from a measurement or command topic, or null
+     * if the topic was not built from any of the templates.
+     */
+    public String streetlightId(String topic) {
+        return parse(topic).streetlightId;
+    }
+
+    /**
+     * Returns the command type of a per-light command topic, or null if the
+     * topic is not one.
+     */
+    public CommandType commandType(String topic) {
+        int slot = parse(topic).slot;
+        return slot > MEASURED ? COMMAND_TYPES[slot - 1] : null;
+    }
+
+    public boolean isLightMeasuredTopic(String topic) {
+        return parse(topic).slot == MEASURED;
+    }
+
+    private ParsedTopic parse(String topic) {
+        ParsedTopic cached = parsed.get(topic);
+        if (cached != null) {
+            return cached;
+        }
+        ParsedTopic result = UNMATCHED;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            String streetlightId = templates[slot].extract(topic);
+            // where several templates match, e.g. "{streetlightId}" and "cmd.{streetlightId}.dim", the longer one wins
+            if (streetlightId != null
+                    && (result == UNMATCHED || templates[slot].fixedLength() > templates[result.slot].fixedLength())) {
+                result = new ParsedTopic(slot, streetlightId);
+            }
+        }
+        if (parsed.size() < (long) maxCachedLights * SLOTS) {
+            parsed.put(topic, result);
+        }
+        return result;
+    }
+
+    /**
+     * Regex matching the measurement topic of every light.
+     */
+    public String lightMeasuredTopicPattern() {
+        return templates[MEASURED].pattern();
+    }
+
+    /**
+     * Regex matching the {@code type} command topic of every light.
+     */
+    public String commandTopicPattern(CommandType type) {
+        return templates[slotOf(type)].pattern();
+    }
+
+    /**
+     * Regex matching every command topic of every light.
+     */
+    public String commandTopicsPattern() {
+        StringBuilder pattern = new StringBuilder();
+        for (CommandType type : CommandType.values()) {
+            pattern.append(pattern.length() == 0 ? "" : "|").append(commandTopicPattern(type));
+        }
+        return pattern.toString();
+    }
+
+    private static int slotOf(CommandType type) {
+        return type.ordinal() + 1;
+    }
+
+    private static final class Template {
+        private final String prefix;
+        private final String suffix;
+
+        Template(String template) {
+            int placeholder = template.indexOf(PLACEHOLDER);
+            if (placeholder < 0) {
+                throw new IllegalArgumentException("Topic template must contain " + PLACEHOLDER + ": " + template);
+            }
+            this.prefix = template.substring(0, placeholder);
+            this.suffix = template.substring(placeholder + PLACEHOLDER.length());
+        }
+
+        String resolve(String streetlightId) {
+            return prefix + streetlightId + suffix;
+        }
+
+        /**
+         * Returns the part of {@code topic} in place of the placeholder, or
+         * null if the topic does not fit this template or that part is empty.
+         */
+        String extract(String topic) {
+            if (topic.length() <= fixedLength() || !topic.startsWith(prefix) || !topic.endsWith(suffix)) {
+                return null;
+            }
+            return topic.substring(prefix.length(), topic.length() - suffix.length());
+        }
+
+        int fixedLength() {
+            return prefix.length() + suffix.length();
+        }
+
+        String pattern() {
+            return quote(prefix) + ".*" + quote(suffix);
+        }
+
+        private static String quote(String literal) {
+            return literal.isEmpty() ? "" : Pattern.quote(literal);
+        }
+    }
+
+    private static final class ParsedTopic {
+        private final int slot;
+        private final String streetlightId;
+
+        ParsedTopic(int slot, String streetlightId) {
+            this.slot = slot;
+            this.streetlightId = streetlightId;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.smartylighting.streetlights.serde;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Compact binary encoding for the streetlight payloads.
+ *
+ * Layout: {@code [schema version][type tag][presence bits][fields...]}. Numbers
+ * are varints, {@code sentAt} is zig-zag varint epoch millis in UTC (the JSON
+ * format also treats it as UTC), and absent fields take no bytes. A measurement
+ * event is about 12 bytes against roughly 70 for JSON.
+ */
+public final class BinaryCodec {
+
+    public static final byte SCHEMA_VERSION = 1;
+
+    private static final byte TAG_TURN_ON_OFF = 1;
+    private static final byte TAG_DIM = 2;
+    private static final byte TAG_LIGHT_MEASURED = 3;
+
+    private static final int HAS_VALUE = 1;
+    private static final int HAS_SENT_AT = 1 << 1;
+    private static final int HAS_HEADER = 1 << 2;
+
+    private static final int HEADER_BYTES = 3;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Whether {@link #encode} can represent the value. Turn on/off commands
+     * with a command other than "on" or "off" are left to JSON.
+     */
+    public static boolean supports(Object value) {
+        if (value instanceof TurnOnOffCommand command) {
+            return command.getCommand() == null
+                    || "on".equals(command.getCommand()) || "off".equals(command.getCommand());
+        }
+        return value instanceof DimLightCommand || value instanceof LightMeasuredEvent;
+    }
+
+    public static byte[] encode(Object value) {
+        if (value instanceof LightMeasuredEvent event) {
+            return encode(TAG_LIGHT_MEASURED, event.getLumens(), event.getSentAt(), event.getMyAppHeader());
+        }
+        if (value instanceof DimLightCommand command) {
+            return encode(TAG_DIM, command.getPercentage(), command.getSentAt(), command.getMyAppHeader());
+        }
+        if (value instanceof TurnOnOffCommand command && supports(command)) {
+            Integer on = command.getCommand() == null ? null : "on".equals(command.getCommand()) ? 1 : 0;
+            return encode(TAG_TURN_ON_OFF, on, command.getSentAt(), command.getMyAppHeader());
+        }
+        throw new SerializationException("Binary format cannot encode " + value);
+    }
+
+    public static Object decode(byte[] data) {
+        if (data == null || data.length < HEADER_BYTES) {
+            throw new SerializationException("Binary payload too short");
+        }
+        if (data[0] != SCHEMA_VERSION) {
+            throw new SerializationException("Unsupported binary schema version " + data[0]);
+        }
+        byte tag = data[1];
+        int presence = data[2];
+        Reader reader = new Reader(data, HEADER_BYTES);
+
+        Integer value = (presence & HAS_VALUE) != 0 ? (int) reader.readVarLong() : null;
+        LocalDateTime sentAt = (presence & HAS_SENT_AT) != 0 ? toDateTime(unzigzag(reader.readVarLong())) : null;
+        Integer header = (presence & HAS_HEADER) != 0 ? (int) reader.readVarLong() : null;
+
+        switch (tag) {
+            case TAG_LIGHT_MEASURED:
+                return new LightMeasuredEvent(value, sentAt, header);
+            case TAG_DIM:
+                return new DimLightCommand(value, sentAt, header);
+            case TAG_TURN_ON_OFF:
+                String command = value == null ? null : value == 1 ? "on" : "off";
+                return new TurnOnOffCommand(command, sentAt, header);
+            default:
+                throw new SerializationException("Unknown binary type tag " + tag);
+        }
+    }
+
+    private static byte[] encode(byte tag, Integer value, LocalDateTime sentAt, Integer header) {
+        int presence = 0;
+        int size = HEADER_BYTES;
+        long millis = 0;
+        if (value != null) {
+            presence |= HAS_VALUE;
+            size += varLongSize(value);
+        }
+        if (sentAt != null) {
+            presence |= HAS_SENT_AT;
+            millis = zigzag(sentAt.toInstant(ZoneOffset.UTC).toEpochMilli());
+            size += varLongSize(millis);
+        }
+        if (header != null) {
+            presence |= HAS_HEADER;
+            size += varLongSize(header);
+        }
+
+        byte[] data = new byte[size];
+        data[0] = SCHEMA_VERSION;
+        data[1] = tag;
+        data[2] = (byte) presence;
+        int position = HEADER_BYTES;
+        if (value != null) {
+            position = writeVarLong(data, position, value);
+        }
+        if (sentAt != null) {
+            position = writeVarLong(data, position, millis);
+        }
+        if (header != null) {
+            writeVarLong(data, position, header);
+        }
+        return data;
+    }
+
+    // ints are stored as unsigned varints; negatives cost the full 10 bytes but stay correct
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarLong(byte[] data, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) {
+                    throw new SerializationException("Truncated binary payload");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint in binary payload");
+        }
+    }
+}
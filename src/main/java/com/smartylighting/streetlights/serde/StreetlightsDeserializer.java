@@ -0,0 +1,45 @@
+package com.smartylighting.streetlights.serde;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Arrays;
+
+/**
+ * Value deserializer that reads {@link BinaryCodec} payloads when the record
+ * has the binary {@link StreetlightsSerializer#FORMAT_HEADER} header, and hands
+ * everything else to the JSON delegate. Either format may arrive on any topic,
+ * so producers can switch a topic family over without a coordinated cut-over.
+ */
+public class StreetlightsDeserializer implements Deserializer<Object> {
+
+    private static final byte[] FORMAT_BINARY_BYTES = StreetlightsSerializer.FORMAT_BINARY.getBytes();
+
+    private final Deserializer<Object> jsonDeserializer;
+
+    public StreetlightsDeserializer(Deserializer<Object> jsonDeserializer) {
+        this.jsonDeserializer = jsonDeserializer;
+    }
+
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return jsonDeserializer.deserialize(topic, data);
+    }
+
+    @Override
+    public Object deserialize(String topic, Headers headers, byte[] data) {
+        if (data != null && headers != null) {
+            Header format = headers.lastHeader(StreetlightsSerializer.FORMAT_HEADER);
+            if (format != null && Arrays.equals(FORMAT_BINARY_BYTES, format.value())) {
+                return BinaryCodec.decode(data);
+            }
+        }
+        return jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.smartylighting.streetlights.serde;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.util.List;
+
+/**
+ * Value serializer that writes the {@link BinaryCodec} format for topics whose
+ * name starts with one of the configured binary prefixes, and JSON for
+ * everything else. Binary records carry the {@link #FORMAT_HEADER} header so
+ * {@link StreetlightsDeserializer} can tell the two apart.
+ */
+public class StreetlightsSerializer implements Serializer<Object> {
+
+    public static final String FORMAT_HEADER = "streetlights_format";
+    public static final String FORMAT_BINARY = "binary";
+
+    private static final byte[] FORMAT_BINARY_BYTES = FORMAT_BINARY.getBytes();
+
+    private final JsonSerializer<Object> jsonSerializer = new JsonSerializer<>();
+    private final String[] binaryTopicPrefixes;
+
+    public StreetlightsSerializer(List<String> binaryTopicPrefixes) {
+        this.binaryTopicPrefixes = binaryTopicPrefixes.stream()
+                .map(String::trim)
+                .filter(prefix -> !prefix.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Object data) {
+        return jsonSerializer.serialize(topic, data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, Object data) {
+        if (data != null && headers != null && isBinaryTopic(topic) && BinaryCodec.supports(data)) {
+            headers.add(FORMAT_HEADER, FORMAT_BINARY_BYTES);
+            return BinaryCodec.encode(data);
+        }
+        return jsonSerializer.serialize(topic, headers, data);
+    }
+
+    private boolean isBinaryTopic(String topic) {
+        for (String prefix : binaryTopicPrefixes) {
+            if (topic.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        jsonSerializer.close();
+    }
+}
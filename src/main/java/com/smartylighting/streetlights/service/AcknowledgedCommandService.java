@@ -0,0 +1,146 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends single commands and hands back a future that completes once the
+ * broker has acknowledged the record, for endpoints that answer
+ * asynchronously instead of holding a request thread.
+ *
+ * The record is handed to the producer on one of
+ * {@code streetlights.acked.sender-threads} sender threads, since
+ * {@code KafkaTemplate.send} itself can block for up to {@code max.block.ms}
+ * while topic metadata is fetched or the producer's buffer is full.
+ *
+ * At most {@code streetlights.acked.max-in-flight} sends are awaiting an
+ * acknowledgement; beyond that a send fails at once with a
+ * {@link RejectedExecutionException}. The returned future fails with a
+ * {@link TimeoutException} after {@code streetlights.acked.timeout-ms}, also
+ * when the producer has not yet accepted the record; the send itself is not
+ * cancelled and keeps its in-flight slot until the broker answers or the
+ * producer gives up.
+ */
+@Service
+public class AcknowledgedCommandService {
+
+    private final CommandPublisher commandPublisher;
+    private final long timeoutMs;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService senders;
+
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public AcknowledgedCommandService(CommandPublisher commandPublisher,
+                                      @Value("${streetlights.acked.timeout-ms:5000}") long timeoutMs,
+                                      @Value("${streetlights.acked.max-in-flight:10000}") int maxInFlight,
+                                      @Value("${streetlights.acked.sender-threads:2}") int senderThreads) {
+        this.commandPublisher = commandPublisher;
+        this.timeoutMs = timeoutMs;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread thread = new Thread(r, "acked-sender-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdown();
+        try {
+            senders.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public CompletableFuture<SendResult<String, Object>> send(String streetlightId, CommandType type,
+                                                              LightCommand command) {
+        if (!inFlight.tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(String.format(
+                    "%d commands already awaiting broker acknowledgement", maxInFlight)));
+        }
+
+        CompletableFuture<SendResult<String, Object>> sent;
+        try {
+            // a send that throws fails the future like a send the broker refused
+            sent = CompletableFuture.supplyAsync(() -> commandPublisher.send(streetlightId, type, command), senders)
+                    .thenCompose(acknowledgement -> acknowledgement);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            inFlight.release();
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((result, ex) -> {
+            if (ex == null) {
+                acknowledged.increment();
+            } else {
+                failed.increment();
+            }
+            inFlight.release();
+        });
+
+        // a copy, so the timeout does not complete the send's own future and free its slot early
+        return sent.copy()
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((result, ex) -> {
+                    if (ex instanceof TimeoutException) {
+                        timedOut.increment();
+                    }
+                });
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getAcknowledgedCount() {
+        return acknowledged.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
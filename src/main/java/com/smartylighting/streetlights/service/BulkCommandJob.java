@@ -0,0 +1,93 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress and outcome of one bulk command fan-out. Counts are updated from
+ * producer callbacks while the job runs, so readers see them advance.
+ */
+public class BulkCommandJob {
+
+    public enum Status { RUNNING, COMPLETED, FAILED }
+
+    private final String jobId;
+    private final CommandType command;
+    private final int requested;
+    private final LocalDateTime submittedAt = LocalDateTime.now();
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile Status status = Status.RUNNING;
+    private volatile long elapsedNanos = -1;
+    private volatile String error;
+
+    BulkCommandJob(String jobId, CommandType command, int requested) {
+        this.jobId = jobId;
+        this.command = command;
+        this.requested = requested;
+    }
+
+    void recordAccepted() {
+        accepted.increment();
+    }
+
+    void recordFailed() {
+        failed.increment();
+    }
+
+    void complete() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        status = Status.COMPLETED;
+    }
+
+    void fail(String error) {
+        this.error = error;
+        elapsedNanos = System.nanoTime() - startNanos;
+        status = Status.FAILED;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public CommandType getCommand() {
+        return command;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    /**
+     * Commands acknowledged by the broker.
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public LocalDateTime getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getElapsedMs() {
+        long nanos = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,328 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.BulkCommandRequest;
+import com.smartylighting.streetlights.model.command.BulkCommandRequest.IdRange;
+import com.smartylighting.streetlights.model.command.BulkCommandRequest.Selector;
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Fans one command out to many streetlights.
+ *
+ * Every light gets its own record, sent through {@link CommandPublisher} in the
+ * configured topic layout, but the sends are pipelined: up to
+ * {@code streetlights.bulk.max-in-flight} are outstanding at once and the
+ * producer batches them on the wire. All records share one command instance
+ * and one {@code sentAt}.
+ *
+ * Fan-outs of up to {@code streetlights.bulk.sync-limit} lights run on the
+ * calling thread and return once every send is acknowledged. Larger ones run
+ * on a small worker pool and are followed through their job ID; the last
+ * {@code streetlights.bulk.retained-jobs} finished jobs are kept, and running
+ * jobs are kept until they finish.
+ */
+@Service
+public class BulkCommandService {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkCommandService.class);
+
+    // IDs end up as record keys and, in the per-light layout, in topic names
+    static final int MAX_ID_LENGTH = 200;
+    // digits of the largest long, any wider is padding only
+    static final int MAX_RANGE_WIDTH = 19;
+
+    private final CommandPublisher commandPublisher;
+    private final StreetlightService streetlightService;
+    private final StreetlightGroupRegistry groupRegistry;
+    private final int maxLights;
+    private final int syncLimit;
+    private final int maxInFlight;
+    private final ExecutorService workers;
+    private final Map<String, BulkCommandJob> jobs;
+
+    @Autowired
+    public BulkCommandService(CommandPublisher commandPublisher,
+                              StreetlightService streetlightService,
+                              StreetlightGroupRegistry groupRegistry,
+                              @Value("${streetlights.bulk.max-lights:1000000}") int maxLights,
+                              @Value("${streetlights.bulk.sync-limit:1000}") int syncLimit,
+                              @Value("${streetlights.bulk.max-in-flight:10000}") int maxInFlight,
+                              @Value("${streetlights.bulk.workers:2}") int workers,
+                              @Value("${streetlights.bulk.retained-jobs:100}") int retainedJobs) {
+        this.commandPublisher = commandPublisher;
+        this.streetlightService = streetlightService;
+        this.groupRegistry = groupRegistry;
+        this.maxLights = maxLights;
+        this.syncLimit = syncLimit;
+        this.maxInFlight = maxInFlight;
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "bulk-command");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BulkCommandJob> eldest) {
+                if (size() > retainedJobs) {
+                    // the oldest finished job; a running one must stay visible to whoever follows it
+                    Iterator<BulkCommandJob> oldest = values().iterator();
+                    while (oldest.hasNext()) {
+                        if (oldest.next().getStatus() != BulkCommandJob.Status.RUNNING) {
+                            oldest.remove();
+                            break;
+                        }
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Validates the request and starts the fan-out. The returned job is already
+     * finished when the fan-out ran synchronously.
+     *
+     * @throws IllegalArgumentException if the request is invalid
+     */
+    public BulkCommandJob submit(BulkCommandRequest request) {
+        CommandType type = commandType(request);
+        LightCommand command = command(type, request.getPercentage());
+        List<String> targets = resolveTargets(request);
+
+        BulkCommandJob job = new BulkCommandJob(UUID.randomUUID().toString(), type, targets.size());
+        jobs.put(job.getJobId(), job);
+        log.info("Bulk {} for {} streetlight(s), job {}", type, targets.size(), job.getJobId());
+
+        if (targets.size() <= syncLimit) {
+            fanOut(job, targets, command);
+            return job;
+        }
+        try {
+            workers.execute(() -> fanOut(job, targets, command));
+        } catch (RejectedExecutionException e) {
+            job.fail("Bulk command workers are shut down");
+        }
+        return job;
+    }
+
+    public BulkCommandJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    List<String> resolveTargets(BulkCommandRequest request) {
+        int sources = (request.getIds() != null ? 1 : 0)
+                + (request.getRange() != null ? 1 : 0)
+                + (request.getSelector() != null ? 1 : 0);
+        if (sources != 1) {
+            throw new IllegalArgumentException("Exactly one of ids, range or selector is required");
+        }
+
+        List<String> targets;
+        if (request.getIds() != null) {
+            targets = request.getIds();
+            for (String streetlightId : targets) {
+                if (streetlightId == null || streetlightId.isBlank() || streetlightId.length() > MAX_ID_LENGTH) {
+                    throw new IllegalArgumentException(String.format(
+                            "ids must not be null or blank and at most %d characters long", MAX_ID_LENGTH));
+                }
+            }
+        } else if (request.getRange() != null) {
+            targets = range(request.getRange());
+        } else {
+            targets = select(request.getSelector());
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No streetlights selected");
+        }
+        if (targets.size() > maxLights) {
+            throw new IllegalArgumentException(String.format(
+                    "%d streetlights selected, at most %d are allowed per request", targets.size(), maxLights));
+        }
+        return targets;
+    }
+
+    private void fanOut(BulkCommandJob job, List<String> targets, LightCommand command) {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            for (String streetlightId : targets) {
+                inFlight.acquire();
+                try {
+                    commandPublisher.send(streetlightId, job.getCommand(), command)
+                            .whenComplete((result, ex) -> {
+                                if (ex == null) {
+                                    job.recordAccepted();
+                                } else {
+                                    job.recordFailed();
+                                }
+                                inFlight.release();
+                            });
+                } catch (Exception e) {
+                    job.recordFailed();
+                    inFlight.release();
+                }
+            }
+            // every permit is back once the last send is acknowledged or has failed
+            inFlight.acquire(maxInFlight);
+            job.complete();
+            log.info("Bulk job {} finished: {} accepted, {} failed in {} ms",
+                    job.getJobId(), job.getAccepted(), job.getFailed(), job.getElapsedMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail("Interrupted");
+        } catch (RuntimeException e) {
+            log.error("Bulk job {} failed: {}", job.getJobId(), e.getMessage(), e);
+            job.fail(e.getMessage());
+        }
+    }
+
+    private static CommandType commandType(BulkCommandRequest request) {
+        String command = request.getCommand();
+        if ("turn-on".equals(command)) {
+            return CommandType.TURN_ON;
+        }
+        if ("turn-off".equals(command)) {
+            return CommandType.TURN_OFF;
+        }
+        if ("dim".equals(command)) {
+            return CommandType.DIM;
+        }
+        throw new IllegalArgumentException("command must be one of turn-on, turn-off or dim");
+    }
+
+    private static LightCommand command(CommandType type, Integer percentage) {
+        LocalDateTime sentAt = LocalDateTime.now(ZoneOffset.UTC);
+        switch (type) {
+            case TURN_ON:
+                return new TurnOnOffCommand("on", sentAt, 50);
+            case TURN_OFF:
+                return new TurnOnOffCommand("off", sentAt, 50);
+            default:
+                if (percentage == null || percentage < 0 || percentage > 100) {
+                    throw new IllegalArgumentException("Percentage must be between 0 and 100");
+                }
+                return new DimLightCommand(percentage, sentAt, 50);
+        }
+    }
+
+    /**
+     * The IDs of a range, built on access rather than held in memory.
+     */
+    private List<String> range(IdRange range) {
+        if (range.getFrom() < 0 || range.getTo() < range.getFrom()) {
+            throw new IllegalArgumentException("range needs 0 <= from <= to");
+        }
+        // cannot overflow once 0 <= from <= to
+        if (range.getTo() - range.getFrom() >= maxLights) {
+            throw new IllegalArgumentException(String.format(
+                    "%d streetlights selected, at most %d are allowed per request",
+                    range.getTo() - range.getFrom() + 1, maxLights));
+        }
+        if (range.getWidth() < 0 || range.getWidth() > MAX_RANGE_WIDTH) {
+            throw new IllegalArgumentException(String.format("range width must be between 0 and %d",
+                    MAX_RANGE_WIDTH));
+        }
+        String prefix = range.getPrefix() != null ? range.getPrefix() : "";
+        if (prefix.length() + Math.max(range.getWidth(), Long.toString(range.getTo()).length()) > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "range IDs must be at most %d characters long", MAX_ID_LENGTH));
+        }
+        long from = range.getFrom();
+        long count = range.getTo() - from + 1;
+        int width = range.getWidth();
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                String number = Long.toString(from + index);
+                StringBuilder id = new StringBuilder(prefix.length() + Math.max(width, number.length()));
+                id.append(prefix);
+                for (int i = number.length(); i < width; i++) {
+                    id.append('0');
+                }
+                return id.append(number).toString();
+            }
+
+            @Override
+            public int size() {
+                return (int) count;
+            }
+        };
+    }
+
+    /**
+     * Group selectors resolve from the group bitmaps, in O(members); without
+     * groups every known state is scanned.
+     */
+    private List<String> select(Selector selector) {
+        int minDim = selector.getMinDim() != null ? selector.getMinDim() : 0;
+        int maxDim = selector.getMaxDim() != null ? selector.getMaxDim() : 100;
+        boolean filtersState = selector.getOn() != null || minDim > 0 || maxDim < 100;
+        Predicate<StreetlightService.StreetlightState> matchesState = state ->
+                (selector.getOn() == null || state.isOn() == selector.getOn())
+                        && state.getDimPercentage() >= minDim && state.getDimPercentage() <= maxDim;
+
+        List<String> selected = new ArrayList<>();
+        boolean byGroup = (selector.getGroups() != null && !selector.getGroups().isEmpty())
+                || (selector.getAllGroups() != null && !selector.getAllGroups().isEmpty());
+        if (byGroup) {
+            for (String streetlightId : groupRegistry.members(selector.getGroups(), selector.getAllGroups())) {
+                if (selector.getPrefix() != null && !streetlightId.startsWith(selector.getPrefix())) {
+                    continue;
+                }
+                // members that have never received a command only match selectors without state filters
+                if (!filtersState) {
+                    selected.add(streetlightId);
+                    continue;
+                }
+                StreetlightService.StreetlightState state = streetlightService.getState(streetlightId);
+                if (state != null && matchesState.test(state)) {
+                    selected.add(streetlightId);
+                }
+            }
+            return selected;
+        }
+
+        for (StreetlightService.StreetlightState state : streetlightService.getAllStates().values()) {
+            if ((selector.getPrefix() == null || state.getStreetlightId().startsWith(selector.getPrefix()))
+                    && matchesState.test(state)) {
+                selected.add(state.getStreetlightId());
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,207 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional stage in front of {@link StreetlightService} that folds all commands
+ * received for a streetlight within one window into its final state.
+ *
+ * On/off and dim are folded independently into {@link FoldedCommands}, each
+ * keeping the command with the latest {@code sentAt}. When the window closes every pending light gets one
+ * state mutation and one measurement publish, however many commands it saw.
+ *
+ * Pending commands are applied before their offsets are committed, so
+ * coalescing keeps at-least-once delivery: the listener containers drain the
+ * coalescer after each poll's records have been processed (record listeners)
+ * or at the end of each batch (batch listener), and again before revoked
+ * partitions commit. A window therefore never spans more than one poll per
+ * consumer, and a crash can only lose commands whose offsets are still
+ * uncommitted, which are redelivered.
+ *
+ * Enabled with {@code streetlights.coalescing.enabled=true}; the window length
+ * is {@code streetlights.coalescing.window-ms}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.coalescing.enabled", havingValue = "true")
+public class CommandCoalescer implements ConsumerAwareRebalanceListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandCoalescer.class);
+
+    private final StreetlightService streetlightService;
+    private final long windowMs;
+
+    @Value("${streetlights.processing.guarantee:at-least-once}")
+    private String processingGuarantee;
+
+    private final Map<String, FoldedCommands> pending = new ConcurrentHashMap<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public CommandCoalescer(StreetlightService streetlightService,
+                            @Value("${streetlights.coalescing.window-ms:50}") long windowMs) {
+        this.streetlightService = streetlightService;
+        this.windowMs = windowMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "command-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, windowMs, windowMs, TimeUnit.MILLISECONDS);
+        log.info("Command coalescing enabled with a {} ms window", windowMs);
+        if ("exactly-once".equals(processingGuarantee)) {
+            log.warn("Coalesced commands are applied after their offsets commit, "
+                    + "so their measurements are not covered by exactly-once processing");
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(windowMs * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public void submit(String streetlightId, CommandType type, LightCommand command) {
+        pending.compute(streetlightId, (id, commands) -> {
+            FoldedCommands folded = commands;
+            if (folded == null) {
+                folded = new FoldedCommands();
+            } else {
+                collapsed.increment();
+            }
+            folded.fold(type, command);
+            return folded;
+        });
+        received.increment();
+    }
+
+    /**
+     * Like {@link #submit(String, CommandType, LightCommand)} for commands
+     * already folded by the caller, e.g. one light's share of a batch.
+     */
+    public void submit(String streetlightId, FoldedCommands commands) {
+        pending.compute(streetlightId, (id, folded) -> {
+            if (folded == null) {
+                collapsed.add(commands.getCommandCount() - 1);
+                FoldedCommands copy = new FoldedCommands();
+                copy.fold(commands);
+                return copy;
+            }
+            collapsed.add(commands.getCommandCount());
+            folded.fold(commands);
+            return folded;
+        });
+        received.add(commands.getCommandCount());
+    }
+
+    /**
+     * Applies every pending streetlight's folded state. Runs on the flusher
+     * thread, so two flushes for the same light never overlap.
+     */
+    void flush() {
+        int lights = 0;
+        for (String streetlightId : pending.keySet()) {
+            FoldedCommands commands = pending.remove(streetlightId);
+            if (commands == null) {
+                continue;
+            }
+            lights++;
+            applied.increment();
+            try {
+                streetlightService.applyFinalState(streetlightId, commands.getOn(), commands.getSwitchSentAt(),
+                        commands.getDimPercentage(), commands.getDimSentAt());
+            } catch (Exception e) {
+                log.error("Failed to apply coalesced state for streetlight {}: {}",
+                        streetlightId, e.getMessage(), e);
+            }
+        }
+        if (lights > 0) {
+            log.debug("Flushed coalesced state for {} streetlight(s), {} command(s) collapsed so far",
+                    lights, getCollapsedCount());
+        }
+    }
+
+    /**
+     * Flushes everything submitted so far on the flusher thread and waits for it,
+     * so callers see every accepted command reflected in the state store.
+     */
+    public void drain() throws InterruptedException {
+        try {
+            flusher.submit(this::flush).get();
+        } catch (ExecutionException e) {
+            log.error("Command coalescer drain failed: {}", e.getCause().getMessage(), e.getCause());
+        } catch (RejectedExecutionException e) {
+            // already stopped, and stop() flushes on its way out
+        }
+    }
+
+    /**
+     * Applies the commands of the revoked partitions before the container
+     * commits their offsets.
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Command coalescer flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    /**
+     * Commands that were folded into another command's state change instead
+     * of being applied on their own.
+     */
+    public long getCollapsedCount() {
+        return collapsed.sum();
+    }
+}
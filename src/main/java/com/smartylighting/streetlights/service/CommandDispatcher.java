@@ -0,0 +1,56 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.LightCommand;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Single entry point the consumers hand decoded commands to. Routes through the
+ * {@link CommandCoalescer} when coalescing is enabled, otherwise straight to
+ * {@link StreetlightService}.
+ */
+@Component
+public class CommandDispatcher {
+
+    private final StreetlightService streetlightService;
+    private final CommandCoalescer commandCoalescer;
+
+    @Autowired
+    public CommandDispatcher(StreetlightService streetlightService,
+                             ObjectProvider<CommandCoalescer> commandCoalescer) {
+        this.streetlightService = streetlightService;
+        this.commandCoalescer = commandCoalescer.getIfAvailable();
+    }
+
+    public void dispatch(String streetlightId, CommandType type, LightCommand command) {
+        if (commandCoalescer != null) {
+            commandCoalescer.submit(streetlightId, type, command);
+        } else {
+            streetlightService.apply(streetlightId, type, command);
+        }
+    }
+
+    /**
+     * Returns once every command dispatched so far is reflected in the state
+     * store; call it before the offsets of those commands are committed.
+     */
+    public void awaitApplied() throws InterruptedException {
+        if (commandCoalescer != null) {
+            commandCoalescer.drain();
+        }
+    }
+
+    /**
+     * Hands over a light's already folded commands, which reach the state store
+     * as one mutation with at most one measurement.
+     */
+    public void dispatch(String streetlightId, FoldedCommands commands) {
+        if (commandCoalescer != null) {
+            commandCoalescer.submit(streetlightId, commands);
+        } else {
+            streetlightService.applyFinalState(streetlightId, commands);
+        }
+    }
+}
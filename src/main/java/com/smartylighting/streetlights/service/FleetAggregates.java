@@ -0,0 +1,92 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fleet-wide totals kept up to date from state deltas, so reading them costs
+ * the same whatever the fleet size: lights held, lights on, total lumens and
+ * a histogram of dim percentages (one bucket per percent, 0..100).
+ *
+ * Command transitions arrive as {@link StateChangeListener} notifications;
+ * snapshot and changelog restores and partition hand-offs report the
+ * {@link StateChange} of their store update or removal via {@link #apply}, so
+ * the light is counted out with the state the store actually replaced even
+ * when a command changes it concurrently. Counters are striped
+ * {@link LongAdder}s, so concurrent updates from many consumer threads do not
+ * contend, and a read sums each counter independently rather than as one
+ * atomic snapshot.
+ */
+@Component
+public class FleetAggregates implements StateChangeListener {
+
+    public static final int DIM_BUCKETS = 101;
+
+    private final LongAdder lights = new LongAdder();
+    private final LongAdder on = new LongAdder();
+    private final LongAdder totalLumens = new LongAdder();
+    private final LongAdder[] dimHistogram = new LongAdder[DIM_BUCKETS];
+
+    public FleetAggregates() {
+        for (int i = 0; i < DIM_BUCKETS; i++) {
+            dimHistogram[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onStateChange(String streetlightId, StateChange change) {
+        apply(change);
+    }
+
+    /**
+     * Accounts for an update of or removal from the live store: moves the
+     * light from its previous state to its current one, adds it if it was just
+     * created, or drops it if it was removed.
+     */
+    public void apply(StateChange change) {
+        if (change.isCreated()) {
+            lights.increment();
+            count(change.getCurrent(), 1);
+        } else if (change.isRemoved()) {
+            lights.decrement();
+            count(change.getPrevious(), -1);
+        } else if (change.isApplied()) {
+            count(change.getPrevious(), -1);
+            count(change.getCurrent(), 1);
+        }
+    }
+
+    private void count(StreetlightState state, int sign) {
+        if (state.isOn()) {
+            on.add(sign);
+            totalLumens.add((long) sign * StreetlightService.calculateLumens(state));
+        }
+        // commands from Kafka are not validated, so keep out-of-range values in the end buckets
+        dimHistogram[Math.min(Math.max(state.getDimPercentage(), 0), DIM_BUCKETS - 1)].add(sign);
+    }
+
+    public long getLightCount() {
+        return lights.sum();
+    }
+
+    public long getOnCount() {
+        return on.sum();
+    }
+
+    public long getTotalLumens() {
+        return totalLumens.sum();
+    }
+
+    /**
+     * Lights per dim percentage; index {@code i} counts lights dimmed to {@code i}%.
+     */
+    public long[] getDimHistogram() {
+        long[] histogram = new long[DIM_BUCKETS];
+        for (int i = 0; i < DIM_BUCKETS; i++) {
+            histogram[i] = dimHistogram[i].sum();
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,97 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.LightCommand;
+
+import java.time.LocalDateTime;
+
+/**
+ * Final state of a sequence of commands for one streetlight. On/off and dim
+ * are folded independently, each keeping the command with the latest
+ * {@code sentAt}; commands without a timestamp, and ties, fall back to arrival
+ * order. Not thread-safe.
+ *
+ * Applied with {@link StreetlightService#applyFinalState}, which checks each
+ * field against the time it was last set.
+ */
+public final class FoldedCommands {
+
+    private Boolean on;
+    private LocalDateTime switchSentAt;
+    private Integer dimPercentage;
+    private LocalDateTime dimSentAt;
+    private int commandCount;
+
+    public void fold(CommandType type, LightCommand command) {
+        commandCount++;
+        if (type == CommandType.DIM) {
+            foldDim(((DimLightCommand) command).getPercentage(), command.getSentAt());
+        } else {
+            foldSwitch(type == CommandType.TURN_ON, command.getSentAt());
+        }
+    }
+
+    /**
+     * Folds in commands that arrived after the ones already folded here.
+     */
+    public void fold(FoldedCommands later) {
+        commandCount += later.commandCount;
+        if (later.on != null) {
+            foldSwitch(later.on, later.switchSentAt);
+        }
+        if (later.dimPercentage != null) {
+            foldDim(later.dimPercentage, later.dimSentAt);
+        }
+    }
+
+    private void foldSwitch(boolean candidate, LocalDateTime sentAt) {
+        if (isNotOlder(sentAt, switchSentAt)) {
+            on = candidate;
+            switchSentAt = sentAt;
+        }
+    }
+
+    private void foldDim(Integer candidate, LocalDateTime sentAt) {
+        if (isNotOlder(sentAt, dimSentAt)) {
+            dimPercentage = candidate;
+            dimSentAt = sentAt;
+        }
+    }
+
+    private static boolean isNotOlder(LocalDateTime candidate, LocalDateTime current) {
+        return candidate == null || current == null || !candidate.isBefore(current);
+    }
+
+    /**
+     * Null when no turn-on or turn-off was folded.
+     */
+    public Boolean getOn() {
+        return on;
+    }
+
+    public LocalDateTime getSwitchSentAt() {
+        return switchSentAt;
+    }
+
+    /**
+     * Null when no dim was folded.
+     */
+    public Integer getDimPercentage() {
+        return dimPercentage;
+    }
+
+    public LocalDateTime getDimSentAt() {
+        return dimSentAt;
+    }
+
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FoldedCommands{on=%s, switchSentAt=%s, dim=%s%%, dimSentAt=%s, commands=%d}",
+                on, switchSentAt, dimPercentage, dimSentAt, commandCount);
+    }
+}
@@ -0,0 +1,48 @@
+package com.smartylighting.streetlights.service;
+
+/**
+ * Point-in-time figures over the members of a group or group combination.
+ * Members without state yet count towards {@code members} only.
+ */
+public class GroupAggregate {
+
+    private final int members;
+    private final int known;
+    private final int on;
+    private final double averageDimPercentage;
+    private final long totalLumens;
+
+    public GroupAggregate(int members, int known, int on, double averageDimPercentage, long totalLumens) {
+        this.members = members;
+        this.known = known;
+        this.on = on;
+        this.averageDimPercentage = averageDimPercentage;
+        this.totalLumens = totalLumens;
+    }
+
+    public int getMembers() {
+        return members;
+    }
+
+    /**
+     * Members with a state, i.e. that have received at least one command.
+     */
+    public int getKnown() {
+        return known;
+    }
+
+    public int getOn() {
+        return on;
+    }
+
+    /**
+     * Average dim percentage over the known members, 0 when there are none.
+     */
+    public double getAverageDimPercentage() {
+        return averageDimPercentage;
+    }
+
+    public long getTotalLumens() {
+        return totalLumens;
+    }
+}
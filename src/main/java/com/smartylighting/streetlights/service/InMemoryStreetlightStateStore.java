@@ -0,0 +1,109 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Default store: one {@link StreetlightState} object per light in a {@code ConcurrentHashMap}.
+ * A sorted set of IDs, only touched when a light is first created, gives
+ * {@link #scan} a stable order to resume from.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.state.store", havingValue = "map", matchIfMissing = true)
+public class InMemoryStreetlightStateStore implements StreetlightStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryStreetlightStateStore.class);
+
+    // in prod, this would be a DB
+    private final Map<String, StreetlightState> streetlights = new ConcurrentHashMap<>();
+    private final NavigableSet<String> streetlightIds = new ConcurrentSkipListSet<>();
+
+    @Override
+    public StreetlightState get(String streetlightId) {
+        return streetlights.get(streetlightId);
+    }
+
+    @Override
+    public StreetlightState getOrCreate(String streetlightId) {
+        return streetlights.computeIfAbsent(streetlightId, id -> {
+            log.debug("Creating new streetlight state for ID: {}", id);
+            streetlightIds.add(id);
+            return StreetlightState.initial(id);
+        });
+    }
+
+    @Override
+    public StateChange update(String streetlightId, UnaryOperator<StreetlightState> transition) {
+        // compute runs the transition exactly once under the bin lock, so capturing is safe
+        StreetlightState[] before = new StreetlightState[1];
+        boolean[] created = new boolean[1];
+        StreetlightState after = streetlights.compute(streetlightId, (id, state) -> {
+            if (state == null) {
+                log.debug("Creating new streetlight state for ID: {}", id);
+                streetlightIds.add(id);
+                state = StreetlightState.initial(id);
+                created[0] = true;
+            }
+            before[0] = state;
+            return transition.apply(state);
+        });
+        return new StateChange(before[0], after, created[0]);
+    }
+
+    @Override
+    public void put(String streetlightId, StreetlightState state) {
+        if (streetlights.put(streetlightId, state) == null) {
+            streetlightIds.add(streetlightId);
+        }
+    }
+
+    @Override
+    public StateChange remove(String streetlightId) {
+        StreetlightState[] removed = new StreetlightState[1];
+        streetlights.computeIfPresent(streetlightId, (id, state) -> {
+            streetlightIds.remove(id);
+            removed[0] = state;
+            return null;
+        });
+        return removed[0] == null ? null : new StateChange(removed[0], null, false);
+    }
+
+    @Override
+    public Map<String, StreetlightState> getAll() {
+        return Collections.unmodifiableMap(streetlights);
+    }
+
+    @Override
+    public String scan(String cursor, int limit, Predicate<StreetlightState> filter,
+                       Consumer<StreetlightState> visitor) {
+        int matched = 0;
+        for (String streetlightId : cursor == null ? streetlightIds : streetlightIds.tailSet(cursor, false)) {
+            StreetlightState state = streetlights.get(streetlightId);
+            if (state == null || !filter.test(state)) {
+                continue;
+            }
+            visitor.accept(state);
+            if (++matched == limit) {
+                return streetlightId;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return streetlights.size();
+    }
+}
@@ -0,0 +1,255 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.event.LumensRollup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Event-time windows over light measurements, rolled up per light and per
+ * group when they close. Not thread-safe; {@link TelemetryRollup} serialises
+ * access.
+ *
+ * Each {@link Spec} is a hopping window of {@code size} starting every
+ * {@code advance}; a tumbling window is one whose advance equals its size.
+ * Stream time is the latest measurement time seen, and a window closes once
+ * stream time passes its end by the grace period. A measurement that only
+ * falls into closed windows is late: it is counted and dropped.
+ *
+ * Memory stays bounded in two ways: at most {@code maxOpenWindows} per-light
+ * window accumulators are held, and when a measurement would exceed that the
+ * earliest-ending windows are closed early; and the last known on/off state,
+ * used to credit on-time from a window's start, is kept for at most
+ * {@code maxTrackedLights} lights, least recently measured dropped first.
+ */
+final class LumensWindows {
+
+    static final class Spec {
+        private final String name;
+        private final long size;
+        private final long advance;
+
+        Spec(String name, long size, long advance) {
+            if (size <= 0 || advance <= 0 || advance > size) {
+                throw new IllegalArgumentException(String.format(
+                        "Window %s needs 0 < advance <= size, got size %d and advance %d", name, size, advance));
+            }
+            this.name = name;
+            this.size = size;
+            this.advance = advance;
+        }
+    }
+
+    private static final class Window {
+        final int spec;
+        final long start;
+        final long end;
+
+        Window(int spec, long start, long end) {
+            this.spec = spec;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final Comparator<Window> BY_END = Comparator.<Window>comparingLong(window -> window.end)
+            .thenComparingInt(window -> window.spec)
+            .thenComparingLong(window -> window.start);
+
+    private static final class Accumulator {
+        long count;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum;
+        long onMs;
+        // on/off state since lastTime, for crediting on-time
+        long lastTime;
+        boolean lastOn;
+        int lights = 1;
+
+        void add(long time, int lumens) {
+            count++;
+            min = Math.min(min, lumens);
+            max = Math.max(max, lumens);
+            sum += lumens;
+            // a measurement older than the latest one still counts towards the lumens figures
+            if (time >= lastTime) {
+                if (lastOn) {
+                    onMs += time - lastTime;
+                }
+                lastTime = time;
+                lastOn = lumens > 0;
+            }
+        }
+
+        void merge(Accumulator other) {
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            onMs += other.onMs;
+            lights += other.lights;
+        }
+    }
+
+    private static final class LastSeen {
+        final long time;
+        final boolean on;
+
+        LastSeen(long time, boolean on) {
+            this.time = time;
+            this.on = on;
+        }
+    }
+
+    private final List<Spec> specs;
+    private final long graceMs;
+    private final int maxOpenWindows;
+    private final Function<String, Collection<String>> groupsOf;
+
+    private final TreeMap<Window, Map<String, Accumulator>> open = new TreeMap<>(BY_END);
+    private final Map<String, LastSeen> lastSeen;
+    private int openAccumulators;
+    private long streamTime = Long.MIN_VALUE;
+    // every window ending at or before this has been emitted
+    private long closedThrough = Long.MIN_VALUE;
+    private long lateCount;
+    private long earlyClosedCount;
+
+    LumensWindows(List<Spec> specs, long graceMs, int maxOpenWindows, int maxTrackedLights,
+                  Function<String, Collection<String>> groupsOf) {
+        this.specs = List.copyOf(specs);
+        this.graceMs = graceMs;
+        this.maxOpenWindows = maxOpenWindows;
+        this.groupsOf = groupsOf;
+        this.lastSeen = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LastSeen> eldest) {
+                return size() > maxTrackedLights;
+            }
+        };
+    }
+
+    /**
+     * Adds a measurement and returns the rollups of the windows it closed, if any.
+     */
+    List<LumensRollup> add(String streetlightId, long time, int lumens) {
+        LastSeen previous = lastSeen.get(streetlightId);
+        boolean accepted = false;
+        for (int spec = 0; spec < specs.size(); spec++) {
+            Spec s = specs.get(spec);
+            long lastStart = time - Math.floorMod(time, s.advance);
+            for (long start = lastStart; start > time - s.size; start -= s.advance) {
+                long end = start + s.size;
+                if (end <= closedThrough) {
+                    break;
+                }
+                Map<String, Accumulator> lights = open.computeIfAbsent(new Window(spec, start, end),
+                        window -> new HashMap<>());
+                Accumulator accumulator = lights.get(streetlightId);
+                if (accumulator == null) {
+                    accumulator = new Accumulator();
+                    // the light kept its last known state from the window start until now
+                    if (previous != null && previous.time < time) {
+                        accumulator.lastTime = Math.max(previous.time, start);
+                        accumulator.lastOn = previous.on;
+                    } else {
+                        accumulator.lastTime = time;
+                    }
+                    lights.put(streetlightId, accumulator);
+                    openAccumulators++;
+                }
+                accumulator.add(time, lumens);
+                accepted = true;
+            }
+        }
+        if (!accepted) {
+            lateCount++;
+            return List.of();
+        }
+        if (previous == null || time >= previous.time) {
+            lastSeen.put(streetlightId, new LastSeen(time, lumens > 0));
+        }
+
+        List<LumensRollup> rollups = new ArrayList<>();
+        streamTime = Math.max(streamTime, time);
+        if (streamTime - graceMs > closedThrough) {
+            closeThrough(streamTime - graceMs, rollups);
+        }
+        while (openAccumulators > maxOpenWindows) {
+            int before = openAccumulators;
+            closeThrough(open.firstKey().end, rollups);
+            earlyClosedCount += before - openAccumulators;
+        }
+        return rollups;
+    }
+
+    /**
+     * Closes every open window regardless of stream time.
+     */
+    List<LumensRollup> flush() {
+        List<LumensRollup> rollups = new ArrayList<>();
+        if (!open.isEmpty()) {
+            closeThrough(open.lastKey().end, rollups);
+        }
+        return rollups;
+    }
+
+    private void closeThrough(long watermark, List<LumensRollup> rollups) {
+        closedThrough = Math.max(closedThrough, watermark);
+        while (!open.isEmpty() && open.firstKey().end <= closedThrough) {
+            Map.Entry<Window, Map<String, Accumulator>> entry = open.pollFirstEntry();
+            close(entry.getKey(), entry.getValue(), rollups);
+        }
+    }
+
+    private void close(Window window, Map<String, Accumulator> lights, List<LumensRollup> rollups) {
+        String name = specs.get(window.spec).name;
+        Map<String, Accumulator> groups = new HashMap<>();
+        for (Map.Entry<String, Accumulator> entry : lights.entrySet()) {
+            Accumulator light = entry.getValue();
+            if (light.lastOn) {
+                light.onMs += window.end - light.lastTime;
+            }
+            rollups.add(rollup(LumensRollup.LIGHT, entry.getKey(), name, window, light));
+            for (String group : groupsOf.apply(entry.getKey())) {
+                Accumulator total = groups.get(group);
+                if (total == null) {
+                    total = new Accumulator();
+                    total.lights = 0;
+                    groups.put(group, total);
+                }
+                total.merge(light);
+            }
+        }
+        groups.forEach((group, total) -> rollups.add(rollup(LumensRollup.GROUP, group, name, window, total)));
+        openAccumulators -= lights.size();
+    }
+
+    private static LumensRollup rollup(String scope, String key, String name, Window window, Accumulator a) {
+        return new LumensRollup(scope, key, name, window.start, window.end, a.lights, a.count,
+                a.min, a.max, (double) a.sum / a.count, a.onMs);
+    }
+
+    long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * Per-light windows closed before their time to stay within {@code maxOpenWindows}.
+     */
+    long getEarlyClosedCount() {
+        return earlyClosedCount;
+    }
+
+    int getOpenWindowCount() {
+        return openAccumulators;
+    }
+}
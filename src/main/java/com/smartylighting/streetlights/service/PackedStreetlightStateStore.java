@@ -0,0 +1,372 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Store for large fleets: IDs are interned to int slots by a {@link StreetlightIdIndex}
+ * and each light's state is packed into two {@code long}s, held in fixed-size
+ * {@link AtomicLongArray} segments. Per light that is one ID string, an index
+ * bucket and sixteen bytes, instead of a state object, {@code LocalDateTime}
+ * graphs and a map node.
+ *
+ * Bit layout of the first word: dim percentage in bits 0-6, on/off in bit 7,
+ * "has switch time" in bit 8, "exists" in bit 9, a lock bit in bit 10 and the
+ * last switch time as UTC epoch millis in bits 11-63. The second word holds
+ * "has dim time" in bit 0 and the last dim time in bits 1-63. Command times
+ * therefore keep millisecond precision, which is all the wire formats carry
+ * anyway.
+ *
+ * Writers take the lock bit with a compare-and-set on the first word and
+ * release it by writing the new first word, so both words change together.
+ * Readers do not lock: they retry while the lock bit is set or if the first
+ * word changed while they read the second.
+ *
+ * Enabled with {@code streetlights.state.store=packed}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.state.store", havingValue = "packed")
+public class PackedStreetlightStateStore implements StreetlightStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(PackedStreetlightStateStore.class);
+
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private static final long DIM_MASK = 0x7FL;
+    private static final long ON_BIT = 1L << 7;
+    private static final long HAS_TIME_BIT = 1L << 8;
+    private static final long EXISTS_BIT = 1L << 9;
+    private static final long LOCKED_BIT = 1L << 10;
+    private static final int TIME_SHIFT = 11;
+    private static final long HAS_DIM_TIME_BIT = 1L;
+    private static final int DIM_TIME_SHIFT = 1;
+    private static final int MAX_DIM = 100;
+
+    private final StreetlightIdIndex idIndex = new StreetlightIdIndex();
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+    // lights with state; interned slots outlive removed lights, so the index size is only an upper bound
+    private final AtomicInteger live = new AtomicInteger();
+
+    @Override
+    public StreetlightState get(String streetlightId) {
+        int slot = idIndex.slotOf(streetlightId);
+        return slot < 0 ? null : read(streetlightId, segmentFor(slot), wordIndex(slot));
+    }
+
+    @Override
+    public StreetlightState getOrCreate(String streetlightId) {
+        return update(streetlightId, state -> state).getCurrent();
+    }
+
+    @Override
+    public StateChange update(String streetlightId, UnaryOperator<StreetlightState> transition) {
+        int slot = slotFor(streetlightId);
+        AtomicLongArray segment = segmentFor(slot);
+        int index = wordIndex(slot);
+
+        long packed = lock(segment, index);
+        boolean created = (packed & EXISTS_BIT) == 0;
+        StreetlightState previous;
+        StreetlightState next;
+        long word;
+        long dimTime;
+        try {
+            previous = created ? StreetlightState.initial(streetlightId)
+                    : unpack(streetlightId, packed, segment.get(index + 1));
+            next = transition.apply(previous);
+            word = pack(next);
+            dimTime = packDimTime(next);
+        } catch (RuntimeException | Error e) {
+            segment.set(index, packed);
+            throw e;
+        }
+
+        if (next == previous && !created) {
+            segment.set(index, packed);
+            return new StateChange(previous, previous, false);
+        }
+        segment.set(index + 1, dimTime);
+        segment.set(index, word);
+        if (created) {
+            live.incrementAndGet();
+            log.debug("Creating new streetlight state for ID: {}", streetlightId);
+        }
+        return new StateChange(previous, next, created);
+    }
+
+    @Override
+    public void put(String streetlightId, StreetlightState state) {
+        int slot = slotFor(streetlightId);
+        AtomicLongArray segment = segmentFor(slot);
+        int index = wordIndex(slot);
+        long word = pack(state);
+
+        long previous = lock(segment, index);
+        segment.set(index + 1, packDimTime(state));
+        segment.set(index, word);
+        if ((previous & EXISTS_BIT) == 0) {
+            live.incrementAndGet();
+        }
+    }
+
+    /**
+     * Clears the light's word; its slot stays interned and is reused if the
+     * light comes back.
+     */
+    @Override
+    public StateChange remove(String streetlightId) {
+        int slot = idIndex.slotOf(streetlightId);
+        if (slot < 0) {
+            return null;
+        }
+        AtomicLongArray segment = segmentFor(slot);
+        int index = wordIndex(slot);
+
+        long previous = lock(segment, index);
+        long dimTime = segment.get(index + 1);
+        segment.set(index + 1, 0L);
+        segment.set(index, 0L);
+        if ((previous & EXISTS_BIT) == 0) {
+            return null;
+        }
+        live.decrementAndGet();
+        return new StateChange(unpack(streetlightId, previous, dimTime), null, false);
+    }
+
+    @Override
+    public Map<String, StreetlightState> getAll() {
+        return new AbstractMap<>() {
+            @Override
+            public StreetlightState get(Object key) {
+                return key instanceof String streetlightId ? PackedStreetlightStateStore.this.get(streetlightId) : null;
+            }
+
+            @Override
+            public int size() {
+                return PackedStreetlightStateStore.this.size();
+            }
+
+            @Override
+            public Set<Entry<String, StreetlightState>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, StreetlightState>> iterator() {
+                        return new SlotIterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return PackedStreetlightStateStore.this.size();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * The cursor is the slot of the last visited light, so scans resume in
+     * slot order without any lookup.
+     *
+     * @throws IllegalArgumentException if {@code cursor} is not a slot number
+     */
+    @Override
+    public String scan(String cursor, int limit, Predicate<StreetlightState> filter,
+                       Consumer<StreetlightState> visitor) {
+        if (!isValidCursor(cursor)) {
+            throw new IllegalArgumentException("Invalid scan cursor: " + cursor);
+        }
+        int start = cursor == null ? 0 : Integer.parseInt(cursor) + 1;
+        int size = idIndex.size();
+        int matched = 0;
+        for (int slot = start; slot < size; slot++) {
+            StreetlightState state = read(idIndex.idOf(slot), segmentFor(slot), wordIndex(slot));
+            if (state == null || !filter.test(state)) {
+                continue;
+            }
+            visitor.accept(state);
+            if (++matched == limit) {
+                return Integer.toString(slot);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isValidCursor(String cursor) {
+        if (cursor == null) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(cursor) >= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int size() {
+        return live.get();
+    }
+
+    /**
+     * Walks the slots in order, skipping interned slots that have no state yet.
+     */
+    private final class SlotIterator implements Iterator<Map.Entry<String, StreetlightState>> {
+        private final int size = idIndex.size();
+        private int slot;
+        private Map.Entry<String, StreetlightState> next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slot < size) {
+                String streetlightId = idIndex.idOf(slot);
+                StreetlightState state = read(streetlightId, segmentFor(slot), wordIndex(slot));
+                if (state != null) {
+                    next = new SimpleImmutableEntry<>(streetlightId, state);
+                }
+                slot++;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, StreetlightState> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, StreetlightState> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    /**
+     * Reads a light's two words consistently, or returns null if it has no state.
+     */
+    private static StreetlightState read(String streetlightId, AtomicLongArray segment, int index) {
+        while (true) {
+            long word = segment.get(index);
+            if ((word & LOCKED_BIT) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if ((word & EXISTS_BIT) == 0) {
+                return null;
+            }
+            long dimTime = segment.get(index + 1);
+            if (segment.get(index) == word) {
+                return unpack(streetlightId, word, dimTime);
+            }
+        }
+    }
+
+    /**
+     * Sets the lock bit on a light's first word and returns the word as it was before.
+     */
+    private static long lock(AtomicLongArray segment, int index) {
+        while (true) {
+            long word = segment.get(index);
+            if ((word & LOCKED_BIT) == 0 && segment.compareAndSet(index, word, word | LOCKED_BIT)) {
+                return word;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static int wordIndex(int slot) {
+        return (slot & SEGMENT_MASK) << 1;
+    }
+
+    private int slotFor(String streetlightId) {
+        int slot = idIndex.slotOf(streetlightId);
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = idIndex.intern(streetlightId);
+        ensureSegment(slot);
+        return slot;
+    }
+
+    private AtomicLongArray segmentFor(int slot) {
+        AtomicLongArray[] current = segments;
+        int segment = slot >>> SEGMENT_BITS;
+        return segment < current.length ? current[segment] : ensureSegment(slot);
+    }
+
+    /**
+     * Allocates segments up to the one holding {@code slot}.
+     */
+    private synchronized AtomicLongArray ensureSegment(int slot) {
+        int segment = slot >>> SEGMENT_BITS;
+        AtomicLongArray[] current = segments;
+        if (segment < current.length) {
+            return current[segment];
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(current, segment + 1);
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(SEGMENT_SIZE * 2);
+        }
+        log.debug("Grew packed state store to {} segment(s)", grown.length);
+        segments = grown;
+        return grown[segment];
+    }
+
+    static long pack(StreetlightState state) {
+        int dim = state.getDimPercentage();
+        if (dim < 0 || dim > MAX_DIM) {
+            throw new IllegalArgumentException("Dim percentage must be between 0 and 100, was " + dim);
+        }
+        long packed = EXISTS_BIT | dim;
+        if (state.isOn()) {
+            packed |= ON_BIT;
+        }
+        LocalDateTime lastSwitchTime = state.getLastSwitchTime();
+        if (lastSwitchTime != null) {
+            packed |= HAS_TIME_BIT | (toEpochMilli(lastSwitchTime) << TIME_SHIFT);
+        }
+        return packed;
+    }
+
+    static long packDimTime(StreetlightState state) {
+        LocalDateTime lastDimTime = state.getLastDimTime();
+        return lastDimTime == null ? 0L : HAS_DIM_TIME_BIT | (toEpochMilli(lastDimTime) << DIM_TIME_SHIFT);
+    }
+
+    static StreetlightState unpack(String streetlightId, long packed, long dimTime) {
+        LocalDateTime lastSwitchTime = (packed & HAS_TIME_BIT) == 0 ? null : fromEpochMilli(packed >> TIME_SHIFT);
+        LocalDateTime lastDimTime = (dimTime & HAS_DIM_TIME_BIT) == 0 ? null
+                : fromEpochMilli(dimTime >> DIM_TIME_SHIFT);
+        return new StreetlightState(streetlightId, (packed & ON_BIT) != 0, (int) (packed & DIM_MASK),
+                lastSwitchTime, lastDimTime);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMilli(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,165 @@
+package com.smartylighting.streetlights.service;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Makes the local state store hold exactly the lights whose keyed command
+ * partitions this instance is assigned.
+ *
+ * On assignment the lights of the new partitions are restored from the
+ * {@link StateChangelog}; on revocation pending changes are drained and flushed
+ * to the changelog, so the next owner sees them, and the lights are dropped and
+ * handed to the {@link StateReplica}, which answers queries for lights owned
+ * elsewhere. Lights are indexed by command partition as they are restored or
+ * created, so a revocation only visits the lights it drops.
+ *
+ * Ownership needs the keyed command layout, where the partition follows from
+ * the streetlight ID, and the state changelog. It is not meant to be combined
+ * with local snapshots, which hold every light.
+ *
+ * Enabled with {@code streetlights.ownership.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.ownership.enabled", havingValue = "true")
+public class PartitionOwnership implements ConsumerAwareRebalanceListener, StateChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionOwnership.class);
+
+    private final StreetlightStateStore streetlights;
+    private final StateChangelog stateChangelog;
+    private final ObjectProvider<CommandCoalescer> commandCoalescer;
+    private final ObjectProvider<FleetAggregates> fleetAggregates;
+    private final ObjectProvider<StateReplica> stateReplica;
+    private final String commandTopic;
+
+    // lights held in the store by the command partition they belong to
+    private final Map<Integer, Set<String>> lightsByPartition = new ConcurrentHashMap<>();
+    private volatile int commandPartitionCount;
+
+    @Autowired
+    public PartitionOwnership(StreetlightStateStore streetlights,
+                              ObjectProvider<StateChangelog> stateChangelog,
+                              ObjectProvider<CommandCoalescer> commandCoalescer,
+                              ObjectProvider<FleetAggregates> fleetAggregates,
+                              ObjectProvider<StateReplica> stateReplica,
+                              @Value("${streetlights.command.layout:per-light}") String layout,
+                              @Value("${streetlights.command.topic}") String commandTopic,
+                              @Value("${streetlights.command.partitions:12}") int commandPartitionCount) {
+        if (!"keyed".equals(layout)) {
+            throw new IllegalStateException(
+                    "streetlights.ownership.enabled requires streetlights.command.layout=keyed, not " + layout);
+        }
+        this.stateChangelog = stateChangelog.getIfAvailable();
+        if (this.stateChangelog == null) {
+            throw new IllegalStateException(
+                    "streetlights.ownership.enabled requires streetlights.changelog.enabled=true");
+        }
+        this.streetlights = streetlights;
+        this.commandCoalescer = commandCoalescer;
+        this.fleetAggregates = fleetAggregates;
+        this.stateReplica = stateReplica;
+        this.commandTopic = commandTopic;
+        this.commandPartitionCount = commandPartitionCount;
+    }
+
+    /**
+     * The partition Kafka's default partitioner picks for a record keyed by
+     * {@code streetlightId}.
+     */
+    public static int partitionOf(String streetlightId, int numPartitions) {
+        return Utils.toPositive(Utils.murmur2(streetlightId.getBytes(StandardCharsets.UTF_8))) % numPartitions;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<Integer> assigned = commandPartitions(partitions);
+        if (assigned.isEmpty()) {
+            return;
+        }
+        commandPartitionCount = partitionCount(consumer);
+        // blocks this consumer's poll loop until its lights are back, like a state store restore
+        int restored = stateChangelog.restore(streetlights, assigned, commandPartitionCount, this);
+        log.info("Took ownership of command partition(s) {}, restored {} state record(s)", assigned, restored);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<Integer> revoked = commandPartitions(partitions);
+        if (revoked.isEmpty()) {
+            return;
+        }
+        CommandCoalescer coalescer = commandCoalescer.getIfAvailable();
+        if (coalescer != null) {
+            try {
+                coalescer.drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stateChangelog.flush();
+
+        FleetAggregates aggregates = fleetAggregates.getIfAvailable();
+        StateReplica replica = stateReplica.getIfAvailable();
+        int dropped = 0;
+        for (Integer partition : revoked) {
+            Set<String> lights = lightsByPartition.remove(partition);
+            if (lights == null) {
+                continue;
+            }
+            for (String streetlightId : lights) {
+                StateChange change = streetlights.remove(streetlightId);
+                if (change == null) {
+                    continue;
+                }
+                if (aggregates != null) {
+                    aggregates.apply(change);
+                }
+                if (replica != null) {
+                    replica.put(change.getPrevious());
+                }
+                dropped++;
+            }
+        }
+        log.info("Released command partition(s) {}, dropped {} streetlight(s)", revoked, dropped);
+    }
+
+    /**
+     * Indexes lights as they are created by a command or a restore.
+     */
+    @Override
+    public void onStateChange(String streetlightId, StateChange change) {
+        if (change.isCreated()) {
+            lightsByPartition.computeIfAbsent(partitionOf(streetlightId, commandPartitionCount),
+                    partition -> ConcurrentHashMap.newKeySet()).add(streetlightId);
+        }
+    }
+
+    private Set<Integer> commandPartitions(Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(partition -> partition.topic().equals(commandTopic))
+                .map(TopicPartition::partition)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private int partitionCount(Consumer<?, ?> consumer) {
+        return consumer.partitionsFor(commandTopic).size();
+    }
+}
@@ -0,0 +1,56 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+
+/**
+ * Outcome of an atomic {@link StreetlightStateStore#update} or
+ * {@link StreetlightStateStore#remove}: the state before and after. When the
+ * transition declined to change anything (it returned its input), both are the
+ * same instance and {@link #isApplied()} is false; the light may still have
+ * been created with its initial state. After a removal the current state is
+ * null.
+ */
+public final class StateChange {
+
+    private final StreetlightState previous;
+    private final StreetlightState current;
+    private final boolean created;
+
+    public StateChange(StreetlightState previous, StreetlightState current, boolean created) {
+        this.previous = previous;
+        this.current = current;
+        this.created = created;
+    }
+
+    /**
+     * State before the update; the initial state if the light was just created.
+     */
+    public StreetlightState getPrevious() {
+        return previous;
+    }
+
+    /**
+     * State after the update; null if the light was removed.
+     */
+    public StreetlightState getCurrent() {
+        return current;
+    }
+
+    /**
+     * Whether the light did not exist in the store before this update.
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Whether the light was dropped from the store.
+     */
+    public boolean isRemoved() {
+        return current == null;
+    }
+
+    public boolean isApplied() {
+        return previous != current;
+    }
+}
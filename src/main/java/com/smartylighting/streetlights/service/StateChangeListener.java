@@ -0,0 +1,12 @@
+package com.smartylighting.streetlights.service;
+
+/**
+ * Notified by {@link StreetlightService} after every applied state transition,
+ * on the thread that applied it. Rejected (stale) commands are not reported.
+ *
+ * Implementations are picked up as beans and must be cheap and non-blocking.
+ */
+public interface StateChangeListener {
+
+    void onStateChange(String streetlightId, StateChange change);
+}
@@ -0,0 +1,254 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Publishes every state transition to a log-compacted changelog topic keyed by
+ * streetlight ID, and rebuilds the state store from it on startup.
+ *
+ * Compaction keeps the latest state per light, so the restore reads roughly one
+ * record per light however long the command history is. It runs in
+ * {@code @PostConstruct}, i.e. before the listener containers start, with a
+ * dedicated group-less consumer that reads every partition up to the end
+ * offsets seen when the restore began. Restored states never replace a newer
+ * one already in the store, e.g. from a local snapshot. With
+ * {@code streetlights.ownership.enabled=true} the startup restore is skipped and
+ * {@link PartitionOwnership} restores each partition's lights on assignment.
+ *
+ * Values are {@code [flags][dim][switch epoch millis][dim epoch millis]}, 2 to
+ * 18 bytes, with the command times in UTC millis as on the wire and each time
+ * present only if its flag is set. Values written with a single command time
+ * ({@code HAS_TIME}) are still read, as that time for both fields.
+ *
+ * Enabled with {@code streetlights.changelog.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.changelog.enabled", havingValue = "true")
+public class StateChangelog implements StateChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(StateChangelog.class);
+
+    private static final int ON = 1;
+    private static final int HAS_TIME = 1 << 1;
+    private static final int HAS_SWITCH_TIME = 1 << 2;
+    private static final int HAS_DIM_TIME = 1 << 3;
+
+    private final KafkaTemplate<String, byte[]> changelogTemplate;
+    private final ConsumerFactory<String, byte[]> restoreConsumerFactory;
+    private final StreetlightStateStore streetlights;
+    private final ObjectProvider<FleetAggregates> fleetAggregates;
+    private final String topic;
+    private final long restoreTimeoutMs;
+
+    @Value("${streetlights.ownership.enabled:false}")
+    private boolean ownershipEnabled;
+
+    @Autowired
+    public StateChangelog(@Qualifier("stateChangelogTemplate") KafkaTemplate<String, byte[]> changelogTemplate,
+                          @Qualifier("stateRestoreConsumerFactory") ConsumerFactory<String, byte[]> restoreConsumerFactory,
+                          StreetlightStateStore streetlights,
+                          ObjectProvider<FleetAggregates> fleetAggregates,
+                          @Value("${streetlights.changelog.topic}") String topic,
+                          @Value("${streetlights.changelog.restore-timeout-ms:300000}") long restoreTimeoutMs) {
+        this.changelogTemplate = changelogTemplate;
+        this.restoreConsumerFactory = restoreConsumerFactory;
+        this.streetlights = streetlights;
+        this.fleetAggregates = fleetAggregates;
+        this.topic = topic;
+        this.restoreTimeoutMs = restoreTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (ownershipEnabled) {
+            log.info("Partition ownership enabled, state is restored per partition on assignment");
+            return;
+        }
+        restore(streetlights);
+    }
+
+    @Override
+    public void onStateChange(String streetlightId, StateChange change) {
+        changelogTemplate.send(topic, streetlightId, encode(change.getCurrent()))
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        log.error("Failed to publish state change for streetlight {} to {}: {}",
+                                streetlightId, topic, ex.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Blocks until every state change published so far has been acknowledged.
+     */
+    public void flush() {
+        changelogTemplate.flush();
+    }
+
+    /**
+     * Reads the changelog from the beginning up to its current end into
+     * {@code target} and returns the number of records applied.
+     *
+     * @throws IllegalStateException if the end is not reached within the restore timeout
+     */
+    int restore(StreetlightStateStore target) {
+        return restore(target, null, 0, null);
+    }
+
+    /**
+     * Like {@link #restore(StreetlightStateStore)}, but only for the lights whose
+     * commands land in {@code commandPartitions} of a command topic with
+     * {@code commandPartitionCount} partitions. When the changelog has the same
+     * partition count, only the matching changelog partitions are read. Each
+     * change made to {@code target} is also passed to {@code restoreListener},
+     * if not null.
+     */
+    public int restore(StreetlightStateStore target, Set<Integer> commandPartitions, int commandPartitionCount,
+                       StateChangeListener restoreListener) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(restoreTimeoutMs);
+        int restored = 0;
+        // only the live store feeds the fleet aggregates
+        FleetAggregates aggregates = target == streetlights ? fleetAggregates.getIfAvailable() : null;
+        Predicate<String> restores = commandPartitions == null
+                ? streetlightId -> true
+                : streetlightId -> commandPartitions.contains(
+                        PartitionOwnership.partitionOf(streetlightId, commandPartitionCount));
+
+        try (Consumer<String, byte[]> consumer = restoreConsumerFactory.createConsumer(null, "state-restore")) {
+            List<PartitionInfo> partitionInfos = consumer.partitionsFor(topic, Duration.ofMillis(restoreTimeoutMs));
+            if (partitionInfos == null || partitionInfos.isEmpty()) {
+                log.info("State changelog {} does not exist yet, nothing to restore", topic);
+                return 0;
+            }
+
+            // same key and partitioner, so equal partition counts mean equal partition numbers
+            boolean readOwnedOnly = commandPartitions != null && partitionInfos.size() == commandPartitionCount;
+            List<TopicPartition> partitions = partitionInfos.stream()
+                    .filter(info -> !readOwnedOnly || commandPartitions.contains(info.partition()))
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = new HashMap<>(consumer.endOffsets(partitions));
+            endOffsets.entrySet().removeIf(end -> consumer.position(end.getKey()) >= end.getValue());
+
+            while (!endOffsets.isEmpty()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(String.format(
+                            "State restore from %s did not finish within %d ms, %d partition(s) behind",
+                            topic, restoreTimeoutMs, endOffsets.size()));
+                }
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(500))) {
+                    // tombstones and unkeyed records carry no state
+                    if (record.key() != null && record.value() != null && restores.test(record.key())) {
+                        StateChange change = restoreState(target, decode(record.key(), record.value()));
+                        if (aggregates != null) {
+                            aggregates.apply(change);
+                        }
+                        if (restoreListener != null) {
+                            restoreListener.onStateChange(record.key(), change);
+                        }
+                        restored++;
+                    }
+                }
+                endOffsets.entrySet().removeIf(end -> consumer.position(end.getKey()) >= end.getValue());
+            }
+        }
+
+        log.info("Restored {} state record(s) from {}{}, {} streetlight(s) now held, in {} ms",
+                restored, topic, commandPartitions == null ? "" : " for command partitions " + commandPartitions,
+                target.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return restored;
+    }
+
+    /**
+     * Merges a restored state into {@code target} field by field: on/off and dim
+     * level each keep whichever of the current and restored values was set by
+     * the newer command.
+     */
+    private static StateChange restoreState(StreetlightStateStore target, StreetlightState restored) {
+        return target.update(restored.getStreetlightId(), current -> {
+            boolean switchIsNewer = isNewer(restored.getLastSwitchTime(), current.getLastSwitchTime());
+            boolean dimIsNewer = isNewer(restored.getLastDimTime(), current.getLastDimTime());
+            if (!switchIsNewer && !dimIsNewer) {
+                return current;
+            }
+            StreetlightState merged = current;
+            if (switchIsNewer) {
+                merged = merged.withOn(restored.isOn()).withLastSwitchTime(restored.getLastSwitchTime());
+            }
+            if (dimIsNewer) {
+                merged = merged.withDimPercentage(restored.getDimPercentage())
+                        .withLastDimTime(restored.getLastDimTime());
+            }
+            return merged;
+        });
+    }
+
+    private static boolean isNewer(LocalDateTime restoredTime, LocalDateTime currentTime) {
+        return currentTime == null || (restoredTime != null && !restoredTime.isBefore(currentTime));
+    }
+
+    static byte[] encode(StreetlightState state) {
+        LocalDateTime lastSwitchTime = state.getLastSwitchTime();
+        LocalDateTime lastDimTime = state.getLastDimTime();
+        int flags = (state.isOn() ? ON : 0)
+                | (lastSwitchTime != null ? HAS_SWITCH_TIME : 0)
+                | (lastDimTime != null ? HAS_DIM_TIME : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + (lastSwitchTime != null ? 8 : 0) + (lastDimTime != null ? 8 : 0))
+                .put((byte) flags)
+                .put((byte) state.getDimPercentage());
+        if (lastSwitchTime != null) {
+            buffer.putLong(lastSwitchTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        if (lastDimTime != null) {
+            buffer.putLong(lastDimTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        return buffer.array();
+    }
+
+    static StreetlightState decode(String streetlightId, byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        int flags = buffer.get();
+        int dimPercentage = buffer.get();
+        boolean isOn = (flags & ON) != 0;
+        if ((flags & HAS_TIME) != 0) {
+            return new StreetlightState(streetlightId, isOn, dimPercentage, readTime(buffer));
+        }
+        LocalDateTime lastSwitchTime = (flags & HAS_SWITCH_TIME) != 0 ? readTime(buffer) : null;
+        LocalDateTime lastDimTime = (flags & HAS_DIM_TIME) != 0 ? readTime(buffer) : null;
+        return new StreetlightState(streetlightId, isOn, dimPercentage, lastSwitchTime, lastDimTime);
+    }
+
+    private static LocalDateTime readTime(ByteBuffer buffer) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZoneOffset.UTC);
+    }
+}
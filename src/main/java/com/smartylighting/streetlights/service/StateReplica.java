@@ -0,0 +1,100 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.PartitionOffset;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only copy of the state of lights owned by other instances, tailed from
+ * the {@link StateChangelog} so that any instance can answer state queries for
+ * lights owned by a peer.
+ *
+ * Each instance assigns itself all {@code streetlights.changelog.partitions}
+ * changelog partitions and reads them from the beginning without a consumer
+ * group, so no offsets are committed and no group is left behind on shutdown.
+ * The copy lags the owner by the changelog's publish latency and never sees
+ * commands that are still being applied. Lights held in the local store are
+ * owned here and not copied; {@link PartitionOwnership} hands over the lights
+ * of revoked partitions. At most {@code streetlights.ownership.replica-max-lights}
+ * lights are kept, evicting the least recently read or updated; an evicted light
+ * is not found again until its next changelog record.
+ *
+ * Enabled together with {@code streetlights.ownership.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.ownership.enabled", havingValue = "true")
+public class StateReplica {
+
+    private final StreetlightStateStore streetlights;
+    private final Map<String, StreetlightState> replica;
+
+    @Autowired
+    public StateReplica(StreetlightStateStore streetlights,
+                        @Value("${streetlights.ownership.replica-max-lights:100000}") int maxLights) {
+        this.streetlights = streetlights;
+        // access order, so the eldest entry is the least recently used one
+        this.replica = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StreetlightState> eldest) {
+                return size() > maxLights;
+            }
+        });
+    }
+
+    @KafkaListener(
+            topicPartitions = @TopicPartition(
+                    topic = "${streetlights.changelog.topic}",
+                    partitions = "#{'0-' + (${streetlights.changelog.partitions:12} - 1)}",
+                    partitionOffsets = @PartitionOffset(partition = "*", initialOffset = "0")),
+            containerFactory = "stateReplicaContainerFactory"
+    )
+    public void onChangelogRecord(ConsumerRecord<String, byte[]> record) {
+        // tombstones and unkeyed records carry no state
+        if (record.key() == null || record.value() == null) {
+            return;
+        }
+        if (streetlights.get(record.key()) != null) {
+            // owned here, possibly since a rebalance after it was copied
+            replica.remove(record.key());
+            return;
+        }
+        put(StateChangelog.decode(record.key(), record.value()));
+    }
+
+    /**
+     * Keeps a light dropped from the local store, so it stays queryable until
+     * its new owner publishes a change. A state older than the one already
+     * held, e.g. a changelog record read after the hand-over, is ignored.
+     */
+    public void put(StreetlightState state) {
+        replica.merge(state.getStreetlightId(), state, StateReplica::newer);
+    }
+
+    private static StreetlightState newer(StreetlightState held, StreetlightState incoming) {
+        LocalDateTime heldTime = held.getLastCommandTime();
+        LocalDateTime incomingTime = incoming.getLastCommandTime();
+        return heldTime != null && (incomingTime == null || incomingTime.isBefore(heldTime)) ? held : incoming;
+    }
+
+    /**
+     * Returns the last published state of a light, or null if none has been seen.
+     */
+    public StreetlightState get(String streetlightId) {
+        return replica.get(streetlightId);
+    }
+
+    public int size() {
+        return replica.size();
+    }
+}
@@ -0,0 +1,231 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the state store together with the consumer offsets it
+ * reflects.
+ *
+ * Layout: magic, version, creation time, the offsets as
+ * {@code (topic, partition, next offset)} triples, then one record per light
+ * ({@code id, flags, dim[, switch epoch millis][, dim epoch millis]}) up to a
+ * {@code -1} terminator, and a CRC32 of everything before it. Command times are
+ * kept as UTC epoch millis, the precision the wire formats carry. A light takes
+ * 12-28 bytes. Version 1 files, with a single command time per light, are still
+ * read.
+ *
+ * Files are written through a {@link FileChannel} to a temporary file that is
+ * forced to disk and then atomically moved over the previous snapshot, and
+ * read back through a read-only memory mapping, so files up to 2 GB are
+ * supported.
+ */
+public final class StateSnapshotFile {
+
+    private static final int MAGIC = 0x534C5353; // "SLSS"
+    private static final byte VERSION = 2;
+    private static final byte VERSION_SINGLE_TIME = 1;
+
+    private static final int ON = 1;
+    private static final int HAS_TIME = 1 << 1;
+    private static final int HAS_SWITCH_TIME = 1 << 2;
+    private static final int HAS_DIM_TIME = 1 << 3;
+    private static final short END_OF_STATES = -1;
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private StateSnapshotFile() {
+    }
+
+    /**
+     * Writes a snapshot and returns the number of lights written.
+     */
+    public static int write(Path file, Map<TopicPartition, Long> offsets,
+                            Iterable<StreetlightState> states) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter out = new ChannelWriter(channel);
+
+            out.reserve(13).putInt(MAGIC).put(VERSION).putLong(System.currentTimeMillis());
+            out.reserve(4).putInt(offsets.size());
+            for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+                putString(out, offset.getKey().topic());
+                out.reserve(12).putInt(offset.getKey().partition()).putLong(offset.getValue());
+            }
+
+            for (StreetlightState state : states) {
+                putString(out, state.getStreetlightId());
+                LocalDateTime lastSwitchTime = state.getLastSwitchTime();
+                LocalDateTime lastDimTime = state.getLastDimTime();
+                int flags = (state.isOn() ? ON : 0)
+                        | (lastSwitchTime != null ? HAS_SWITCH_TIME : 0)
+                        | (lastDimTime != null ? HAS_DIM_TIME : 0);
+                ByteBuffer buffer = out.reserve(18).put((byte) flags).put((byte) state.getDimPercentage());
+                if (lastSwitchTime != null) {
+                    buffer.putLong(lastSwitchTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+                }
+                if (lastDimTime != null) {
+                    buffer.putLong(lastDimTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+                }
+                count++;
+            }
+            out.reserve(2).putShort(END_OF_STATES);
+
+            out.finish();
+            channel.force(true);
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Reads a snapshot, handing every light to {@code visitor}, and returns the
+     * saved offsets. The checksum is verified before any light is visited.
+     *
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static Map<TopicPartition, Long> read(Path file, Consumer<StreetlightState> visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected snapshot size " + size + " for " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int body = (int) size - 4;
+            CRC32 crc = new CRC32();
+            crc.update(mapped.duplicate().limit(body));
+            if ((int) crc.getValue() != mapped.getInt(body)) {
+                throw new IOException("Checksum mismatch in snapshot " + file);
+            }
+
+            ByteBuffer in = mapped.duplicate().limit(body);
+            try {
+                if (in.getInt() != MAGIC) {
+                    throw new IOException("Not a streetlight state snapshot: " + file);
+                }
+                byte version = in.get();
+                if (version != VERSION && version != VERSION_SINGLE_TIME) {
+                    throw new IOException("Not a streetlight state snapshot: " + file);
+                }
+                in.getLong(); // creation time
+
+                int offsetCount = in.getInt();
+                Map<TopicPartition, Long> offsets = new HashMap<>();
+                for (int i = 0; i < offsetCount; i++) {
+                    String topic = getString(in, in.getShort());
+                    offsets.put(new TopicPartition(topic, in.getInt()), in.getLong());
+                }
+
+                short idLength;
+                while ((idLength = in.getShort()) != END_OF_STATES) {
+                    String streetlightId = getString(in, idLength);
+                    int flags = in.get();
+                    int dimPercentage = in.get();
+                    boolean isOn = (flags & ON) != 0;
+                    if ((flags & HAS_TIME) != 0) {
+                        visitor.accept(new StreetlightState(streetlightId, isOn, dimPercentage, getTime(in)));
+                        continue;
+                    }
+                    LocalDateTime lastSwitchTime = (flags & HAS_SWITCH_TIME) != 0 ? getTime(in) : null;
+                    LocalDateTime lastDimTime = (flags & HAS_DIM_TIME) != 0 ? getTime(in) : null;
+                    visitor.accept(new StreetlightState(streetlightId, isOn, dimPercentage,
+                            lastSwitchTime, lastDimTime));
+                }
+                return offsets;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Truncated or malformed snapshot " + file, e);
+            }
+        }
+    }
+
+    private static LocalDateTime getTime(ByteBuffer in) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(in.getLong()), ZoneOffset.UTC);
+    }
+
+    private static void putString(ChannelWriter out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Name too long for snapshot: " + value.substring(0, 64) + "...");
+        }
+        out.reserve(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer in, short length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers writes into one direct buffer, checksumming each chunk on its way
+     * to the channel.
+     */
+    private static final class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32 crc = new CRC32();
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the buffer with room for at least {@code bytes} more bytes.
+         */
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+            return buffer;
+        }
+
+        void finish() throws IOException {
+            drain();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            writeFully();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            writeFully();
+        }
+
+        private void writeFully() throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.smartylighting.streetlights.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes the state store and the consumer offsets it reflects to
+ * a local {@link StateSnapshotFile}, and restores both on startup.
+ *
+ * The snapshot is loaded into the store before the listener containers start.
+ * The first time each partition is assigned afterwards, the consumer is seeked
+ * to the saved offset, so only commands newer than the snapshot are replayed;
+ * partitions missing from the snapshot are read from the beginning. Without a
+ * snapshot file no partition is seeked and consumption resumes from the
+ * committed offsets.
+ *
+ * Offsets are captured before the state is copied: a record applied while the
+ * copy runs may or may not be in it, so it has to be replayed. Such a replay
+ * carries the {@code sentAt} already stored for its field, to the millisecond
+ * the snapshot keeps, which {@link StreetlightService} rejects as a duplicate
+ * without publishing.
+ *
+ * Enabled with {@code streetlights.snapshot.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "streetlights.snapshot.enabled", havingValue = "true")
+public class StateSnapshotter implements ConsumerAwareRebalanceListener {
+
+    private static final Logger log = LoggerFactory.getLogger(StateSnapshotter.class);
+
+    private final StreetlightStateStore streetlights;
+    private final ObjectProvider<CommandCoalescer> commandCoalescer;
+    private final ObjectProvider<FleetAggregates> fleetAggregates;
+    private final Path file;
+    private final long intervalMs;
+
+    // next offset to read per partition, covering every record applied to the store
+    private final Map<TopicPartition, Long> processedOffsets = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, Long> restoredOffsets = new ConcurrentHashMap<>();
+    private final Set<TopicPartition> positioned = ConcurrentHashMap.newKeySet();
+    private volatile boolean snapshotFound;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public StateSnapshotter(StreetlightStateStore streetlights,
+                            ObjectProvider<CommandCoalescer> commandCoalescer,
+                            ObjectProvider<FleetAggregates> fleetAggregates,
+                            @Value("${streetlights.snapshot.path:data/streetlights.snapshot}") String path,
+                            @Value("${streetlights.snapshot.interval-ms:60000}") long intervalMs) {
+        this.streetlights = streetlights;
+        this.commandCoalescer = commandCoalescer;
+        this.fleetAggregates = fleetAggregates;
+        this.file = Paths.get(path);
+        this.intervalMs = intervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        restore();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // listener containers are already stopped, so this captures everything consumed
+        snapshotSafely();
+    }
+
+    /**
+     * Loads the snapshot, if any, into the state store.
+     */
+    void restore() {
+        if (!Files.exists(file)) {
+            log.info("No state snapshot at {}, command topics resume from their committed offsets", file);
+            return;
+        }
+        snapshotFound = true;
+        long start = System.nanoTime();
+        int[] lights = {0};
+        FleetAggregates aggregates = fleetAggregates.getIfAvailable();
+        try {
+            Map<TopicPartition, Long> offsets = StateSnapshotFile.read(file, state -> {
+                StateChange change = streetlights.update(state.getStreetlightId(), current -> state);
+                if (aggregates != null) {
+                    aggregates.apply(change);
+                }
+                lights[0]++;
+            });
+            restoredOffsets.putAll(offsets);
+            // partitions not consumed again before the next snapshot keep their position
+            processedOffsets.putAll(offsets);
+            log.info("Restored {} streetlight(s) and {} partition offset(s) from {} in {} ms",
+                    lights[0], offsets.size(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable state snapshot {} after loading {} streetlight(s), "
+                    + "command topics will be replayed from the beginning: {}", file, lights[0], e.getMessage());
+        }
+    }
+
+    /**
+     * Records that a consumed record has been applied to the state store.
+     */
+    public void markProcessed(ConsumerRecord<?, ?> record) {
+        processedOffsets.merge(new TopicPartition(record.topic(), record.partition()),
+                record.offset() + 1, Math::max);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!snapshotFound) {
+            return;
+        }
+        List<TopicPartition> fromBeginning = new ArrayList<>();
+        int seeked = 0;
+        for (TopicPartition partition : partitions) {
+            if (!positioned.add(partition)) {
+                continue;
+            }
+            Long offset = restoredOffsets.get(partition);
+            if (offset != null) {
+                consumer.seek(partition, offset);
+                seeked++;
+            } else {
+                fromBeginning.add(partition);
+            }
+        }
+        if (!fromBeginning.isEmpty()) {
+            consumer.seekToBeginning(fromBeginning);
+        }
+        if (seeked > 0 || !fromBeginning.isEmpty()) {
+            log.info("Positioned {} partition(s) at their snapshot offset and {} at the beginning",
+                    seeked, fromBeginning.size());
+        }
+    }
+
+    /**
+     * Writes a snapshot now and returns the number of lights in it.
+     */
+    public synchronized int snapshot() throws IOException, InterruptedException {
+        Map<TopicPartition, Long> offsets = new HashMap<>(processedOffsets);
+        CommandCoalescer coalescer = commandCoalescer.getIfAvailable();
+        if (coalescer != null) {
+            // commands counted in the offsets may still be waiting in the coalescing window
+            coalescer.drain();
+        }
+
+        long start = System.nanoTime();
+        int lights = StateSnapshotFile.write(file, offsets, streetlights.getAll().values());
+        log.info("Wrote state snapshot of {} streetlight(s) and {} partition offset(s) to {} in {} ms",
+                lights, offsets.size(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return lights;
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("State snapshot to {} failed: {}", file, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.smartylighting.streetlights.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named groups of streetlights (streets, districts, circuits, ...), held as an
+ * inverted index from group name to a bitmap of member slots.
+ *
+ * Member IDs are interned to dense ints by a {@link StreetlightIdIndex}, so a
+ * group costs one bit per interned light rather than a set entry per member,
+ * and unions and intersections are word-wise {@link BitSet} operations. Bitmaps
+ * are copied on write and never modified once published, so reads and set
+ * operations take no locks; membership changes are serialised per group.
+ *
+ * Groups are held in memory only and are not part of snapshots or the changelog.
+ */
+@Service
+public class StreetlightGroupRegistry {
+
+    private final StreetlightService streetlightService;
+    private final StreetlightIdIndex idIndex = new StreetlightIdIndex();
+    private final Map<String, BitSet> groups = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StreetlightGroupRegistry(StreetlightService streetlightService) {
+        this.streetlightService = streetlightService;
+    }
+
+    /**
+     * Adds lights to a group, creating it if needed, and returns its new size.
+     */
+    public int addMembers(String group, Collection<String> streetlightIds) {
+        BitSet added = new BitSet();
+        for (String streetlightId : streetlightIds) {
+            added.set(idIndex.intern(streetlightId));
+        }
+        return groups.compute(group, (name, members) -> {
+            BitSet updated = members == null ? new BitSet() : (BitSet) members.clone();
+            updated.or(added);
+            return updated;
+        }).cardinality();
+    }
+
+    /**
+     * Removes lights from a group and returns its new size. A group left empty
+     * is deleted.
+     */
+    public int removeMembers(String group, Collection<String> streetlightIds) {
+        BitSet removed = new BitSet();
+        for (String streetlightId : streetlightIds) {
+            int slot = idIndex.slotOf(streetlightId);
+            if (slot >= 0) {
+                removed.set(slot);
+            }
+        }
+        BitSet members = groups.computeIfPresent(group, (name, current) -> {
+            BitSet updated = (BitSet) current.clone();
+            updated.andNot(removed);
+            return updated.isEmpty() ? null : updated;
+        });
+        return members == null ? 0 : members.cardinality();
+    }
+
+    public boolean deleteGroup(String group) {
+        return groups.remove(group) != null;
+    }
+
+    /**
+     * Group names with their member counts, sorted by name.
+     */
+    public Map<String, Integer> getGroupSizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        groups.forEach((name, members) -> sizes.put(name, members.cardinality()));
+        return sizes;
+    }
+
+    public boolean exists(String group) {
+        return groups.containsKey(group);
+    }
+
+    /**
+     * Names of the groups a light belongs to. Tests each group's bitmap, so
+     * the cost grows with the number of groups rather than their sizes.
+     */
+    public List<String> groupsOf(String streetlightId) {
+        int slot = idIndex.slotOf(streetlightId);
+        if (slot < 0) {
+            return List.of();
+        }
+        List<String> memberOf = new ArrayList<>();
+        groups.forEach((name, members) -> {
+            if (members.get(slot)) {
+                memberOf.add(name);
+            }
+        });
+        return memberOf;
+    }
+
+    /**
+     * The lights in at least one of {@code anyOf} and in every one of
+     * {@code allOf}; either may be empty or null, but not both. Unknown group
+     * names count as empty groups.
+     */
+    public List<String> members(Collection<String> anyOf, Collection<String> allOf) {
+        BitSet selected = select(anyOf, allOf);
+        List<String> members = new ArrayList<>(selected.cardinality());
+        for (int slot = selected.nextSetBit(0); slot >= 0; slot = selected.nextSetBit(slot + 1)) {
+            members.add(idIndex.idOf(slot));
+        }
+        return members;
+    }
+
+    /**
+     * Aggregates the current state of the lights selected as in
+     * {@link #members}, in one pass over the members.
+     */
+    public GroupAggregate aggregate(Collection<String> anyOf, Collection<String> allOf) {
+        BitSet selected = select(anyOf, allOf);
+        int known = 0;
+        int on = 0;
+        long dimSum = 0;
+        long totalLumens = 0;
+        for (int slot = selected.nextSetBit(0); slot >= 0; slot = selected.nextSetBit(slot + 1)) {
+            StreetlightService.StreetlightState state = streetlightService.getState(idIndex.idOf(slot));
+            if (state == null) {
+                continue;
+            }
+            known++;
+            if (state.isOn()) {
+                on++;
+            }
+            dimSum += state.getDimPercentage();
+            totalLumens += StreetlightService.calculateLumens(state);
+        }
+        double averageDim = known == 0 ? 0 : (double) dimSum / known;
+        return new GroupAggregate(selected.cardinality(), known, on, averageDim, totalLumens);
+    }
+
+    private BitSet select(Collection<String> anyOf, Collection<String> allOf) {
+        boolean hasAny = anyOf != null && !anyOf.isEmpty();
+        boolean hasAll = allOf != null && !allOf.isEmpty();
+        if (!hasAny && !hasAll) {
+            throw new IllegalArgumentException("At least one group is required");
+        }
+
+        BitSet selected = new BitSet();
+        if (hasAny) {
+            for (String group : anyOf) {
+                BitSet members = groups.get(group);
+                if (members != null) {
+                    selected.or(members);
+                }
+            }
+        } else {
+            BitSet first = groups.get(allOf.iterator().next());
+            if (first != null) {
+                selected.or(first);
+            }
+        }
+        if (hasAll) {
+            for (String group : allOf) {
+                BitSet members = groups.get(group);
+                if (members == null) {
+                    return new BitSet();
+                }
+                selected.and(members);
+            }
+        }
+        return selected;
+    }
+}
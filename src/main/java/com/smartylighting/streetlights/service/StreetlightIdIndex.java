@@ -0,0 +1,137 @@
+package com.smartylighting.streetlights.service;
+
+import java.util.Arrays;
+
+/**
+ * Interns streetlight IDs to dense int slots (0, 1, 2, ...) that never change
+ * once assigned, so per-light data can live in primitive arrays.
+ *
+ * Backed by an open-addressing table of slot numbers plus a slot-to-ID array,
+ * with no per-entry objects besides the ID strings themselves. Lookups of
+ * known IDs are lock-free; inserts and resizes take the index lock, and a
+ * lookup that misses or races with an insert re-checks under the lock.
+ */
+public class StreetlightIdIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Returns the slot of an ID, or -1 if it has not been interned.
+     */
+    public int slotOf(String streetlightId) {
+        int slot = table.find(streetlightId);
+        if (slot >= 0) {
+            return slot;
+        }
+        synchronized (this) {
+            return table.find(streetlightId);
+        }
+    }
+
+    /**
+     * Returns the slot of an ID, assigning the next free slot on first sight.
+     */
+    public int intern(String streetlightId) {
+        int slot = table.find(streetlightId);
+        if (slot >= 0) {
+            return slot;
+        }
+        synchronized (this) {
+            Table current = table;
+            slot = current.find(streetlightId);
+            if (slot >= 0) {
+                return slot;
+            }
+            slot = size;
+            if (slot >= current.ids.length) {
+                current = current.resize();
+                table = current;
+            }
+            current.ids[slot] = streetlightId;
+            current.insert(streetlightId, slot);
+            size++;
+            return slot;
+        }
+    }
+
+    /**
+     * Returns the ID interned at a slot, or null if the slot is unused.
+     */
+    public String idOf(int slot) {
+        Table current = table;
+        String id = slot < current.ids.length ? current.ids[slot] : null;
+        if (id == null && slot >= 0) {
+            synchronized (this) {
+                current = table;
+                id = slot < current.ids.length ? current.ids[slot] : null;
+            }
+        }
+        return id;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static final class Table {
+        // slot + 1 per bucket, 0 marks an empty bucket; twice as many buckets as IDs keeps probes short
+        private final int[] slots;
+        private final String[] ids;
+        private final int mask;
+
+        Table(int capacity) {
+            this.slots = new int[capacity * 2];
+            this.ids = new String[capacity];
+            this.mask = slots.length - 1;
+        }
+
+        private Table(int[] slots, String[] ids) {
+            this.slots = slots;
+            this.ids = ids;
+            this.mask = slots.length - 1;
+        }
+
+        int find(String id) {
+            int bucket = spread(id.hashCode()) & mask;
+            while (true) {
+                int entry = slots[bucket];
+                if (entry == 0) {
+                    return -1;
+                }
+                String candidate = ids[entry - 1];
+                if (candidate == null) {
+                    // insert not visible to this thread yet; caller re-checks under the lock
+                    return -1;
+                }
+                if (candidate.equals(id)) {
+                    return entry - 1;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+        }
+
+        void insert(String id, int slot) {
+            int bucket = spread(id.hashCode()) & mask;
+            while (slots[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            slots[bucket] = slot + 1;
+        }
+
+        Table resize() {
+            String[] grownIds = Arrays.copyOf(ids, ids.length * 2);
+            Table grown = new Table(new int[slots.length * 2], grownIds);
+            for (int slot = 0; slot < ids.length && ids[slot] != null; slot++) {
+                grown.insert(ids[slot], slot);
+            }
+            return grown;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
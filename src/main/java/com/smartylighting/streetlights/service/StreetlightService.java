@@ -1,85 +1,161 @@
 package com.smartylighting.streetlights.service;
 
+import com.smartylighting.streetlights.model.command.CommandType;
 import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.LightCommand;
 import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
 import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
 import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 @Service
-public class StreetlightService {
+public class StreetlightService implements MeterBinder {
 
     private static final Logger log = LoggerFactory.getLogger(StreetlightService.class);
     private final LightMeasurementProducer lightMeasurementProducer;
 
-    // in-memory storage of streetlight states
-    // in prod, this would be a DB
-    private final Map<String, StreetlightState> streetlights = new ConcurrentHashMap<>();
-    private final Random random = new Random();
+    // storage of streetlight states, see streetlights.state.store
+    private final StreetlightStateStore streetlights;
+    private final List<StateChangeListener> stateChangeListeners;
+    // copy of lights owned by other instances, see streetlights.ownership.enabled
+    private final StateReplica stateReplica;
+    private final LongAdder staleCommands = new LongAdder();
 
     @Autowired
-    public StreetlightService(LightMeasurementProducer lightMeasurementProducer) {
+    public StreetlightService(LightMeasurementProducer lightMeasurementProducer,
+                              StreetlightStateStore streetlights,
+                              ObjectProvider<StateChangeListener> stateChangeListeners,
+                              ObjectProvider<StateReplica> stateReplica) {
         this.lightMeasurementProducer = lightMeasurementProducer;
+        this.streetlights = streetlights;
+        this.stateChangeListeners = stateChangeListeners.orderedStream().toList();
+        this.stateReplica = stateReplica.getIfAvailable();
     }
 
-    public void turnOn(String streetlightId, TurnOnOffCommand command) {
-        log.info("Processing TURN ON command for streetlight: {}", streetlightId);
-
-        StreetlightState state = getOrCreateState(streetlightId);
-        boolean isNewState = state.getLastCommandTime() == null;
-
-        state.setOn(true);
-        state.setLastCommandTime(command.getSentAt());
+    public StreetlightService(LightMeasurementProducer lightMeasurementProducer,
+                              StreetlightStateStore streetlights) {
+        this.lightMeasurementProducer = lightMeasurementProducer;
+        this.streetlights = streetlights;
+        this.stateChangeListeners = List.of();
+        this.stateReplica = null;
+    }
 
-        streetlights.put(streetlightId, state);
+    public void turnOn(String streetlightId, TurnOnOffCommand command) {
+        StateChange change = applySwitch(streetlightId, command.getSentAt(), true);
+        if (!change.isApplied()) {
+            return;
+        }
 
-        log.info("Streetlight {} is now ON", streetlightId);
+        log.debug("Streetlight {} is now ON", streetlightId);
 
-        if (isNewState) {
-            log.warn("Skipping light measurement publish for newly created state: {}", streetlightId);
+        if (change.getPrevious().getLastCommandTime() == null) {
+            log.debug("Skipping light measurement publish for newly created state: {}", streetlightId);
             return;
         }
 
         // Publish light measurement event after turning on
-        publishLightMeasurement(streetlightId, state);
+        publishLightMeasurement(streetlightId, change.getCurrent());
     }
 
     public void turnOff(String streetlightId, TurnOnOffCommand command) {
-        log.info("Processing TURN OFF command for streetlight: {}", streetlightId);
-
-        StreetlightState state = getOrCreateState(streetlightId);
-        state.setOn(false);
-        state.setLastCommandTime(command.getSentAt());
-
-        streetlights.put(streetlightId, state);
+        StateChange change = applySwitch(streetlightId, command.getSentAt(), false);
+        if (!change.isApplied()) {
+            return;
+        }
 
-        log.info("Streetlight {} is now OFF", streetlightId);
+        log.debug("Streetlight {} is now OFF", streetlightId);
 
         // publish light measurement event showing light is off
-        publishLightMeasurement(streetlightId, state);
+        publishLightMeasurement(streetlightId, change.getCurrent());
     }
 
     public void dim(String streetlightId, DimLightCommand command) {
-        log.info("Processing DIM command for streetlight {} to {}%", streetlightId, command.getPercentage());
+        int percentage = command.getPercentage();
+        LocalDateTime sentAt = command.getSentAt();
+        StateChange change = applyCommand(streetlightId, sentAt, state -> isStale(state.getLastDimTime(), sentAt)
+                ? state
+                : state.withDimPercentage(percentage).withLastDimTime(sentAt));
+        if (!change.isApplied()) {
+            return;
+        }
 
-        StreetlightState state = getOrCreateState(streetlightId);
-        state.setDimPercentage(command.getPercentage());
-        state.setLastCommandTime(command.getSentAt());
+        log.debug("Streetlight {} dimmed to {}%", streetlightId, percentage);
+
+        // publish new measurement with dimmed value
+        publishLightMeasurement(streetlightId, change.getCurrent());
+    }
 
-        streetlights.put(streetlightId, state);
+    /**
+     * Routes a command to {@link #turnOn}, {@link #turnOff} or {@link #dim} by its type.
+     */
+    public void apply(String streetlightId, CommandType type, LightCommand command) {
+        switch (type) {
+            case TURN_ON -> turnOn(streetlightId, (TurnOnOffCommand) command);
+            case TURN_OFF -> turnOff(streetlightId, (TurnOnOffCommand) command);
+            case DIM -> dim(streetlightId, (DimLightCommand) command);
+        }
+    }
 
-        log.info("Streetlight {} dimmed to {}%", streetlightId, command.getPercentage());
+    /**
+     * Applies a coalesced final state in one mutation with one measurement publish.
+     * Null {@code on} or {@code dimPercentage} leaves that field unchanged; each
+     * field is only set if its command is newer than the one that last set it.
+     */
+    public void applyFinalState(String streetlightId, Boolean on, LocalDateTime switchSentAt,
+                                Integer dimPercentage, LocalDateTime dimSentAt) {
+        if (log.isDebugEnabled()) {
+            log.debug("Processing coalesced state for streetlight {}: on={}, dim={}%", streetlightId, on, dimPercentage);
+        }
 
-        // publish new measurement with dimmed value
-        publishLightMeasurement(streetlightId, state);
+        StateChange change = applyCommand(streetlightId, switchSentAt != null ? switchSentAt : dimSentAt, state -> {
+            StreetlightState next = state;
+            if (on != null && !isStale(state.getLastSwitchTime(), switchSentAt)) {
+                next = next.withOn(on).withLastSwitchTime(switchSentAt);
+            }
+            if (dimPercentage != null && !isStale(state.getLastDimTime(), dimSentAt)) {
+                next = next.withDimPercentage(dimPercentage).withLastDimTime(dimSentAt);
+            }
+            return next;
+        });
+        if (!change.isApplied()) {
+            return;
+        }
+
+        // same rule as turnOn: a light only switched on for the first time is not measured yet;
+        // with a dim folded in it is measured, as the unfolded dim would have been
+        if (change.getPrevious().getLastCommandTime() == null && Boolean.TRUE.equals(on) && dimPercentage == null) {
+            log.debug("Skipping light measurement publish for newly created state: {}", streetlightId);
+            return;
+        }
+
+        publishLightMeasurement(streetlightId, change.getCurrent());
+    }
+
+    /**
+     * Applies the final state of {@code commands}, see
+     * {@link #applyFinalState(String, Boolean, LocalDateTime, Integer, LocalDateTime)}.
+     */
+    public void applyFinalState(String streetlightId, FoldedCommands commands) {
+        applyFinalState(streetlightId, commands.getOn(), commands.getSwitchSentAt(),
+                commands.getDimPercentage(), commands.getDimSentAt());
     }
 
     public void measureLight(String streetlightId) {
@@ -88,21 +164,75 @@ public class StreetlightService {
         publishLightMeasurement(streetlightId, state);
     }
 
-    private void publishLightMeasurement(String streetlightId, StreetlightState state) {
-        int lumens = calculateLumens(state);
+    private StateChange applySwitch(String streetlightId, LocalDateTime sentAt, boolean on) {
+        return applyCommand(streetlightId, sentAt, state -> isStale(state.getLastSwitchTime(), sentAt)
+                ? state
+                : state.withOn(on).withLastSwitchTime(sentAt));
+    }
 
-        LightMeasuredEvent event = new LightMeasuredEvent(
-                lumens,
-                LocalDateTime.now(),
-                random.nextInt(101) // Random header value 0-100 as per AsyncAPI spec
-        );
+    /**
+     * Atomically applies {@code transition}, which returns its input when the
+     * command is stale for the field it sets. A turn-on or turn-off sent no later
+     * than the light was last switched, or a dim sent no later than it was last
+     * dimmed, is rejected, so out-of-order delivery cannot roll a field back and a
+     * redelivered command is not applied or measured twice; commands for
+     * the other field do not count, as the per-light topics are not ordered
+     * relative to each other. Times are compared in whole milliseconds, the
+     * precision the wire formats, the snapshot, the changelog and the packed
+     * store keep, so a command replayed against any of them is still seen as
+     * a duplicate.
+     */
+    private StateChange applyCommand(String streetlightId, LocalDateTime sentAt,
+                                     UnaryOperator<StreetlightState> transition) {
+        StateChange change = streetlights.update(streetlightId, transition);
+
+        if (!change.isApplied()) {
+            staleCommands.increment();
+            // replays after a restart reject many in a row; ProcessingSummaryLogger reports the count
+            if (log.isDebugEnabled()) {
+                log.debug("Rejected stale command for streetlight {}: sent at {}, state {}",
+                        streetlightId, sentAt, change.getCurrent());
+            }
+            return change;
+        }
 
-        log.debug("Publishing light measurement: {} lumens for streetlight {}", lumens, streetlightId);
+        for (StateChangeListener listener : stateChangeListeners) {
+            try {
+                listener.onStateChange(streetlightId, change);
+            } catch (Exception e) {
+                log.error("State change listener {} failed for streetlight {}: {}",
+                        listener.getClass().getSimpleName(), streetlightId, e.getMessage(), e);
+            }
+        }
+        return change;
+    }
+
+    private static boolean isStale(LocalDateTime lastSetAt, LocalDateTime sentAt) {
+        // an equal time is the same command delivered again
+        return sentAt != null && lastSetAt != null && epochMilli(sentAt) <= epochMilli(lastSetAt);
+    }
+
+    private static long epochMilli(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+    }
+
+    private void publishLightMeasurement(String streetlightId, StreetlightState state) {
+        LightMeasuredEvent event = measure(state);
+
+        log.debug("Publishing light measurement: {} lumens for streetlight {}", event.getLumens(), streetlightId);
 
         lightMeasurementProducer.publishLightMeasurement(streetlightId, event);
     }
 
-    private int calculateLumens(StreetlightState state) {
+    static LightMeasuredEvent measure(StreetlightState state) {
+        return new LightMeasuredEvent(
+                calculateLumens(state),
+                LocalDateTime.now(ZoneOffset.UTC),
+                ThreadLocalRandom.current().nextInt(101) // Random header value 0-100 as per AsyncAPI spec
+        );
+    }
+
+    static int calculateLumens(StreetlightState state) {
         if (!state.isOn()) {
             return 0;
         }
@@ -115,60 +245,158 @@ public class StreetlightService {
     }
 
     private StreetlightState getOrCreateState(String streetlightId) {
-        return streetlights.computeIfAbsent(streetlightId, id -> {
-            log.info("Creating new streetlight state for ID: {}", id);
-            StreetlightState state = new StreetlightState();
-            state.setStreetlightId(id);
-            state.setOn(false);
-            state.setDimPercentage(100); // default full brightness
-            return state;
-        });
+        return streetlights.getOrCreate(streetlightId);
     }
 
+    /**
+     * Returns the light's state from the local store or, for a light owned by
+     * another instance, from the replicated read cache.
+     */
     public StreetlightState getState(String streetlightId) {
-        return streetlights.get(streetlightId);
+        StreetlightState state = streetlights.get(streetlightId);
+        if (state == null && stateReplica != null) {
+            state = stateReplica.get(streetlightId);
+        }
+        return state;
     }
 
+    /**
+     * Read-only, weakly consistent view of all states; nothing is copied.
+     */
     public Map<String, StreetlightState> getAllStates() {
-        return new ConcurrentHashMap<>(streetlights);
+        return streetlights.getAll();
+    }
+
+    /**
+     * Visits up to {@code limit} states matching {@code filter}, resuming after {@code cursor}.
+     *
+     * @return the cursor for the next page, or null when there are no more states
+     */
+    public String scanStates(String cursor, int limit, Predicate<StreetlightState> filter,
+                             Consumer<StreetlightState> visitor) {
+        return streetlights.scan(cursor, limit, filter, visitor);
     }
 
-    public static class StreetlightState {
-        private String streetlightId;
-        private boolean isOn = false;
-        private int dimPercentage = 100;
-        private LocalDateTime lastCommandTime;
+    public boolean isValidCursor(String cursor) {
+        return streetlights.isValidCursor(cursor);
+    }
 
-        public String getStreetlightId() {
-            return streetlightId;
-        }
+    /**
+     * Commands rejected because they were sent before the last applied command for the same field.
+     */
+    public long getStaleCommandCount() {
+        return staleCommands.sum();
+    }
 
-        public void setStreetlightId(String streetlightId) {
+    /**
+     * Publishes the local state store size as {@code streetlights.state.lights}
+     * and stale commands as {@code streetlights.commands.stale}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("streetlights.state.lights", streetlights, StreetlightStateStore::size)
+                .description("Streetlights in the local state store")
+                .register(registry);
+        FunctionCounter.builder("streetlights.commands.stale", staleCommands, LongAdder::sum)
+                .description("Commands rejected because a later command was already applied")
+                .register(registry);
+    }
+
+    /**
+     * Immutable snapshot of one streetlight. Transitions return a new instance.
+     *
+     * On/off and dim are set by commands on different topics, which are not
+     * ordered relative to each other, so each field keeps the {@code sentAt}
+     * of the command that last set it and staleness is judged per field.
+     */
+    public static final class StreetlightState {
+        private final String streetlightId;
+        private final boolean isOn;
+        private final int dimPercentage;
+        private final LocalDateTime lastSwitchTime;
+        private final LocalDateTime lastDimTime;
+
+        public StreetlightState(String streetlightId, boolean isOn, int dimPercentage,
+                                LocalDateTime lastSwitchTime, LocalDateTime lastDimTime) {
             this.streetlightId = streetlightId;
+            this.isOn = isOn;
+            this.dimPercentage = dimPercentage;
+            this.lastSwitchTime = lastSwitchTime;
+            this.lastDimTime = lastDimTime;
         }
 
-        public boolean isOn() {
-            return isOn;
+        /**
+         * State whose on/off and dim fields were both last set at {@code lastCommandTime}.
+         */
+        public StreetlightState(String streetlightId, boolean isOn, int dimPercentage,
+                                LocalDateTime lastCommandTime) {
+            this(streetlightId, isOn, dimPercentage, lastCommandTime, lastCommandTime);
         }
 
-        public void setOn(boolean on) {
-            isOn = on;
+        /**
+         * State of a streetlight that has not received any command yet.
+         */
+        public static StreetlightState initial(String streetlightId) {
+            return new StreetlightState(streetlightId, false, 100, null, null); // default full brightness
+        }
+
+        public StreetlightState withOn(boolean on) {
+            return new StreetlightState(streetlightId, on, dimPercentage, lastSwitchTime, lastDimTime);
+        }
+
+        public StreetlightState withDimPercentage(int dimPercentage) {
+            return new StreetlightState(streetlightId, isOn, dimPercentage, lastSwitchTime, lastDimTime);
+        }
+
+        public StreetlightState withLastSwitchTime(LocalDateTime lastSwitchTime) {
+            return new StreetlightState(streetlightId, isOn, dimPercentage, lastSwitchTime, lastDimTime);
+        }
+
+        public StreetlightState withLastDimTime(LocalDateTime lastDimTime) {
+            return new StreetlightState(streetlightId, isOn, dimPercentage, lastSwitchTime, lastDimTime);
+        }
+
+        /**
+         * Stamps both fields with the same command time.
+         */
+        public StreetlightState withLastCommandTime(LocalDateTime lastCommandTime) {
+            return new StreetlightState(streetlightId, isOn, dimPercentage, lastCommandTime, lastCommandTime);
+        }
+
+        public String getStreetlightId() {
+            return streetlightId;
+        }
+
+        public boolean isOn() {
+            return isOn;
         }
 
         public int getDimPercentage() {
             return dimPercentage;
         }
 
-        public void setDimPercentage(int dimPercentage) {
-            this.dimPercentage = dimPercentage;
+        /**
+         * {@code sentAt} of the turn-on or turn-off command that set {@link #isOn()}.
+         */
+        public LocalDateTime getLastSwitchTime() {
+            return lastSwitchTime;
         }
 
-        public LocalDateTime getLastCommandTime() {
-            return lastCommandTime;
+        /**
+         * {@code sentAt} of the dim command that set {@link #getDimPercentage()}.
+         */
+        public LocalDateTime getLastDimTime() {
+            return lastDimTime;
         }
 
-        public void setLastCommandTime(LocalDateTime lastCommandTime) {
-            this.lastCommandTime = lastCommandTime;
+        /**
+         * The later of the switch and dim times, or null if the light never received a command.
+         */
+        public LocalDateTime getLastCommandTime() {
+            if (lastSwitchTime == null || (lastDimTime != null && lastDimTime.isAfter(lastSwitchTime))) {
+                return lastDimTime;
+            }
+            return lastSwitchTime;
         }
 
         @Override
@@ -177,8 +405,9 @@ public class StreetlightService {
                     "streetlightId='" + streetlightId + '\'' +
                     ", isOn=" + isOn +
                     ", dimPercentage=" + dimPercentage +
-                    ", lastCommandTime=" + lastCommandTime +
+                    ", lastSwitchTime=" + lastSwitchTime +
+                    ", lastDimTime=" + lastDimTime +
                     '}';
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Storage for streetlight states, selected with {@code streetlights.state.store}.
+ *
+ * States are immutable; all changes go through {@link #update}, which applies
+ * a transition atomically per light.
+ */
+public interface StreetlightStateStore {
+
+    /**
+     * Returns the state of a streetlight, or null if it has never been seen.
+     */
+    StreetlightState get(String streetlightId);
+
+    /**
+     * Returns the state of a streetlight, creating the default state (off, 100% dim) if needed.
+     */
+    StreetlightState getOrCreate(String streetlightId);
+
+    /**
+     * Atomically replaces a light's state (created first if absent) with the
+     * result of {@code transition}. The transition may run more than once under
+     * contention, so it must be free of side effects; returning its input
+     * leaves the state untouched.
+     */
+    StateChange update(String streetlightId, UnaryOperator<StreetlightState> transition);
+
+    /**
+     * Replaces a light's state unconditionally, e.g. when restoring saved state.
+     */
+    void put(String streetlightId, StreetlightState state);
+
+    /**
+     * Atomically drops a light's state, e.g. when another instance takes over
+     * its partition. Returns the change, holding the dropped state as previous,
+     * or null if there was no state to drop.
+     */
+    StateChange remove(String streetlightId);
+
+    /**
+     * Returns a read-only, weakly consistent view of all states keyed by
+     * streetlight ID. Nothing is copied up front; iteration sees each light's
+     * state as of when it is reached.
+     */
+    Map<String, StreetlightState> getAll();
+
+    /**
+     * Visits states in a stable order, resuming after {@code cursor} (null to
+     * start from the beginning), and stops after {@code limit} states matched
+     * {@code filter}. Iterates a weakly consistent view without copying.
+     *
+     * @return the cursor to pass to the next call, or null when the scan reached the end
+     */
+    String scan(String cursor, int limit, Predicate<StreetlightState> filter, Consumer<StreetlightState> visitor);
+
+    /**
+     * Whether {@link #scan} accepts {@code cursor}, so callers can reject a bad
+     * one before they start writing a response.
+     */
+    default boolean isValidCursor(String cursor) {
+        return true;
+    }
+
+    int size();
+}
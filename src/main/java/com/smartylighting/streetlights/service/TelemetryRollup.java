@@ -0,0 +1,144 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.model.event.LumensRollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming stage that folds light measurements into tumbling and hopping
+ * windows and publishes one {@link LumensRollup} per light and per group
+ * (see {@link StreetlightGroupRegistry}) for each closed window, instead of
+ * every measurement, to {@code streetlights.rollup.topic}.
+ *
+ * Measurement topics are shared out among instances, so group rollups are
+ * per-instance partials, attributed to {@code streetlights.rollup.instance-id}
+ * and keyed by group and instance; see {@link LumensRollup} for combining them.
+ *
+ * Windows are in event time ({@code sentAt}) with a grace period for late
+ * measurements; see {@link LumensWindows} for closing, late handling and the
+ * memory bounds. Window state is held in memory only, so windows still open
+ * when the instance stops are not emitted.
+ *
+ * Enabled with {@code streetlights.rollup.enabled=true}.
+ */
+@Service
+@ConditionalOnProperty(name = "streetlights.rollup.enabled", havingValue = "true")
+public class TelemetryRollup {
+
+    private static final Logger log = LoggerFactory.getLogger(TelemetryRollup.class);
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final String topic;
+    private final String instanceId;
+    private final LumensWindows windows;
+
+    private final LongAdder measurements = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Autowired
+    public TelemetryRollup(KafkaTemplate<String, Object> kafkaTemplate,
+                           StreetlightGroupRegistry groupRegistry,
+                           @Value("${streetlights.rollup.topic}") String topic,
+                           @Value("${streetlights.rollup.tumbling-ms:60000}") long tumblingMs,
+                           @Value("${streetlights.rollup.hopping-size-ms:300000}") long hoppingSizeMs,
+                           @Value("${streetlights.rollup.hopping-advance-ms:60000}") long hoppingAdvanceMs,
+                           @Value("${streetlights.rollup.grace-ms:10000}") long graceMs,
+                           @Value("${streetlights.rollup.max-open-windows:500000}") int maxOpenWindows,
+                           @Value("${streetlights.rollup.max-tracked-lights:1000000}") int maxTrackedLights,
+                           @Value("${streetlights.rollup.instance-id:${random.uuid}}") String instanceId) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topic = topic;
+        this.instanceId = instanceId;
+
+        List<LumensWindows.Spec> specs = new ArrayList<>();
+        if (tumblingMs > 0) {
+            specs.add(new LumensWindows.Spec("tumbling", tumblingMs, tumblingMs));
+        }
+        if (hoppingSizeMs > 0) {
+            specs.add(new LumensWindows.Spec("hopping", hoppingSizeMs, hoppingAdvanceMs));
+        }
+        if (specs.isEmpty()) {
+            throw new IllegalStateException(
+                    "streetlights.rollup.enabled needs a tumbling or hopping window with a positive size");
+        }
+        this.windows = new LumensWindows(specs, graceMs, maxOpenWindows, maxTrackedLights, groupRegistry::groupsOf);
+        log.info("Rolling up measurements to {}: tumbling {} ms, hopping {} ms every {} ms, grace {} ms",
+                topic, tumblingMs, hoppingSizeMs, hoppingAdvanceMs, graceMs);
+    }
+
+    /**
+     * Folds one measurement into its windows and publishes the rollups of any
+     * windows it closed.
+     */
+    public void accept(String streetlightId, LightMeasuredEvent event) {
+        if (event.getLumens() == null || event.getSentAt() == null) {
+            log.warn("Skipping measurement without lumens or sentAt for streetlight {}", streetlightId);
+            return;
+        }
+        measurements.increment();
+
+        // sentAt is written with a Z suffix, i.e. as UTC
+        long time = event.getSentAt().toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<LumensRollup> rollups;
+        synchronized (windows) {
+            rollups = windows.add(streetlightId, time, event.getLumens());
+        }
+        for (LumensRollup rollup : rollups) {
+            publish(rollup.withInstance(instanceId));
+        }
+    }
+
+    private void publish(LumensRollup rollup) {
+        kafkaTemplate.send(topic, rollup.recordKey(), rollup)
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        failed.increment();
+                        log.error("Failed to publish {} rollup for {} to {}: {}",
+                                rollup.getScope(), rollup.recordKey(), topic, ex.getMessage());
+                    } else {
+                        emitted.increment();
+                    }
+                });
+    }
+
+    public long getMeasurementCount() {
+        return measurements.sum();
+    }
+
+    public long getEmittedCount() {
+        return emitted.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getLateCount() {
+        synchronized (windows) {
+            return windows.getLateCount();
+        }
+    }
+
+    public long getEarlyClosedCount() {
+        synchronized (windows) {
+            return windows.getEarlyClosedCount();
+        }
+    }
+
+    public int getOpenWindowCount() {
+        synchronized (windows) {
+            return windows.getOpenWindowCount();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.smartylighting.streetlights;
+
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.serde.StreetlightsDeserializer;
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives a mix of turn-on, turn-off and dim commands across synthetic
+ * streetlights through one application instance on an embedded broker,
+ * consumes the resulting measurements and reports sustained commands per
+ * second and the command-to-measurement latency distribution.
+ *
+ * Each light has at most one command awaiting its measurement, so every
+ * measurement is matched to the command that caused it and its lumens are
+ * checked against the expected state; the number of lights is therefore the
+ * number of commands in flight. A light gets its next command as soon as its
+ * measurement arrives. Every light sends its share of the commands in an
+ * order fixed by the seed, so runs with the same settings send the same
+ * commands. Settings are system properties:
+ *
+ * <pre>
+ * mvn test -Pbenchmarks -Dtest=CommandLoadHarnessTest \
+ *     -Dload.lights=200 -Dload.commands=20000 -Dload.mix=turn-on:40,turn-off:20,dim:40 -Dload.seed=42
+ * </pre>
+ *
+ * Commands use the keyed layout: with per-light topics the listeners' pattern
+ * subscriptions would only pick up the new topics on a metadata refresh.
+ * The full distribution is written to {@code target/command-load-latency.hgrm}.
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "streetlights.command.layout=keyed",
+        "spring.kafka.consumer.group-id=streetlights-load-harness"
+})
+@EmbeddedKafka(partitions = 1)
+@DirtiesContext
+public class CommandLoadHarnessTest {
+
+    private static final int LIGHTS = Integer.getInteger("load.lights", 200);
+    private static final int COMMANDS = Integer.getInteger("load.commands", 20_000);
+    private static final String MIX = System.getProperty("load.mix", "turn-on:40,turn-off:20,dim:40");
+    private static final long SEED = Long.getLong("load.seed", 42);
+    private static final long TIMEOUT_MS = Long.getLong("load.timeout-ms", 300_000);
+
+    private static final String ID_PREFIX = "load-";
+    private static final Pattern MEASURED_TOPICS =
+            Pattern.compile("smartylighting\\.streetlights\\.1\\.0\\.event\\.load-.*\\.lighting\\.measured");
+
+    @Autowired
+    private CommandPublisher commandPublisher;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    // per light: when its pending command was sent (0 when idle), and the lumens its measurement must report
+    private final AtomicLongArray sentNanos = new AtomicLongArray(LIGHTS);
+    private final int[] expectedLumens = new int[LIGHTS];
+    // lights whose last command has been measured, in the order their measurements arrived
+    private final BlockingQueue<Integer> idle = new LinkedBlockingQueue<>();
+
+    private final Histogram latencyMicros = new Histogram(3);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private volatile int assignedTopics;
+    private volatile boolean recording;
+    private volatile boolean consuming = true;
+
+    @Test
+    public void testSustainedThroughputAndLatency() throws Exception {
+        CommandMix mix = CommandMix.parse(MIX);
+        Random[] random = new Random[LIGHTS];
+        int[] remaining = new int[LIGHTS];
+        boolean[] on = new boolean[LIGHTS];
+        int[] dim = new int[LIGHTS];
+        for (int light = 0; light < LIGHTS; light++) {
+            random[light] = new Random(SEED + light);
+            remaining[light] = COMMANDS / LIGHTS + (light < COMMANDS % LIGHTS ? 1 : 0);
+            dim[light] = 100;
+        }
+
+        Thread consumer = new Thread(this::consumeMeasurements, "load-measurements");
+        consumer.start();
+        try {
+            // a light's first command creates it; turn-off is measured even then, and leaves a known state
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            for (int light = 0; light < LIGHTS; light++) {
+                send(light, CommandType.TURN_OFF, 0, 0);
+            }
+            awaitCompleted(LIGHTS, deadline);
+            // no more rebalances from new measurement topics once all are assigned
+            while (assignedTopics < LIGHTS) {
+                assertTrue(System.currentTimeMillis() < deadline, "measurement topics not all assigned");
+                Thread.sleep(100);
+            }
+            completed.set(0);
+            unmatched.set(0);
+            recording = true;
+
+            long start = System.nanoTime();
+            for (int sent = 0; sent < COMMANDS; ) {
+                Integer light = idle.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                assertNotNull(light, () -> String.format("no light became idle within %d ms; %d of %d commands completed",
+                        TIMEOUT_MS, completed.get(), COMMANDS));
+                if (remaining[light] == 0) {
+                    continue;
+                }
+                CommandType type = mix.next(random[light]);
+                switch (type) {
+                    case TURN_ON -> on[light] = true;
+                    case TURN_OFF -> on[light] = false;
+                    case DIM -> dim[light] = random[light].nextInt(101);
+                }
+                send(light, type, dim[light], on[light] ? 5000 * dim[light] / 100 : 0);
+                remaining[light]--;
+                sent++;
+            }
+            awaitCompleted(COMMANDS, deadline);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            report(seconds);
+            assertEquals(0, mismatched.get(), "measurements not matching the commanded state");
+        } finally {
+            consuming = false;
+            consumer.join();
+        }
+    }
+
+    private void send(int light, CommandType type, int percentage, int lumens) {
+        String streetlightId = streetlightId(light);
+        LocalDateTime sentAt = LocalDateTime.now(ZoneOffset.UTC);
+        expectedLumens[light] = lumens;
+        sentNanos.set(light, System.nanoTime());
+        commandPublisher.send(streetlightId, type, type == CommandType.DIM
+                ? new DimLightCommand(percentage, sentAt)
+                : new TurnOnOffCommand(type == CommandType.TURN_ON ? "on" : "off", sentAt, 50));
+    }
+
+    private void awaitCompleted(int commands, long deadline) throws InterruptedException {
+        while (completed.get() < commands) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(String.format("%d of %d commands got a measurement within %d ms",
+                        completed.get(), commands, TIMEOUT_MS));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void consumeMeasurements() {
+        Map<String, Object> props = KafkaTestUtils.consumerProps("load-harness-measurements", "false", embeddedKafka);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // the measurement topics are created by the first measurement of each light
+        props.put(ConsumerConfig.METADATA_MAX_AGE_CONFIG, 500);
+        JsonDeserializer<Object> events = new JsonDeserializer<>(
+                TypeFactory.defaultInstance().constructType(LightMeasuredEvent.class), false);
+        try (Consumer<String, Object> consumer = new KafkaConsumer<>(props, new StringDeserializer(),
+                new StreetlightsDeserializer(events))) {
+            consumer.subscribe(MEASURED_TOPICS);
+            while (consuming) {
+                ConsumerRecords<String, Object> records = consumer.poll(Duration.ofMillis(100));
+                for (ConsumerRecord<String, Object> record : records) {
+                    onMeasurement(record.key(), (LightMeasuredEvent) record.value());
+                }
+                if (!records.isEmpty()) {
+                    // each new topic rebalances the consumer, which must not rewind to measurements already seen
+                    consumer.commitAsync();
+                }
+                assignedTopics = consumer.assignment().size();
+            }
+        }
+    }
+
+    private void onMeasurement(String streetlightId, LightMeasuredEvent event) {
+        long received = System.nanoTime();
+        int light = Integer.parseInt(streetlightId.substring(ID_PREFIX.length()));
+        long sent = sentNanos.get(light);
+        if (sent == 0) {
+            // redelivered after a rebalance before its offset was committed
+            unmatched.incrementAndGet();
+            return;
+        }
+        if (recording) {
+            latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(received - sent));
+        }
+        if (event.getLumens() != expectedLumens[light]) {
+            mismatched.incrementAndGet();
+        }
+        completed.incrementAndGet();
+        sentNanos.set(light, 0);
+        idle.add(light);
+    }
+
+    private void report(double seconds) throws Exception {
+        String summary = String.format("%d commands (%s) across %d lights, seed %d: %.0f commands/s, "
+                        + "latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms, %d unmatched measurements",
+                COMMANDS, MIX, LIGHTS, SEED, COMMANDS / seconds,
+                latencyMicros.getValueAtPercentile(50) / 1000.0,
+                latencyMicros.getValueAtPercentile(99) / 1000.0,
+                latencyMicros.getValueAtPercentile(99.9) / 1000.0,
+                latencyMicros.getMaxValue() / 1000.0,
+                unmatched.get());
+        System.out.println(summary);
+
+        Path output = Path.of("target", "command-load-latency.hgrm");
+        Files.createDirectories(output.getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output))) {
+            out.println("# " + summary);
+            latencyMicros.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static String streetlightId(int light) {
+        return String.format("%s%06d", ID_PREFIX, light);
+    }
+
+    /**
+     * Weighted command types, e.g. {@code turn-on:40,turn-off:20,dim:40}.
+     */
+    private static final class CommandMix {
+        private final CommandType[] types;
+        private final int[] cumulativeWeights;
+
+        private CommandMix(CommandType[] types, int[] cumulativeWeights) {
+            this.types = types;
+            this.cumulativeWeights = cumulativeWeights;
+        }
+
+        static CommandMix parse(String mix) {
+            String[] entries = mix.split(",");
+            CommandType[] types = new CommandType[entries.length];
+            int[] cumulative = new int[entries.length];
+            int total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].trim().split(":");
+                types[i] = switch (entry[0]) {
+                    case "turn-on" -> CommandType.TURN_ON;
+                    case "turn-off" -> CommandType.TURN_OFF;
+                    case "dim" -> CommandType.DIM;
+                    default -> throw new IllegalArgumentException("Unknown command in load.mix: " + entry[0]);
+                };
+                total += Integer.parseInt(entry[1]);
+                cumulative[i] = total;
+            }
+            return new CommandMix(types, cumulative);
+        }
+
+        CommandType next(Random random) {
+            int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; ; i++) {
+                if (pick < cumulativeWeights[i]) {
+                    return types[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.smartylighting.streetlights;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.service.TelemetryRollup;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs commands and measurements through non-default
+ * {@code streetlights.topic.*} templates, with a streetlight ID containing
+ * dots, and checks that the command listeners apply them to that light and
+ * that the measurement listener decodes the event and rolls it up under the
+ * same ID.
+ */
+@SpringBootTest(properties = {
+        "streetlights.topic.turn-on=city.lights.{streetlightId}.switch-on",
+        "streetlights.topic.turn-off=city.lights.{streetlightId}.switch-off",
+        "streetlights.topic.dim=city.lights.{streetlightId}.dimmer",
+        "streetlights.topic.light-measured=city.telemetry.{streetlightId}",
+        "streetlights.rollup.enabled=true",
+        "spring.kafka.consumer.group-id=streetlights-custom-topics-test"
+})
+@EmbeddedKafka(partitions = 1, topics = {
+        "city.lights.zone.7.light-1.switch-on",
+        "city.lights.zone.7.light-1.switch-off",
+        "city.lights.zone.7.light-1.dimmer",
+        "city.telemetry.zone.7.light-1"
+})
+@DirtiesContext
+public class CustomTopicLayoutIntegrationTest {
+
+    private static final String ID = "zone.7.light-1";
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private StreetlightService streetlightService;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @SpyBean
+    private TelemetryRollup telemetryRollup;
+
+    @Test
+    public void testCommandsAndMeasurementsFollowTheTemplates() throws InterruptedException {
+        waitForAssignment(4);
+
+        LocalDateTime sentAt = LocalDateTime.now(ZoneOffset.UTC);
+        kafkaTemplate.send("city.lights." + ID + ".switch-on", ID, new TurnOnOffCommand("on", sentAt, 50));
+        kafkaTemplate.send("city.lights." + ID + ".dimmer", ID, new DimLightCommand(40, sentAt.plusSeconds(1)));
+
+        // the dim publishes a measurement on city.telemetry.zone.7.light-1
+        verify(telemetryRollup, timeout(30_000)).accept(eq(ID), any(LightMeasuredEvent.class));
+        StreetlightService.StreetlightState state = streetlightService.getState(ID);
+        assertTrue(state.isOn());
+        assertEquals(40, state.getDimPercentage());
+
+        kafkaTemplate.send("city.lights." + ID + ".switch-off", ID,
+                new TurnOnOffCommand("off", sentAt.plusSeconds(2), 50));
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (streetlightService.getState(ID).isOn() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse(streetlightService.getState(ID).isOn());
+    }
+
+    private void waitForAssignment(int topics) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        Set<String> assigned = new HashSet<>();
+        while (assigned.size() < topics && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            assigned.clear();
+            for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+                Collection<TopicPartition> partitions = container.getAssignedPartitions();
+                if (partitions != null) {
+                    partitions.stream()
+                            .filter(partition -> partition.topic().contains(ID))
+                            .forEach(partition -> assigned.add(partition.topic()));
+                }
+            }
+        }
+        assertEquals(topics, assigned.size(), "topics assigned: " + assigned);
+    }
+}
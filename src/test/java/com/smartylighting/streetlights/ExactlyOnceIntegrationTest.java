@@ -0,0 +1,107 @@
+package com.smartylighting.streetlights;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.service.StreetlightService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the command flow with {@code streetlights.processing.guarantee=exactly-once}
+ * and checks that the measurement becomes visible to a read_committed consumer.
+ */
+@SpringBootTest(properties = {
+        "streetlights.processing.guarantee=exactly-once",
+        // contexts cached by earlier test classes still hold members of the default group
+        "spring.kafka.consumer.group-id=streetlights-eos-test"
+})
+@EmbeddedKafka(partitions = 1, topics = {
+        "smartylighting.streetlights.1.0.action.eos-001.turn.on",
+        "smartylighting.streetlights.1.0.action.eos-001.dim",
+        "smartylighting.streetlights.1.0.event.eos-001.lighting.measured"
+}, brokerProperties = {
+        "transaction.state.log.replication.factor=1",
+        "transaction.state.log.min.isr=1"
+})
+@DirtiesContext
+public class ExactlyOnceIntegrationTest {
+
+    private static final String MEASURED_TOPIC = "smartylighting.streetlights.1.0.event.eos-001.lighting.measured";
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private StreetlightService streetlightService;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Test
+    public void testMeasurementIsCommittedWithCommand() throws InterruptedException {
+        String id = "eos-001";
+        LocalDateTime sentAt = LocalDateTime.now();
+
+        kafkaTemplate.send("smartylighting.streetlights.1.0.action.eos-001.turn.on", id,
+                new TurnOnOffCommand("on", sentAt, 50));
+        kafkaTemplate.send("smartylighting.streetlights.1.0.action.eos-001.dim", id,
+                new DimLightCommand(40, sentAt.plusSeconds(1)));
+
+        // all listeners share one group and heartbeat every 10 s, so the first rebalances can take a while
+        for (int i = 0; i < 300 && !isOnAndDimmed(id); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(streetlightService.getState(id).isOn());
+        assertEquals(40, streetlightService.getState(id).getDimPercentage());
+
+        Map<String, Object> props = KafkaTestUtils.consumerProps("eos-verifier", "false", embeddedKafka);
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        try (Consumer<String, String> consumer =
+                     new KafkaConsumer<>(props, new StringDeserializer(), new StringDeserializer())) {
+            embeddedKafka.consumeFromAnEmbeddedTopic(consumer, MEASURED_TOPIC);
+            // the dim may be measured too, in a transaction of its own listener that can commit in either
+            // order, so wait for the measurement of the fully applied state rather than for the last one
+            List<String> measurements = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (measurements.stream().noneMatch(ExactlyOnceIntegrationTest::isFullyApplied)
+                    && System.currentTimeMillis() < deadline) {
+                for (ConsumerRecord<String, String> measurement : consumer.poll(Duration.ofMillis(500))) {
+                    assertEquals(id, measurement.key());
+                    measurements.add(measurement.value());
+                }
+            }
+            assertTrue(measurements.stream().anyMatch(ExactlyOnceIntegrationTest::isFullyApplied),
+                    measurements.toString());
+            assertTrue(measurements.size() <= 2, measurements.toString());
+        }
+    }
+
+    private static boolean isFullyApplied(String measurement) {
+        return measurement.contains("\"lumens\":2000");
+    }
+
+    private boolean isOnAndDimmed(String id) {
+        StreetlightService.StreetlightState state = streetlightService.getState(id);
+        return state != null && state.isOn() && state.getDimPercentage() == 40;
+    }
+}
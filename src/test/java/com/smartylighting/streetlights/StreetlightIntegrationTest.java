@@ -3,15 +3,21 @@ package com.smartylighting.streetlights;
 import com.smartylighting.streetlights.model.command.DimLightCommand;
 import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
 import com.smartylighting.streetlights.service.StreetlightService;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,10 +36,14 @@ public class StreetlightIntegrationTest {
     @Autowired
     private StreetlightService streetlightService;
 
+    @Autowired
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
     @Test
     public void testTurnOnOffDimFlow() throws InterruptedException {
 
         String id = "test-001";
+        waitForAssignment(3);
 
         // 1) Turn ON
         TurnOnOffCommand onCommand = new TurnOnOffCommand("on", LocalDateTime.now(), 50);
@@ -61,4 +71,26 @@ public class StreetlightIntegrationTest {
         assertFalse(streetlightService.getState(id).isOn());
         assertEquals(60, streetlightService.getState(id).getDimPercentage());
     }
+
+    /**
+     * The command listeners subscribe by pattern, so a command sent before the
+     * group has rebalanced onto the test topics would only be read afterwards.
+     */
+    private void waitForAssignment(int topics) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        Set<String> assigned = new HashSet<>();
+        while (assigned.size() < topics && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            assigned.clear();
+            for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+                Collection<TopicPartition> partitions = container.getAssignedPartitions();
+                if (partitions != null) {
+                    partitions.stream()
+                            .filter(partition -> partition.topic().contains(".test-001."))
+                            .forEach(partition -> assigned.add(partition.topic()));
+                }
+            }
+        }
+        assertEquals(topics, assigned.size(), "command topics assigned: " + assigned);
+    }
 }
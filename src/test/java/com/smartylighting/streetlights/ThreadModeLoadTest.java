@@ -0,0 +1,140 @@
+package com.smartylighting.streetlights;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the turn-on endpoint with many concurrent callers, once with
+ * platform request and listener threads and once with
+ * {@code spring.threads.virtual.enabled=true}, and reports p99 latency and
+ * throughput for each. Every request names a new light, so each send first
+ * waits for the new topic's metadata, the blocking case virtual threads are
+ * meant to absorb. Tomcat is capped at a small pool to make that visible.
+ *
+ * The virtual-thread run needs Java 21 (see the java21 profile in pom.xml):
+ * {@code mvn test -Pjava21,benchmarks -Dtest=ThreadModeLoadTest}.
+ *
+ * On Temurin 21.0.1 with one CPU, each mode in its own JVM, platform threads
+ * did better: p99 13.4 s at 40 req/s against 17.9 s at 32 req/s for virtual
+ * threads (7.2 s against 18.7 s when both ran in one JVM, virtual first).
+ * The wait for new-topic metadata is synchronized inside the producer and
+ * pins the carrier threads, so virtual threads do not help with this load.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=50",
+        "spring.kafka.consumer.group-id=streetlights-load-test"
+})
+@EmbeddedKafka(partitions = 1)
+@DirtiesContext
+public class ThreadModeLoadTest {
+
+    private static final int REQUESTS = 2_000;
+    private static final int CALLERS = 400;
+
+    private static final Map<String, String> RESULTS = new ConcurrentHashMap<>();
+
+    @AfterAll
+    static void printComparison() {
+        RESULTS.forEach((mode, result) -> System.out.printf("%-8s %s%n", mode, result));
+    }
+
+    @Nested
+    class PlatformThreads {
+
+        @LocalServerPort
+        private int port;
+
+        @Test
+        public void testTurnOnUnderLoad() throws Exception {
+            RESULTS.put("platform", drive(port, "platform"));
+        }
+    }
+
+    @Nested
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+    class VirtualThreads {
+
+        @LocalServerPort
+        private int port;
+
+        @Test
+        public void testTurnOnUnderLoad() throws Exception {
+            RESULTS.put("virtual", drive(port, "virtual"));
+        }
+    }
+
+    private static String drive(int port, String mode) throws Exception {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        long[] latencies = new long[REQUESTS];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < CALLERS; c++) {
+            futures.add(callers.submit(() -> {
+                for (int i = next.getAndIncrement(); i < REQUESTS; i = next.getAndIncrement()) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(String.format(
+                                    "http://localhost:%d/api/v1/streetlights/load-%s-%d/turn-on", port, mode, i)))
+                            .POST(HttpRequest.BodyPublishers.noBody())
+                            .timeout(Duration.ofSeconds(60))
+                            .build();
+                    long sent = System.nanoTime();
+                    try {
+                        if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - sent;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        callers.shutdown();
+
+        Arrays.sort(latencies);
+        String result = String.format("%d requests from %d callers: %.0f req/s, p50 %d ms, p99 %d ms, max %d ms",
+                REQUESTS, CALLERS, REQUESTS / (elapsed / 1e9),
+                TimeUnit.NANOSECONDS.toMillis(latencies[REQUESTS / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[REQUESTS * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[REQUESTS - 1]));
+        assertEquals(0, failures.get(), "failed requests");
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.smartylighting.streetlights.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.JacksonUtils;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the typed deserializer configured in {@link KafkaConfig} decodes
+ * commands exactly like the old Map-then-convertValue path. Their allocation
+ * is compared in the {@code CommandDeserializationBenchmark} JMH benchmark.
+ */
+public class CommandDeserializationTest {
+
+    private static final String TOPIC = "smartylighting.streetlights.1.0.action.bench-001.turn.on";
+    private static final TopicResolver TOPICS = new TopicResolver(
+            "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+            1000);
+
+    @Test
+    public void testTypedDeserializationMatchesMapPath() {
+        byte[] payload;
+        try (JsonSerializer<Object> serializer = new JsonSerializer<>()) {
+            payload = serializer.serialize(TOPIC,
+                    new TurnOnOffCommand("on", LocalDateTime.of(2024, 1, 1, 18, 0), 50));
+        }
+
+        ObjectMapper objectMapper = JacksonUtils.enhancedObjectMapper();
+        JsonDeserializer<HashMap> mapDeserializer = new JsonDeserializer<>(HashMap.class, false);
+        JsonDeserializer<Object> typedDeserializer = KafkaConfig.commandValueDeserializer(TOPICS);
+        RecordHeaders headers = new RecordHeaders();
+
+        Supplier<TurnOnOffCommand> mapPath = () -> objectMapper.convertValue(
+                mapDeserializer.deserialize(TOPIC, headers, payload), TurnOnOffCommand.class);
+        Supplier<TurnOnOffCommand> typedPath = () ->
+                (TurnOnOffCommand) typedDeserializer.deserialize(TOPIC, headers, payload);
+
+        TurnOnOffCommand typed = typedPath.get();
+        assertEquals(mapPath.get().toString(), typed.toString());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 18, 0), typed.getSentAt());
+        assertEquals(50, typed.getMyAppHeader());
+    }
+
+    @Test
+    public void testPoisonPayloadIsReportedInsteadOfThrown() {
+        RecordHeaders headers = new RecordHeaders();
+        try (ErrorHandlingDeserializer<Object> deserializer =
+                     new ErrorHandlingDeserializer<>(KafkaConfig.commandValueDeserializer(TOPICS))) {
+
+            Object value = deserializer.deserialize(TOPIC, headers, "{not json".getBytes(StandardCharsets.UTF_8));
+
+            assertNull(value);
+            assertNotNull(headers.lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER));
+        }
+    }
+}
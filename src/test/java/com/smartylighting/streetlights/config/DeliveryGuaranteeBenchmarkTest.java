@@ -0,0 +1,158 @@
+package com.smartylighting.streetlights.config;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Consume-transform-produce throughput on an embedded broker for the two
+ * {@code streetlights.processing.guarantee} settings: at-least-once (flush the
+ * producer, then commit offsets after each poll) and exactly-once with one
+ * transaction per record, as the record listeners run, or per poll, as the
+ * batch listener runs.
+ */
+@Tag("benchmark")
+@EmbeddedKafka(partitions = 3, topics = {
+        DeliveryGuaranteeBenchmarkTest.COMMANDS, DeliveryGuaranteeBenchmarkTest.MEASUREMENTS
+}, brokerProperties = {
+        "transaction.state.log.replication.factor=1",
+        "transaction.state.log.min.isr=1"
+})
+public class DeliveryGuaranteeBenchmarkTest {
+
+    static final String COMMANDS = "benchmark.commands";
+    static final String MEASUREMENTS = "benchmark.measurements";
+
+    private static final int RECORDS = 20_000;
+    private static final byte[] PAYLOAD = new byte[64];
+
+    private enum Mode { AT_LEAST_ONCE, EXACTLY_ONCE_PER_POLL, EXACTLY_ONCE_PER_RECORD }
+
+    @Test
+    public void testThroughputByProcessingGuarantee(EmbeddedKafkaBroker broker) {
+        try (Producer<String, byte[]> producer = producer(broker, null)) {
+            for (int i = 0; i < RECORDS; i++) {
+                producer.send(new ProducerRecord<>(COMMANDS, "light-" + (i % 1_000), PAYLOAD));
+            }
+        }
+
+        double atLeastOnce = run(broker, Mode.AT_LEAST_ONCE, RECORDS);
+        double perPoll = run(broker, Mode.EXACTLY_ONCE_PER_POLL, RECORDS);
+        // back-to-back transactions wait out the previous commit's markers, so a small sample is enough
+        double perRecord = run(broker, Mode.EXACTLY_ONCE_PER_RECORD, RECORDS / 100);
+
+        System.out.printf("Consume-transform-produce: at-least-once %,.0f rec/s, "
+                        + "exactly-once per poll %,.0f rec/s, exactly-once per record %,.0f rec/s%n",
+                atLeastOnce, perPoll, perRecord);
+        assertTrue(perPoll > perRecord, "batching transactions should beat one transaction per record");
+    }
+
+    /**
+     * Processes {@code limit} commands in the given mode and returns records per second.
+     */
+    private double run(EmbeddedKafkaBroker broker, Mode mode, int limit) {
+        boolean transactional = mode != Mode.AT_LEAST_ONCE;
+        int processed = 0;
+        long start = System.nanoTime();
+
+        try (Consumer<String, byte[]> consumer = consumer(broker, mode.name(), transactional);
+             Producer<String, byte[]> producer = producer(broker, transactional ? mode.name() + "-tx" : null)) {
+            if (transactional) {
+                producer.initTransactions();
+            }
+            consumer.subscribe(List.of(COMMANDS));
+
+            while (processed < limit) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(200));
+                if (records.isEmpty()) {
+                    continue;
+                }
+                switch (mode) {
+                    case AT_LEAST_ONCE -> {
+                        records.forEach(record -> producer.send(measurement(record)));
+                        producer.flush();
+                        consumer.commitSync();
+                    }
+                    case EXACTLY_ONCE_PER_POLL -> {
+                        producer.beginTransaction();
+                        records.forEach(record -> producer.send(measurement(record)));
+                        producer.sendOffsetsToTransaction(nextOffsets(records), consumer.groupMetadata());
+                        producer.commitTransaction();
+                    }
+                    case EXACTLY_ONCE_PER_RECORD -> {
+                        for (ConsumerRecord<String, byte[]> record : records) {
+                            producer.beginTransaction();
+                            producer.send(measurement(record));
+                            producer.sendOffsetsToTransaction(Map.of(
+                                    new TopicPartition(record.topic(), record.partition()),
+                                    new OffsetAndMetadata(record.offset() + 1)), consumer.groupMetadata());
+                            producer.commitTransaction();
+                        }
+                    }
+                }
+                processed += records.count();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return processed / seconds;
+    }
+
+    private static ProducerRecord<String, byte[]> measurement(ConsumerRecord<String, byte[]> command) {
+        return new ProducerRecord<>(MEASUREMENTS, command.key(), command.value());
+    }
+
+    private static Map<TopicPartition, OffsetAndMetadata> nextOffsets(ConsumerRecords<String, byte[]> records) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            long last = partitionRecords.get(partitionRecords.size() - 1).offset();
+            offsets.put(partition, new OffsetAndMetadata(last + 1));
+        }
+        return offsets;
+    }
+
+    private static Consumer<String, byte[]> consumer(EmbeddedKafkaBroker broker, String group, boolean readCommitted) {
+        Map<String, Object> props = KafkaTestUtils.consumerProps(group, "false", broker);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+        if (readCommitted) {
+            props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
+        return new KafkaConsumer<>(props, new StringDeserializer(), new ByteArrayDeserializer());
+    }
+
+    private static Producer<String, byte[]> producer(EmbeddedKafkaBroker broker, String transactionalId) {
+        Map<String, Object> props = KafkaTestUtils.producerProps(broker);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        if (transactionalId != null) {
+            props.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+        }
+        return new KafkaProducer<>(props, new StringSerializer(), new ByteArraySerializer());
+    }
+}
@@ -0,0 +1,169 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.CommandCoalescer;
+import com.smartylighting.streetlights.service.CommandDispatcher;
+import com.smartylighting.streetlights.service.FoldedCommands;
+import com.smartylighting.streetlights.service.InMemoryStreetlightStateStore;
+import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import com.smartylighting.streetlights.service.StreetlightStateStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that each light's share of a batch is folded into one state change
+ * with one measurement, and that failures are counted per command.
+ */
+public class BatchCommandConsumerTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+    private final TopicResolver topics = new TopicResolver(
+            "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+            1000);
+    private final List<ConsumerRecord<String, Object>> records = new ArrayList<>();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFoldsEachLightToOneStateChange() {
+        LightMeasurementProducer producer = mock(LightMeasurementProducer.class);
+        StreetlightStateStore store = new InMemoryStreetlightStateStore();
+        store.put("light-1", StreetlightState.initial("light-1").withLastCommandTime(T0));
+        store.put("light-2", StreetlightState.initial("light-2").withLastCommandTime(T0));
+        StreetlightService service = new StreetlightService(producer, store);
+        CommandMetrics metrics = new CommandMetrics(new SimpleMeterRegistry());
+        BatchCommandConsumer consumer = new BatchCommandConsumer(
+                new CommandDispatcher(service, mock(ObjectProvider.class)), metrics, topics);
+
+        add("light-1", "turn.on", new TurnOnOffCommand("on", T0.plusSeconds(1), 50));
+        add("light-2", "dim", null); // payload that could not be deserialized
+        add("light-1", "dim", new DimLightCommand(30, T0.plusSeconds(2)));
+        add("light-2", "turn.on", new TurnOnOffCommand("on", T0.plusSeconds(1), 50));
+        add("light-1", "turn.off", new TurnOnOffCommand("off", T0.plusSeconds(3), 50));
+        // arrives last but was sent before the dim above, so it must not win
+        add("light-1", "dim", new DimLightCommand(80, T0.plusSeconds(1)));
+
+        consumer.consumeCommands(records);
+
+        StreetlightState light1 = service.getState("light-1");
+        assertFalse(light1.isOn());
+        assertEquals(30, light1.getDimPercentage());
+        assertEquals(T0.plusSeconds(3), light1.getLastSwitchTime());
+        assertEquals(T0.plusSeconds(2), light1.getLastDimTime());
+        assertTrue(service.getState("light-2").isOn());
+
+        ArgumentCaptor<LightMeasuredEvent> light1Measurements = ArgumentCaptor.forClass(LightMeasuredEvent.class);
+        verify(producer).publishLightMeasurement(eq("light-1"), light1Measurements.capture());
+        assertEquals(0, light1Measurements.getValue().getLumens());
+        verify(producer).publishLightMeasurement(eq("light-2"), any());
+        verifyNoMoreInteractions(producer);
+
+        assertEquals(2, metrics.getProcessedCount(CommandType.TURN_ON));
+        assertEquals(1, metrics.getProcessedCount(CommandType.TURN_OFF));
+        assertEquals(2, metrics.getProcessedCount(CommandType.DIM));
+        assertEquals(1, metrics.getFailedCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNewLightIsMeasuredOnlyWhenADimIsFoldedIn() {
+        LightMeasurementProducer producer = mock(LightMeasurementProducer.class);
+        StreetlightService service = new StreetlightService(producer, new InMemoryStreetlightStateStore());
+        BatchCommandConsumer consumer = new BatchCommandConsumer(
+                new CommandDispatcher(service, mock(ObjectProvider.class)),
+                new CommandMetrics(new SimpleMeterRegistry()), topics);
+
+        add("light-new", "turn.on", new TurnOnOffCommand("on", T0, 50));
+        add("light-new", "dim", new DimLightCommand(40, T0.plusSeconds(1)));
+        // a lone first turn-on is not measured, as on the unfolded path
+        add("light-on-only", "turn.on", new TurnOnOffCommand("on", T0, 50));
+
+        consumer.consumeCommands(records);
+
+        ArgumentCaptor<LightMeasuredEvent> measured = ArgumentCaptor.forClass(LightMeasuredEvent.class);
+        verify(producer).publishLightMeasurement(eq("light-new"), measured.capture());
+        assertTrue(measured.getValue().getLumens() > 0);
+        verifyNoMoreInteractions(producer);
+        assertTrue(service.getState("light-on-only").isOn());
+    }
+
+    @Test
+    public void testFailedLightCountsEveryFoldedCommand() throws InterruptedException {
+        CommandDispatcher dispatcher = mock(CommandDispatcher.class);
+        doThrow(new IllegalStateException("store unavailable"))
+                .when(dispatcher).dispatch(eq("light-bad"), any(FoldedCommands.class));
+        CommandMetrics metrics = new CommandMetrics(new SimpleMeterRegistry());
+        BatchCommandConsumer consumer = new BatchCommandConsumer(dispatcher, metrics, topics);
+
+        add("light-bad", "turn.on", new TurnOnOffCommand("on", T0, 50));
+        add("light-ok", "turn.on", new TurnOnOffCommand("on", T0, 50));
+        add("light-bad", "dim", new DimLightCommand(40, T0));
+        add("light-ok", "dim", new DimLightCommand(40, T0));
+
+        consumer.consumeCommands(records);
+
+        ArgumentCaptor<FoldedCommands> folded = ArgumentCaptor.forClass(FoldedCommands.class);
+        verify(dispatcher).dispatch(eq("light-ok"), folded.capture());
+        assertEquals(Boolean.TRUE, folded.getValue().getOn());
+        assertEquals(40, folded.getValue().getDimPercentage());
+        assertEquals(2, folded.getValue().getCommandCount());
+        verify(dispatcher).dispatch(eq("light-bad"), any(FoldedCommands.class));
+        verify(dispatcher).awaitApplied();
+        verifyNoMoreInteractions(dispatcher);
+
+        assertEquals(2, metrics.getFailedCount());
+        assertEquals(1, metrics.getProcessedCount(CommandType.TURN_ON));
+        assertEquals(1, metrics.getProcessedCount(CommandType.DIM));
+    }
+
+    @Test
+    public void testCoalescedBatchIsAppliedBeforeReturning() {
+        StreetlightService service = mock(StreetlightService.class);
+        // a window far longer than the test, so only the end of the batch can flush
+        CommandCoalescer coalescer = new CommandCoalescer(service, 60_000);
+        coalescer.start();
+        @SuppressWarnings("unchecked")
+        ObjectProvider<CommandCoalescer> coalescerProvider = mock(ObjectProvider.class);
+        when(coalescerProvider.getIfAvailable()).thenReturn(coalescer);
+        BatchCommandConsumer consumer = new BatchCommandConsumer(
+                new CommandDispatcher(service, coalescerProvider), new CommandMetrics(new SimpleMeterRegistry()),
+                topics);
+
+        add("light-1", "turn.on", new TurnOnOffCommand("on", T0, 50));
+        add("light-1", "dim", new DimLightCommand(40, T0));
+        add("light-1", "turn.off", new TurnOnOffCommand("off", T0.plusSeconds(1), 50));
+
+        consumer.consumeCommands(records);
+        verify(service).applyFinalState("light-1", false, T0.plusSeconds(1), 40, T0);
+
+        assertEquals(3, coalescer.getReceivedCount());
+        assertEquals(2, coalescer.getCollapsedCount());
+        coalescer.stop();
+    }
+
+    private void add(String streetlightId, String action, Object command) {
+        String topic = "smartylighting.streetlights.1.0.action." + streetlightId + "." + action;
+        records.add(new ConsumerRecord<>(topic, 0, records.size(), null, command));
+    }
+}
@@ -0,0 +1,58 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the command lag, processing and failure meters by command type.
+ */
+public class CommandMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CommandMetrics metrics = new CommandMetrics(registry);
+
+    @Test
+    public void testLagAndProcessingAreRecordedPerType() {
+        long start = metrics.received(CommandType.DIM, new DimLightCommand(40, LocalDateTime.now(ZoneOffset.UTC).minusSeconds(2)));
+        metrics.processed(CommandType.DIM, start);
+
+        Timer lag = registry.get("streetlights.command.lag").tag("type", "dim").timer();
+        assertEquals(1, lag.count());
+        assertTrue(lag.totalTime(TimeUnit.MILLISECONDS) >= 2000, "lag " + lag.totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(1, registry.get("streetlights.command.processing")
+                .tags("type", "dim", "outcome", "success").timer().count());
+        assertEquals(0, registry.get("streetlights.command.lag").tag("type", "turn-on").timer().count());
+    }
+
+    @Test
+    public void testSentAtAheadOfLocalClockCountsAsNoLag() {
+        metrics.received(CommandType.TURN_ON, new TurnOnOffCommand("on", LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5), 50));
+
+        assertEquals(0, registry.get("streetlights.command.lag").tag("type", "turn-on").timer()
+                .totalTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testFailuresAreCountedByTypeAndException() {
+        long start = metrics.received(CommandType.TURN_OFF, new TurnOnOffCommand("off", LocalDateTime.now(ZoneOffset.UTC), 50));
+        metrics.failed(CommandType.TURN_OFF, new IllegalStateException("store unavailable"), start);
+        metrics.failed(null, new IllegalArgumentException("missing header"), System.nanoTime());
+
+        assertEquals(1, registry.get("streetlights.command.processing")
+                .tags("type", "turn-off", "outcome", "failure").timer().count());
+        assertEquals(1, registry.get("streetlights.command.failures")
+                .tags("type", "turn-off", "exception", "IllegalStateException").counter().count());
+        assertEquals(1, registry.get("streetlights.command.failures")
+                .tags("type", "unknown", "exception", "IllegalArgumentException").counter().count());
+    }
+}
@@ -0,0 +1,70 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.service.CommandDispatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that keyed command records are routed by key and type header, and
+ * that records missing either are counted as failures instead of dispatched.
+ */
+public class KeyedCommandConsumerTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+    private final CommandDispatcher dispatcher = mock(CommandDispatcher.class);
+    private final CommandMetrics metrics = new CommandMetrics(new SimpleMeterRegistry());
+    private final KeyedCommandConsumer consumer = new KeyedCommandConsumer(dispatcher, metrics);
+
+    @Test
+    public void testDispatchesByKeyAndTypeHeader() {
+        DimLightCommand dim = new DimLightCommand(40, SENT_AT);
+        consumer.consumeCommand(dim, "light-1", CommandType.DIM.headerValue());
+
+        verify(dispatcher).dispatch("light-1", CommandType.DIM, dim);
+        assertEquals(1, metrics.getProcessedCount(CommandType.DIM));
+        assertEquals(0, metrics.getFailedCount());
+    }
+
+    @Test
+    public void testRecordWithoutKeyFails() {
+        consumer.consumeCommand(new TurnOnOffCommand("on", SENT_AT, 50), null, CommandType.TURN_ON.headerValue());
+
+        verify(dispatcher, never()).dispatch(anyString(), any(CommandType.class), any());
+        assertEquals(1, metrics.getFailedCount());
+        assertEquals(0, metrics.getProcessedCount(CommandType.TURN_ON));
+    }
+
+    @Test
+    public void testRecordWithoutOrWithUnknownTypeHeaderFails() {
+        TurnOnOffCommand command = new TurnOnOffCommand("on", SENT_AT, 50);
+        consumer.consumeCommand(command, "light-1", null);
+        consumer.consumeCommand(command, "light-1", "FLASH".getBytes(StandardCharsets.UTF_8));
+
+        verify(dispatcher, never()).dispatch(anyString(), any(CommandType.class), any());
+        assertEquals(2, metrics.getFailedCount());
+    }
+
+    @Test
+    public void testDispatchFailureIsCounted() {
+        TurnOnOffCommand command = new TurnOnOffCommand("off", SENT_AT, 50);
+        doThrow(new IllegalStateException("store unavailable"))
+                .when(dispatcher).dispatch("light-1", CommandType.TURN_OFF, command);
+
+        consumer.consumeCommand(command, "light-1", CommandType.TURN_OFF.headerValue());
+
+        assertEquals(1, metrics.getFailedCount());
+        assertEquals(0, metrics.getProcessedCount(CommandType.TURN_OFF));
+    }
+}
@@ -0,0 +1,67 @@
+package com.smartylighting.streetlights.consumer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import com.smartylighting.streetlights.service.InMemoryStreetlightStateStore;
+import com.smartylighting.streetlights.service.StreetlightService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that each summary covers only what happened since the previous one
+ * and that idle intervals produce no summary.
+ */
+public class ProcessingSummaryLoggerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSummaryCountsOnlyTheLastInterval() {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        when(template.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture((SendResult<String, Object>) null));
+        TopicResolver topicResolver = new TopicResolver("event.{streetlightId}.measured", "action.{streetlightId}.on",
+                "action.{streetlightId}.off", "action.{streetlightId}.dim", 100);
+        // not started, so measurements are sent on the calling thread
+        LightMeasurementProducer producer = new LightMeasurementProducer(template, topicResolver, 8, 4, "block",
+                new SimpleMeterRegistry());
+        StreetlightService service = new StreetlightService(producer, new InMemoryStreetlightStateStore());
+        CommandMetrics metrics = new CommandMetrics(new SimpleMeterRegistry());
+        ProcessingSummaryLogger summaryLogger = new ProcessingSummaryLogger(metrics, service, producer, 0);
+
+        assertNull(summaryLogger.summarize());
+
+        LocalDateTime sentAt = LocalDateTime.now();
+        service.turnOn("light-1", new TurnOnOffCommand("on", sentAt, 50));
+        service.dim("light-1", new DimLightCommand(40, sentAt.plusSeconds(1), 50));
+        service.turnOff("light-1", new TurnOnOffCommand("off", sentAt.minusSeconds(1), 50));
+        metrics.processed(CommandType.TURN_ON, System.nanoTime());
+        metrics.processed(CommandType.DIM, System.nanoTime());
+        metrics.processed(CommandType.TURN_OFF, System.nanoTime());
+        metrics.failed(CommandType.DIM, new IllegalStateException("store unavailable"), System.nanoTime());
+
+        String summary = summaryLogger.summarize();
+        assertNotNull(summary);
+        assertTrue(summary.contains("3 command(s) processed (turn-on 1, turn-off 1, dim 1)"), summary);
+        assertTrue(summary.contains("1 failed, 1 stale"), summary);
+        assertTrue(summary.contains("1 measurement(s) published, 0 failed, 0 dropped"), summary);
+
+        assertNull(summaryLogger.summarize());
+
+        metrics.processed(CommandType.TURN_ON, System.nanoTime());
+        assertTrue(summaryLogger.summarize().contains("1 command(s) processed (turn-on 1, turn-off 0, dim 0)"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.smartylighting.streetlights.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.service.BulkCommandService;
+import com.smartylighting.streetlights.service.FleetAggregates;
+import com.smartylighting.streetlights.service.PackedStreetlightStateStore;
+import com.smartylighting.streetlights.service.StreetlightService;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import com.smartylighting.streetlights.service.StreetlightStateStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Pages through the NDJSON state stream of a packed store and checks that bad
+ * parameters are rejected with 400 before any state is streamed.
+ */
+public class StreetlightControllerTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        StreetlightStateStore store = new PackedStreetlightStateStore();
+        for (int i = 0; i < 5; i++) {
+            store.put("light-" + i, new StreetlightState("light-" + i, i % 2 == 0, 20 * i, SENT_AT));
+        }
+        StreetlightService streetlightService = new StreetlightService(mock(LightMeasurementProducer.class), store);
+        StreetlightController controller = new StreetlightController(streetlightService, mock(CommandPublisher.class),
+                mock(BulkCommandService.class), mock(FleetAggregates.class), mock(LightMeasurementProducer.class),
+                mock(ObjectProvider.class), mock(ObjectProvider.class), objectMapper);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    public void testStreamsAllStatesPageByPage() throws Exception {
+        List<String> streamed = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            List<JsonNode> lines = streamPage(cursor, 2);
+            JsonNode last = lines.get(lines.size() - 1);
+            lines.subList(0, lines.size() - 1).forEach(line -> streamed.add(line.get("streetlightId").asText()));
+            cursor = last.get("nextCursor").isNull() ? null : last.get("nextCursor").asText();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(List.of("light-0", "light-1", "light-2", "light-3", "light-4"), streamed);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void testFilterAppliesToStreamedStates() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/v1/streetlights/states/stream")
+                        .param("on", "true").param("minDim", "40"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        List<String> ids = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            JsonNode node = objectMapper.readTree(line);
+            if (node.has("streetlightId")) {
+                ids.add(node.get("streetlightId").asText());
+            }
+        }
+        assertEquals(List.of("light-2", "light-4"), ids);
+    }
+
+    @Test
+    public void testInvalidCursorIsRejectedBeforeStreaming() throws Exception {
+        for (String cursor : new String[]{"not-a-slot", "-1", "99999999999"}) {
+            MvcResult rejected = mockMvc.perform(get("/api/v1/streetlights/states/stream").param("cursor", cursor))
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(rejected))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(jsonPath("$.error").value(containsString(cursor)));
+        }
+    }
+
+    @Test
+    public void testInvalidLimitIsRejected() throws Exception {
+        for (String[] params : new String[][]{{"limit", "0"}, {"limit", "50001"}, {"minDim", "101"}}) {
+            MvcResult rejected = mockMvc.perform(get("/api/v1/streetlights/states/stream").param(params[0], params[1]))
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(rejected))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.error").exists());
+        }
+    }
+
+    private List<JsonNode> streamPage(String cursor, int limit) throws Exception {
+        MockHttpServletRequestBuilder request = get("/api/v1/streetlights/states/stream")
+                .param("limit", Integer.toString(limit));
+        if (cursor != null) {
+            request.param("cursor", cursor);
+        }
+        MvcResult started = mockMvc.perform(request)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            lines.add(objectMapper.readTree(line));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,102 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.service.PartitionOwnership;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the records {@link CommandPublisher} produces in the per-light and
+ * keyed layouts: topic, key, partition and command type header.
+ */
+public class CommandPublisherTest {
+
+    private static final String COMMAND_TOPIC = "smartylighting.streetlights.1.0.command";
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+    private final TopicResolver topicResolver = new TopicResolver(
+            "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.dim", 100);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testKeyedLayoutUsesCommandTopicKeyAndTypeHeader() {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        CommandPublisher publisher = new CommandPublisher(template, topicResolver, COMMAND_TOPIC, "keyed");
+
+        publisher.send("light-1", CommandType.TURN_ON, new TurnOnOffCommand("on", SENT_AT, 50));
+        publisher.send("light-1", CommandType.DIM, new DimLightCommand(40, SENT_AT));
+        publisher.send("light-2", CommandType.TURN_OFF, new TurnOnOffCommand("off", SENT_AT, 50));
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(template, times(3)).send(sent.capture());
+        List<ProducerRecord<String, Object>> records = sent.getAllValues();
+
+        assertEquals(List.of("TURN_ON", "DIM", "TURN_OFF"),
+                records.stream().map(CommandPublisherTest::typeHeader).toList());
+        for (ProducerRecord<String, Object> record : records) {
+            assertEquals(COMMAND_TOPIC, record.topic());
+            // no explicit partition: the key alone routes all of a light's commands to one partition
+            assertNull(record.partition());
+            assertEquals(1, record.headers().toArray().length);
+        }
+        assertEquals("light-1", records.get(0).key());
+        assertEquals("light-1", records.get(1).key());
+        assertEquals("light-2", records.get(2).key());
+
+        // the producer's default partitioner and partition ownership agree on the light's partition
+        for (int partitions : new int[] {1, 12, 48}) {
+            int byPartitioner = Utils.toPositive(Utils.murmur2(
+                    records.get(0).key().getBytes(StandardCharsets.UTF_8))) % partitions;
+            assertEquals(PartitionOwnership.partitionOf("light-1", partitions), byPartitioner);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPerLightLayoutUsesActionTopicsWithoutHeader() {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        CommandPublisher publisher = new CommandPublisher(template, topicResolver, COMMAND_TOPIC, "per-light");
+
+        publisher.send("light-1", CommandType.TURN_OFF, new TurnOnOffCommand("off", SENT_AT, 50));
+        publisher.send("light-1", CommandType.DIM, new DimLightCommand(40, SENT_AT));
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(template, times(2)).send(sent.capture());
+
+        ProducerRecord<String, Object> turnOff = sent.getAllValues().get(0);
+        assertEquals("smartylighting.streetlights.1.0.action.light-1.turn.off", turnOff.topic());
+        assertEquals("light-1", turnOff.key());
+        assertNull(turnOff.headers().lastHeader(CommandType.HEADER));
+        assertEquals("smartylighting.streetlights.1.0.action.light-1.dim", sent.getAllValues().get(1).topic());
+    }
+
+    @Test
+    public void testCompatLayoutPublishesKeyed() {
+        @SuppressWarnings("unchecked")
+        CommandPublisher publisher = new CommandPublisher(mock(KafkaTemplate.class), topicResolver, COMMAND_TOPIC,
+                "compat");
+
+        assertEquals(COMMAND_TOPIC, publisher.topicFor("light-1", CommandType.DIM));
+    }
+
+    private static String typeHeader(ProducerRecord<String, Object> record) {
+        Header header = record.headers().lastHeader(CommandType.HEADER);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that measurements are sent from the sender thread in order, and how
+ * a full buffer is handled under each overflow policy.
+ */
+public class LightMeasurementProducerTest {
+
+    private static final LightMeasuredEvent EVENT = new LightMeasuredEvent(2500, LocalDateTime.now(), 7);
+
+    private final List<String> sentKeys = new CopyOnWriteArrayList<>();
+    private final List<String> senderThreads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    public void testMeasurementsAreSentInOrderFromSenderThread() throws InterruptedException {
+        LightMeasurementProducer producer = new LightMeasurementProducer(template(false), topicResolver(), 1024, 100, "block",
+                new SimpleMeterRegistry());
+        producer.start();
+        for (int i = 0; i < 500; i++) {
+            producer.publishLightMeasurement("light-" + i, EVENT);
+        }
+        producer.stop();
+
+        assertEquals(500, sentKeys.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("light-" + i, sentKeys.get(i));
+        }
+        assertTrue(senderThreads.stream().allMatch("measurement-sender"::equals));
+        assertEquals(500, producer.getPublishedCount());
+        assertEquals(0, producer.getBackpressureWaitCount());
+    }
+
+    @Test
+    public void testDropPolicyNeverWaitsOnStalledProducer() throws InterruptedException {
+        LightMeasurementProducer producer = new LightMeasurementProducer(template(true), topicResolver(), 8, 4, "drop",
+                new SimpleMeterRegistry());
+        producer.start();
+
+        // the sender stays stalled until release, so a publisher that waits for space never gets through
+        CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                producer.publishLightMeasurement("light-" + i, EVENT);
+            }
+            published.countDown();
+        });
+        publisher.start();
+
+        assertTrue(published.await(10, TimeUnit.SECONDS), "publisher waited on the stalled producer");
+        assertEquals(0, producer.getBackpressureWaitCount());
+        assertTrue(producer.getDroppedCount() > 0);
+        assertEquals(100, producer.getEnqueuedCount() + producer.getDroppedCount());
+
+        release.countDown();
+        producer.stop();
+        assertEquals(producer.getEnqueuedCount(), sentKeys.size());
+    }
+
+    @Test
+    public void testBlockPolicyCountsBackpressure() throws InterruptedException {
+        LightMeasurementProducer producer = new LightMeasurementProducer(template(true), topicResolver(), 8, 4, "block",
+                new SimpleMeterRegistry());
+        producer.start();
+
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                producer.publishLightMeasurement("light-" + i, EVENT);
+            }
+        });
+        publisher.start();
+        for (int i = 0; i < 1000 && producer.getBackpressureWaitCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(producer.getBackpressureWaitCount() > 0);
+
+        release.countDown();
+        publisher.join(5000);
+        producer.stop();
+        assertEquals(50, sentKeys.size());
+        assertEquals(0, producer.getDroppedCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPublishAcknowledgementsAndFailuresAreMetered() {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        when(template.send(anyString(), anyString(), any())).thenAnswer(invocation ->
+                "light-bad".equals(invocation.getArgument(1))
+                        ? CompletableFuture.failedFuture(new TimeoutException("no ack"))
+                        : CompletableFuture.completedFuture((SendResult<String, Object>) null));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LightMeasurementProducer producer = new LightMeasurementProducer(template, topicResolver(), 8, 4, "block",
+                registry);
+        producer.start();
+        producer.publishLightMeasurement("light-1", EVENT);
+        producer.publishLightMeasurement("light-2", EVENT);
+        producer.publishLightMeasurement("light-bad", EVENT);
+        producer.stop();
+
+        assertEquals(2, registry.get("streetlights.measurement.publish").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get("streetlights.measurement.publish").tag("outcome", "failure").timer().count());
+        assertEquals(1, registry.get("streetlights.measurement.publish.failures")
+                .tag("exception", "TimeoutException").counter().count());
+        assertEquals(3, registry.get("streetlights.measurement.enqueued").functionCounter().count());
+    }
+
+    private static TopicResolver topicResolver() {
+        return new TopicResolver("event.{streetlightId}.measured", "action.{streetlightId}.on",
+                "action.{streetlightId}.off", "action.{streetlightId}.dim", 100);
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaTemplate<String, Object> template(boolean stalled) {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        when(template.send(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            if (stalled) {
+                release.await();
+            }
+            sentKeys.add(invocation.getArgument(1));
+            senderThreads.add(Thread.currentThread().getName());
+            return CompletableFuture.completedFuture((SendResult<String, Object>) null);
+        });
+        return template;
+    }
+}
@@ -0,0 +1,133 @@
+package com.smartylighting.streetlights.producer;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that {@link TopicResolver} builds the same names as the old
+ * {@code String.format} code, from the cache and past its bound, and takes
+ * received names apart again by the same templates. Speed and allocation are
+ * measured by the {@code TopicResolverBenchmark} JMH benchmark.
+ */
+public class TopicResolverTest {
+
+    private final TopicResolver resolver = new TopicResolver(
+            "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+            "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+            100_000);
+
+    @Test
+    public void testResolvesConfiguredTemplates() {
+        assertEquals("smartylighting.streetlights.1.0.event.light-42.lighting.measured",
+                resolver.lightMeasuredTopic("light-42"));
+        assertEquals("smartylighting.streetlights.1.0.action.light-42.turn.on",
+                resolver.commandTopic("light-42", CommandType.TURN_ON));
+        assertEquals("smartylighting.streetlights.1.0.action.light-42.turn.off",
+                resolver.commandTopic("light-42", CommandType.TURN_OFF));
+        assertEquals("smartylighting.streetlights.1.0.action.light-42.dim",
+                resolver.commandTopic("light-42", CommandType.DIM));
+
+        TopicResolver custom = new TopicResolver("{streetlightId}", "cmd.{streetlightId}.on",
+                "cmd.{streetlightId}.off", "cmd.{streetlightId}.dim", 0);
+        assertEquals("light-42", custom.lightMeasuredTopic("light-42"));
+        assertEquals("cmd.light-42.dim", custom.commandTopic("light-42", CommandType.DIM));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new TopicResolver("no-placeholder", "a", "b", "c", 10));
+    }
+
+    @Test
+    public void testMatchesFormatWithAndWithoutCache() {
+        TopicResolver uncached = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+                0);
+        for (int i = 0; i < 100; i++) {
+            String id = "light-" + i;
+            String expected = String.format("smartylighting.streetlights.1.0.event.%s.lighting.measured", id);
+            assertEquals(expected, resolver.lightMeasuredTopic(id));
+            assertEquals(expected, resolver.lightMeasuredTopic(id));
+            assertEquals(expected, uncached.lightMeasuredTopic(id));
+        }
+    }
+
+    @Test
+    public void testListenerPatternsMatchResolvedTopics() {
+        for (TopicResolver topics : List.of(resolver, new TopicResolver("m.{streetlightId}", "c.{streetlightId}.on",
+                "c.{streetlightId}.off", "c.{streetlightId}.dim", 0))) {
+            Pattern measured = Pattern.compile(topics.lightMeasuredTopicPattern());
+            Pattern dim = Pattern.compile(topics.commandTopicPattern(CommandType.DIM));
+            Pattern allCommands = Pattern.compile(topics.commandTopicsPattern());
+
+            assertTrue(measured.matcher(topics.lightMeasuredTopic("light-42")).matches());
+            assertFalse(measured.matcher(topics.commandTopic("light-42", CommandType.DIM)).matches());
+            assertTrue(dim.matcher(topics.commandTopic("light-42", CommandType.DIM)).matches());
+            assertFalse(dim.matcher(topics.commandTopic("light-42", CommandType.TURN_ON)).matches());
+            for (CommandType type : CommandType.values()) {
+                assertTrue(allCommands.matcher(topics.commandTopic("light-42", type)).matches(), type.name());
+            }
+            assertFalse(allCommands.matcher(topics.lightMeasuredTopic("light-42")).matches());
+        }
+        // template dots are literal, not "any character"
+        assertFalse(Pattern.compile(resolver.commandTopicPattern(CommandType.DIM))
+                .matcher("smartylighting-streetlights-1-0-action-light-42-dim").matches());
+    }
+
+    @Test
+    public void testParsesResolvedTopics() {
+        assertEquals("light-42", resolver.streetlightId("smartylighting.streetlights.1.0.action.light-42.turn.on"));
+        assertEquals(CommandType.TURN_ON,
+                resolver.commandType("smartylighting.streetlights.1.0.action.light-42.turn.on"));
+        assertEquals("light-42",
+                resolver.streetlightId("smartylighting.streetlights.1.0.event.light-42.lighting.measured"));
+        assertTrue(resolver.isLightMeasuredTopic("smartylighting.streetlights.1.0.event.light-42.lighting.measured"));
+        assertNull(resolver.commandType("smartylighting.streetlights.1.0.event.light-42.lighting.measured"));
+        // a second call is served from the cache
+        assertEquals("light-42", resolver.streetlightId("smartylighting.streetlights.1.0.action.light-42.turn.on"));
+
+        // IDs may contain the separator, and the layout need not have five segments in front
+        TopicResolver custom = new TopicResolver("telemetry.{streetlightId}", "city.{streetlightId}.switch-on",
+                "city.{streetlightId}.switch-off", "city.{streetlightId}.dimmer", 0);
+        for (String id : List.of("light-42", "zone.7.light-42")) {
+            for (CommandType type : CommandType.values()) {
+                assertEquals(id, custom.streetlightId(custom.commandTopic(id, type)));
+                assertEquals(type, custom.commandType(custom.commandTopic(id, type)));
+            }
+            assertEquals(id, custom.streetlightId(custom.lightMeasuredTopic(id)));
+            assertTrue(custom.isLightMeasuredTopic(custom.lightMeasuredTopic(id)));
+        }
+        // the default layout's names do not fit the custom templates
+        assertNull(custom.streetlightId("smartylighting.streetlights.1.0.action.light-42.turn.on"));
+    }
+
+    @Test
+    public void testMostSpecificTemplateWins() {
+        TopicResolver overlapping = new TopicResolver("{streetlightId}", "cmd.{streetlightId}.on",
+                "cmd.{streetlightId}.off", "cmd.{streetlightId}.dim", 10);
+
+        assertEquals(CommandType.DIM, overlapping.commandType("cmd.light-42.dim"));
+        assertEquals("light-42", overlapping.streetlightId("cmd.light-42.dim"));
+        assertTrue(overlapping.isLightMeasuredTopic("light-42"));
+        assertEquals("light-42", overlapping.streetlightId("light-42"));
+    }
+
+    @Test
+    public void testUnmatchedTopicsHaveNoStreetlight() {
+        assertNull(resolver.streetlightId(""));
+        assertNull(resolver.streetlightId("some.other.topic"));
+        // the ID would be empty
+        assertNull(resolver.streetlightId("smartylighting.streetlights.1.0.action..turn.on"));
+        assertNull(resolver.commandType("smartylighting.streetlights.1.0.action..turn.on"));
+        assertFalse(resolver.isLightMeasuredTopic("smartylighting.streetlights.1.0.action.light-42.dim"));
+        assertNull(resolver.commandType("smartylighting.streetlights.1.0.action.commands"));
+    }
+}
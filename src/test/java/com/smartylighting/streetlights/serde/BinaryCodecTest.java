@@ -0,0 +1,80 @@
+package com.smartylighting.streetlights.serde;
+
+import com.smartylighting.streetlights.config.PayloadTypeResolver;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round-trips every payload through both formats and compares their size.
+ * Encode and decode speed is measured by the {@code BinaryCodecBenchmark} JMH
+ * benchmark.
+ */
+public class BinaryCodecTest {
+
+    private static final String EVENT_TOPIC = "smartylighting.streetlights.1.0.event.bench-001.lighting.measured";
+    private static final String DIM_TOPIC = "smartylighting.streetlights.1.0.action.bench-001.dim";
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_000_000);
+
+    private final StreetlightsSerializer binarySerializer = new StreetlightsSerializer(
+            List.of("smartylighting.streetlights.1.0.event.", "smartylighting.streetlights.1.0.action."));
+    private final StreetlightsSerializer jsonSerializer = new StreetlightsSerializer(List.of());
+    private final StreetlightsDeserializer deserializer = new StreetlightsDeserializer(jsonDelegate());
+
+    @Test
+    public void testRoundTripsInBothFormats() {
+        List<Object> payloads = List.of(
+                new LightMeasuredEvent(3000, SENT_AT, 42),
+                new DimLightCommand(60, SENT_AT, 50),
+                new DimLightCommand(0, null),
+                new TurnOnOffCommand("on", SENT_AT, 50),
+                new TurnOnOffCommand("off", SENT_AT, null));
+
+        for (Object payload : payloads) {
+            String topic = payload instanceof LightMeasuredEvent ? EVENT_TOPIC
+                    : payload instanceof DimLightCommand ? DIM_TOPIC
+                    : "smartylighting.streetlights.1.0.action.bench-001.turn.on";
+
+            assertEquals(payload.toString(), roundTrip(binarySerializer, topic, payload).toString());
+            assertEquals(payload.toString(), roundTrip(jsonSerializer, topic, payload).toString());
+        }
+    }
+
+    @Test
+    public void testBinaryIsAFractionOfJsonSize() {
+        LightMeasuredEvent event = new LightMeasuredEvent(3000, SENT_AT, 42);
+
+        int jsonSize = jsonSerializer.serialize(EVENT_TOPIC, new RecordHeaders(), event).length;
+        int binarySize = binarySerializer.serialize(EVENT_TOPIC, new RecordHeaders(), event).length;
+
+        assertTrue(binarySize * 4 < jsonSize,
+                "binary payload of " + binarySize + " bytes should be a fraction of the JSON " + jsonSize);
+    }
+
+    private Object roundTrip(StreetlightsSerializer serializer, String topic, Object payload) {
+        RecordHeaders headers = new RecordHeaders();
+        byte[] data = serializer.serialize(topic, headers, payload);
+        return deserializer.deserialize(topic, headers, data);
+    }
+
+    private static JsonDeserializer<Object> jsonDelegate() {
+        JsonDeserializer<Object> json = new JsonDeserializer<>(Object.class, false);
+        TopicResolver topics = new TopicResolver(
+                "smartylighting.streetlights.1.0.event.{streetlightId}.lighting.measured",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.on",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.turn.off",
+                "smartylighting.streetlights.1.0.action.{streetlightId}.dim",
+                1000);
+        json.setTypeResolver(new PayloadTypeResolver(topics)::resolveType);
+        return json;
+    }
+}
@@ -0,0 +1,167 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that acknowledged sends complete with the broker's metadata, time
+ * out without releasing their in-flight slot early, are refused beyond the
+ * in-flight limit, and never block the caller on a stalled producer.
+ */
+public class AcknowledgedCommandServiceTest {
+
+    private final BlockingQueue<CompletableFuture<SendResult<String, Object>>> pending = new LinkedBlockingQueue<>();
+    private final CountDownLatch producerRunning = new CountDownLatch(0);
+    private final TurnOnOffCommand command = new TurnOnOffCommand("on", LocalDateTime.now(ZoneOffset.UTC), 50);
+    private AcknowledgedCommandService service;
+
+    @AfterEach
+    public void stopService() {
+        service.stop();
+    }
+
+    @Test
+    public void testCompletesWithBrokerMetadata() throws Exception {
+        service = service(5_000, 10);
+
+        CompletableFuture<SendResult<String, Object>> response = service.send("light-1", CommandType.TURN_ON, command);
+        CompletableFuture<SendResult<String, Object>> sent = nextSend();
+        assertFalse(response.isDone(), "must not answer before the broker acknowledges");
+        acknowledge(sent, 42);
+
+        assertEquals(42, response.get().getRecordMetadata().offset());
+        awaitInFlight(0);
+        assertEquals(1, service.getAcknowledgedCount());
+    }
+
+    @Test
+    public void testTimesOutButKeepsSlotUntilBrokerAnswers() throws Exception {
+        service = service(50, 1);
+
+        CompletableFuture<SendResult<String, Object>> response = service.send("light-1", CommandType.TURN_ON, command);
+        ExecutionException e = assertThrows(ExecutionException.class, response::get);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(1, service.getTimedOutCount());
+        assertEquals(1, service.getInFlightCount());
+
+        acknowledge(nextSend(), 7);
+        awaitInFlight(0);
+        assertEquals(1, service.getAcknowledgedCount());
+    }
+
+    @Test
+    public void testRejectsBeyondInFlightLimit() throws Exception {
+        service = service(5_000, 2);
+
+        service.send("light-1", CommandType.TURN_ON, command);
+        service.send("light-2", CommandType.TURN_ON, command);
+        CompletableFuture<SendResult<String, Object>> refused = service.send("light-3", CommandType.TURN_ON, command);
+
+        ExecutionException e = assertThrows(ExecutionException.class, refused::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1, service.getRejectedCount());
+
+        nextSend().completeExceptionally(new IllegalStateException("broker unavailable"));
+        nextSend();
+        awaitInFlight(1);
+        assertEquals(1, service.getFailedCount());
+        assertNotNull(service.send("light-3", CommandType.TURN_ON, command));
+        assertNotNull(nextSend());
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void testStalledProducerDoesNotBlockTheCaller() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        service = service(50, 1, stalled);
+
+        // returns although the producer stays blocked until the latch opens
+        CompletableFuture<SendResult<String, Object>> response = service.send("light-1", CommandType.TURN_ON, command);
+        assertFalse(response.isDone());
+
+        ExecutionException e = assertThrows(ExecutionException.class, response::get);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(1, service.getTimedOutCount());
+        assertEquals(1, service.getInFlightCount(), "slot is held while the producer is blocked");
+
+        // the producer gives up after max.block.ms
+        stalled.countDown();
+        nextSend().completeExceptionally(new IllegalStateException("max.block.ms elapsed"));
+        awaitInFlight(0);
+        assertEquals(1, service.getFailedCount());
+    }
+
+    private AcknowledgedCommandService service(long timeoutMs, int maxInFlight) {
+        return service(timeoutMs, maxInFlight, producerRunning);
+    }
+
+    private AcknowledgedCommandService service(long timeoutMs, int maxInFlight, CountDownLatch stalled) {
+        TopicResolver topicResolver = new TopicResolver("event.{streetlightId}.measured", "action.{streetlightId}.on",
+                "action.{streetlightId}.off", "action.{streetlightId}.dim", 100);
+        return new AcknowledgedCommandService(
+                new CommandPublisher(template(stalled), topicResolver, "commands", "per-light"),
+                timeoutMs, maxInFlight, 1);
+    }
+
+    private CompletableFuture<SendResult<String, Object>> nextSend() throws InterruptedException {
+        CompletableFuture<SendResult<String, Object>> sent = pending.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sent, "no record reached the producer");
+        return sent;
+    }
+
+    /**
+     * The broker's answer may be handled on the sender thread, when it arrives
+     * before the sender has started waiting for it.
+     */
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getInFlightCount() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, service.getInFlightCount());
+    }
+
+    private static void acknowledge(CompletableFuture<SendResult<String, Object>> future, long offset) {
+        RecordMetadata metadata = new RecordMetadata(new TopicPartition("action.light-1.on", 0), offset, 0,
+                System.currentTimeMillis(), 0, 0);
+        future.complete(new SendResult<>(null, metadata));
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaTemplate<String, Object> template(CountDownLatch stalled) {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            // like KafkaProducer.send waiting for metadata or buffer space
+            stalled.await();
+            CompletableFuture<SendResult<String, Object>> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+        return template;
+    }
+}
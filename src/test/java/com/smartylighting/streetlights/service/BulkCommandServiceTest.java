@@ -0,0 +1,220 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.BulkCommandRequest;
+import com.smartylighting.streetlights.model.command.BulkCommandRequest.IdRange;
+import com.smartylighting.streetlights.model.command.BulkCommandRequest.Selector;
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.producer.TopicResolver;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks target resolution and that the fan-out counts every acknowledgement
+ * without exceeding the in-flight limit.
+ */
+public class BulkCommandServiceTest {
+
+    private final Queue<ProducerRecord<String, Object>> sent = new ConcurrentLinkedQueue<>();
+    private final Queue<CompletableFuture<SendResult<String, Object>>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+    private final StreetlightService streetlightService =
+            new StreetlightService(mock(LightMeasurementProducer.class), new InMemoryStreetlightStateStore());
+    private final StreetlightGroupRegistry groupRegistry = new StreetlightGroupRegistry(streetlightService);
+
+    @Test
+    public void testRangeFanOutRunsAsJobAndCountsAcks() throws InterruptedException {
+        BulkCommandService service = service(template(null), 100);
+
+        BulkCommandJob job = service.submit(new BulkCommandRequest("dim", 40, null,
+                new IdRange("light-", 1, 20_000, 5), null));
+        assertSame(job, service.getJob(job.getJobId()));
+
+        while (job.getStatus() == BulkCommandJob.Status.RUNNING) {
+            Thread.sleep(10);
+        }
+        assertEquals(BulkCommandJob.Status.COMPLETED, job.getStatus());
+        assertEquals(20_000, job.getRequested());
+        assertEquals(20_000, job.getAccepted());
+        assertEquals(0, job.getFailed());
+
+        Set<String> keys = new HashSet<>();
+        sent.forEach(record -> keys.add(record.key()));
+        assertEquals(20_000, keys.size());
+        assertTrue(keys.contains("light-00001"));
+        assertTrue(keys.contains("light-20000"));
+        // all records share one command, so they carry one sentAt
+        assertEquals(1, sent.stream().map(ProducerRecord::value).distinct().count());
+        assertEquals(40, ((DimLightCommand) sent.peek().value()).getPercentage());
+    }
+
+    @Test
+    public void testSmallFanOutIsSynchronousAndCountsFailures() {
+        BulkCommandService service = service(template("light-b"), 100);
+
+        BulkCommandJob job = service.submit(new BulkCommandRequest("turn-on", null,
+                List.of("light-a", "light-b", "light-c"), null, null));
+
+        assertEquals(BulkCommandJob.Status.COMPLETED, job.getStatus());
+        assertEquals(CommandType.TURN_ON, job.getCommand());
+        assertEquals(2, job.getAccepted());
+        assertEquals(1, job.getFailed());
+    }
+
+    @Test
+    public void testInFlightSendsAreBounded() throws InterruptedException {
+        BulkCommandService service = service(template(null, true), 10);
+
+        BulkCommandJob job = service.submit(new BulkCommandRequest("turn-off", null, null,
+                new IdRange("light-", 0, 999, 0), null));
+
+        // acknowledge as the broker would, a little behind the sender
+        while (job.getStatus() == BulkCommandJob.Status.RUNNING) {
+            CompletableFuture<SendResult<String, Object>> future = pending.poll();
+            if (future == null) {
+                Thread.sleep(1);
+                continue;
+            }
+            outstanding.decrementAndGet();
+            future.complete(null);
+        }
+        assertEquals(1000, job.getAccepted());
+        assertTrue(maxOutstanding.get() <= 10, "outstanding sends reached " + maxOutstanding.get());
+    }
+
+    @Test
+    public void testSelectorMatchesKnownStates() {
+        LocalDateTime now = LocalDateTime.now();
+        streetlightService.turnOn("north-1", new TurnOnOffCommand("on", now, 50));
+        streetlightService.turnOn("north-2", new TurnOnOffCommand("on", now, 50));
+        streetlightService.dim("north-2", new DimLightCommand(20, now.plusSeconds(1)));
+        streetlightService.turnOn("south-1", new TurnOnOffCommand("on", now, 50));
+        BulkCommandService service = service(template(null), 100);
+
+        List<String> targets = service.resolveTargets(new BulkCommandRequest("turn-off", null, null, null,
+                new Selector("north-", true, 50, null)));
+
+        assertEquals(List.of("north-1"), targets);
+    }
+
+    @Test
+    public void testGroupSelectorResolvesFromGroupMembers() {
+        LocalDateTime now = LocalDateTime.now();
+        groupRegistry.addMembers("district-7", List.of("light-1", "light-2", "light-3"));
+        groupRegistry.addMembers("circuit-a", List.of("light-2", "light-3", "light-9"));
+        streetlightService.turnOn("light-2", new TurnOnOffCommand("on", now, 50));
+        BulkCommandService service = service(template(null), 100);
+
+        assertEquals(List.of("light-2", "light-3"), service.resolveTargets(new BulkCommandRequest("dim", 50,
+                null, null, new Selector(null, List.of("district-7", "circuit-a"), null, null, null, null))));
+        assertEquals(List.of("light-2"), service.resolveTargets(new BulkCommandRequest("dim", 50,
+                null, null, new Selector(List.of("district-7"), null, null, true, null, null))));
+
+        BulkCommandJob job = service.submit(new BulkCommandRequest("turn-off", null, null, null,
+                new Selector(List.of("district-7", "circuit-a"), null, null, null, null, null)));
+        assertEquals(4, job.getAccepted());
+    }
+
+    @Test
+    public void testInvalidRequestsAreRejected() {
+        BulkCommandService service = service(template(null), 100);
+
+        assertThrows(IllegalArgumentException.class, () -> service.submit(
+                new BulkCommandRequest("dim", null, List.of("light-a"), null, null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(
+                new BulkCommandRequest("blink", null, List.of("light-a"), null, null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                List.of("light-a"), new IdRange("light-", 1, 2, 0), null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                null, new IdRange("light-", 1, 2_000_000, 0), null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                null, new IdRange("light-", 0, Long.MAX_VALUE, 0), null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                null, new IdRange("light-", 1, 2, Integer.MAX_VALUE), null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                null, new IdRange("x".repeat(BulkCommandService.MAX_ID_LENGTH), 1, 2, 0), null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                Arrays.asList("light-a", null), null, null)));
+        assertThrows(IllegalArgumentException.class, () -> service.submit(new BulkCommandRequest("turn-on", null,
+                List.of("light-a", " "), null, null)));
+        assertTrue(sent.isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRunningJobsAreNotEvicted() {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        // the range job's sends are never acknowledged, so it keeps running
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation ->
+                ((ProducerRecord<String, Object>) invocation.getArgument(0)).key().startsWith("stuck-")
+                        ? new CompletableFuture<>()
+                        : CompletableFuture.completedFuture(null));
+        BulkCommandService service = service(template, 100);
+
+        BulkCommandJob running = service.submit(new BulkCommandRequest("turn-on", null, null,
+                new IdRange("stuck-", 1, 100, 0), null));
+        BulkCommandJob firstFinished = service.submit(new BulkCommandRequest("turn-on", null,
+                List.of("light-a"), null, null));
+        for (int i = 0; i < 20; i++) {
+            service.submit(new BulkCommandRequest("turn-on", null, List.of("light-a"), null, null));
+        }
+
+        assertSame(running, service.getJob(running.getJobId()));
+        assertEquals(BulkCommandJob.Status.RUNNING, running.getStatus());
+        assertNull(service.getJob(firstFinished.getJobId()));
+    }
+
+    private BulkCommandService service(KafkaTemplate<String, Object> template, int maxInFlight) {
+        TopicResolver topicResolver = new TopicResolver("event.{streetlightId}.measured", "action.{streetlightId}.on",
+                "action.{streetlightId}.off", "action.{streetlightId}.dim", 100);
+        CommandPublisher publisher = new CommandPublisher(template, topicResolver, "commands", "keyed");
+        return new BulkCommandService(publisher, streetlightService, groupRegistry,
+                1_000_000, 10, maxInFlight, 2, 10);
+    }
+
+    private KafkaTemplate<String, Object> template(String failingId) {
+        return template(failingId, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaTemplate<String, Object> template(String failingId, boolean deferred) {
+        KafkaTemplate<String, Object> template = mock(KafkaTemplate.class);
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            ProducerRecord<String, Object> record = invocation.getArgument(0);
+            sent.add(record);
+            if (record.key().equals(failingId)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("broker unavailable"));
+            }
+            if (!deferred) {
+                return CompletableFuture.completedFuture((SendResult<String, Object>) null);
+            }
+            maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+            CompletableFuture<SendResult<String, Object>> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+        return template;
+    }
+}
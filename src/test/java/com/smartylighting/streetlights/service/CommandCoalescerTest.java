@@ -0,0 +1,122 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.model.event.LightMeasuredEvent;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class CommandCoalescerTest {
+
+    @Test
+    public void testFoldsCommandsToLatestStatePerLight() {
+        StreetlightService streetlightService = mock(StreetlightService.class);
+        CommandCoalescer coalescer = new CommandCoalescer(streetlightService, 50);
+
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+        coalescer.submit("light-1", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(30, t0.plusNanos(1_000_000)));
+        coalescer.submit("light-1", CommandType.TURN_OFF, new TurnOnOffCommand("off", t0.plusNanos(3_000_000), 50));
+        // arrives last but was sent before the dim above, so it must not win
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(80, t0.plusNanos(500_000)));
+        coalescer.submit("light-2", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+
+        coalescer.flush();
+
+        verify(streetlightService).applyFinalState("light-1",
+                false, t0.plusNanos(3_000_000), 30, t0.plusNanos(1_000_000));
+        verify(streetlightService).applyFinalState("light-2", true, t0, null, null);
+        verifyNoMoreInteractions(streetlightService);
+
+        assertEquals(5, coalescer.getReceivedCount());
+        assertEquals(2, coalescer.getAppliedCount());
+        assertEquals(3, coalescer.getCollapsedCount());
+    }
+
+    @Test
+    public void testSentAtOrdersCommandsAndArrivalOrderBreaksTies() {
+        StreetlightService streetlightService = mock(StreetlightService.class);
+        CommandCoalescer coalescer = new CommandCoalescer(streetlightService, 50);
+
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+        // sent later, delivered first
+        coalescer.submit("light-1", CommandType.TURN_OFF, new TurnOnOffCommand("off", t0.plusSeconds(2), 50));
+        coalescer.submit("light-1", CommandType.TURN_ON, new TurnOnOffCommand("on", t0.plusSeconds(1), 50));
+        // same sentAt, so the later arrival wins
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(20, t0));
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(60, t0));
+        // no sentAt, so arrival order decides
+        coalescer.submit("light-2", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+        coalescer.submit("light-2", CommandType.TURN_OFF, new TurnOnOffCommand("off", null, 50));
+
+        coalescer.flush();
+
+        verify(streetlightService).applyFinalState("light-1", false, t0.plusSeconds(2), 60, t0);
+        verify(streetlightService).applyFinalState("light-2", false, null, null, null);
+    }
+
+    @Test
+    public void testNewLightIsMeasuredOnlyWhenADimIsFoldedIn() {
+        LightMeasurementProducer producer = mock(LightMeasurementProducer.class);
+        StreetlightService streetlightService = new StreetlightService(producer, new InMemoryStreetlightStateStore());
+        CommandCoalescer coalescer = new CommandCoalescer(streetlightService, 50);
+
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+        coalescer.submit("light-1", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(40, t0.plusSeconds(1)));
+        coalescer.submit("light-2", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+        coalescer.flush();
+
+        ArgumentCaptor<LightMeasuredEvent> measured = ArgumentCaptor.forClass(LightMeasuredEvent.class);
+        verify(producer).publishLightMeasurement(eq("light-1"), measured.capture());
+        assertEquals(StreetlightService.calculateLumens(streetlightService.getState("light-1")),
+                measured.getValue().getLumens());
+        verifyNoMoreInteractions(producer);
+    }
+
+    @Test
+    public void testStopAppliesPendingCommands() {
+        StreetlightService streetlightService = mock(StreetlightService.class);
+        CommandCoalescer coalescer = new CommandCoalescer(streetlightService, 60_000);
+        coalescer.start();
+
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+        coalescer.submit("light-1", CommandType.TURN_ON, new TurnOnOffCommand("on", t0, 50));
+        verifyNoInteractions(streetlightService);
+
+        coalescer.stop();
+
+        verify(streetlightService).applyFinalState("light-1", true, t0, null, null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRevokeAppliesPendingCommandsBeforeCommit() {
+        StreetlightService streetlightService = mock(StreetlightService.class);
+        // a window far longer than the test, so only the revoke can flush
+        CommandCoalescer coalescer = new CommandCoalescer(streetlightService, 60_000);
+        coalescer.start();
+
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 18, 0);
+        coalescer.submit("light-1", CommandType.DIM, new DimLightCommand(40, t0));
+
+        coalescer.onPartitionsRevokedBeforeCommit(mock(Consumer.class),
+                List.of(new TopicPartition("smartylighting.streetlights.1.0.action.light-1.dim", 0)));
+
+        verify(streetlightService).applyFinalState("light-1", null, null, 40, t0);
+        coalescer.stop();
+    }
+}
@@ -0,0 +1,118 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that the incrementally maintained fleet totals match a full scan of
+ * the store after concurrent commands, removals and restores.
+ */
+public class FleetAggregatesTest {
+
+    private final FleetAggregates aggregates = new FleetAggregates();
+    private final StreetlightStateStore store = new InMemoryStreetlightStateStore();
+    private final StreetlightService streetlightService;
+
+    public FleetAggregatesTest() {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("fleetAggregates", aggregates);
+        streetlightService = new StreetlightService(mock(LightMeasurementProducer.class), store,
+                beans.getBeanProvider(StateChangeListener.class), beans.getBeanProvider(StateReplica.class));
+    }
+
+    @Test
+    public void testConcurrentCommandsMatchFullScan() throws Exception {
+        LocalDateTime base = LocalDateTime.now();
+        ExecutorService executor = Executors.newFixedThreadPool(9);
+        List<Future<?>> futures = new ArrayList<>();
+        // partition hand-offs and restores racing the commands, as during a rebalance
+        futures.add(executor.submit(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 10_000; i++) {
+                String id = "light-" + random.nextInt(500);
+                StreetlightService.StreetlightState restored =
+                        new StreetlightService.StreetlightState(id, true, 50, base.plusNanos(random.nextInt(1_000_000)));
+                StateChange change = random.nextBoolean() ? store.remove(id) : store.update(id, state -> restored);
+                if (change != null) {
+                    aggregates.apply(change);
+                }
+            }
+        }));
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 10_000; i++) {
+                    String id = "light-" + random.nextInt(500);
+                    // random sentAt, so some commands are rejected as stale and must not be counted
+                    LocalDateTime sentAt = base.plusNanos(random.nextInt(1_000_000));
+                    switch (random.nextInt(3)) {
+                        case 0 -> streetlightService.turnOn(id, new TurnOnOffCommand("on", sentAt, 50));
+                        case 1 -> streetlightService.turnOff(id, new TurnOnOffCommand("off", sentAt, 50));
+                        default -> streetlightService.dim(id, new DimLightCommand(random.nextInt(101), sentAt));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        StateChange dropped = store.remove("light-7");
+        assertNotNull(dropped);
+        aggregates.apply(dropped);
+        assertNull(store.remove("light-7"));
+
+        long on = 0;
+        long lumens = 0;
+        long[] histogram = new long[FleetAggregates.DIM_BUCKETS];
+        for (StreetlightService.StreetlightState state : store.getAll().values()) {
+            if (state.isOn()) {
+                on++;
+            }
+            lumens += StreetlightService.calculateLumens(state);
+            histogram[state.getDimPercentage()]++;
+        }
+        assertEquals(store.size(), aggregates.getLightCount());
+        assertEquals(on, aggregates.getOnCount());
+        assertEquals(lumens, aggregates.getTotalLumens());
+        assertArrayEquals(histogram, aggregates.getDimHistogram());
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testAggregatesMatchFullScanAtFleetScale() {
+        int fleet = 1_000_000;
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < fleet; i++) {
+            String id = "light-" + i;
+            streetlightService.turnOn(id, new TurnOnOffCommand("on", now, 50));
+            streetlightService.dim(id, new DimLightCommand(i % 101, now.plusSeconds(1)));
+        }
+
+        long scanned = 0;
+        long[] histogram = new long[FleetAggregates.DIM_BUCKETS];
+        for (StreetlightService.StreetlightState state : streetlightService.getAllStates().values()) {
+            scanned += StreetlightService.calculateLumens(state);
+            histogram[state.getDimPercentage()]++;
+        }
+        assertEquals(fleet, aggregates.getLightCount());
+        assertEquals(scanned, aggregates.getTotalLumens());
+        assertArrayEquals(histogram, aggregates.getDimHistogram());
+    }
+}
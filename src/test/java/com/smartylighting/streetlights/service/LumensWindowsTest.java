@@ -0,0 +1,187 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.event.LumensRollup;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks window assignment, on-time, late measurements, group rollups and the
+ * open-window bound, and how much smaller the rollup stream is than its input.
+ */
+public class LumensWindowsTest {
+
+    private static final long MINUTE = 60_000;
+
+    private final List<LumensRollup> emitted = new ArrayList<>();
+
+    @Test
+    public void testTumblingWindowRollsUpLumensAndOnTime() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                1_000, 1_000, 1_000, id -> List.of());
+
+        add(windows, "light-1", 10_000, 5000);  // on from 10 s
+        add(windows, "light-1", 40_000, 2000);  // dimmed, still on
+        add(windows, "light-1", 50_000, 0);     // off from 50 s
+        add(windows, "light-2", 60_500, 1000);
+        assertTrue(emitted.isEmpty(), "window closes only after the grace period");
+
+        add(windows, "light-1", 70_000, 5000);  // next window; on from 70 s
+        LumensRollup first = single("light-1", 0);
+        assertEquals(MINUTE, first.getEnd());
+        assertEquals(3, first.getCount());
+        assertEquals(0, first.getMinLumens());
+        assertEquals(5000, first.getMaxLumens());
+        assertEquals(7000 / 3.0, first.getAvgLumens(), 0.001);
+        assertEquals(40_000, first.getOnMs());
+
+        emitted.addAll(windows.flush());
+        // light-1 was off from 50 s, so its next window only counts from 70 s
+        assertEquals(50_000, single("light-1", MINUTE).getOnMs());
+    }
+
+    @Test
+    public void testOnTimeCarriesAcrossWindowsFromLastKnownState() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                0, 1_000, 1_000, id -> List.of());
+
+        add(windows, "light-1", 30_000, 5000);
+        add(windows, "light-1", 90_000, 5000);
+        emitted.addAll(windows.flush());
+
+        assertEquals(30_000, single("light-1", 0).getOnMs());
+        // on since 30 s, so the whole of the second window counts
+        assertEquals(MINUTE, single("light-1", MINUTE).getOnMs());
+    }
+
+    @Test
+    public void testHoppingWindowsOverlap() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("hopping", 3 * MINUTE, MINUTE)),
+                0, 1_000, 1_000, id -> List.of());
+
+        add(windows, "light-1", 150_000, 4000);
+        emitted.addAll(windows.flush());
+
+        assertEquals(List.of(0L, MINUTE, 2 * MINUTE),
+                emitted.stream().map(LumensRollup::getStart).sorted().toList());
+        assertTrue(emitted.stream().allMatch(rollup -> rollup.getCount() == 1));
+    }
+
+    @Test
+    public void testLateMeasurementsWithinGraceAreKeptAndAfterAreDropped() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                5_000, 1_000, 1_000, id -> List.of());
+
+        add(windows, "light-1", 10_000, 1000);
+        add(windows, "light-1", 63_000, 1000);
+        add(windows, "light-2", 20_000, 3000);  // within grace, window still open
+        add(windows, "light-1", 66_000, 1000);  // closes the first window
+        add(windows, "light-2", 30_000, 3000);  // too late
+
+        assertEquals(1, windows.getLateCount());
+        assertEquals(1, single("light-2", 0).getCount());
+    }
+
+    @Test
+    public void testGroupRollupsMergeMemberWindows() {
+        Map<String, List<String>> groups = Map.of(
+                "light-1", List.of("main-street"),
+                "light-2", List.of("main-street", "circuit-a"));
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                0, 1_000, 1_000, id -> groups.getOrDefault(id, List.of()));
+
+        add(windows, "light-1", 0, 1000);
+        add(windows, "light-2", 30_000, 3000);
+        add(windows, "light-3", 40_000, 5000);
+        emitted.addAll(windows.flush());
+
+        Map<String, LumensRollup> byGroup = emitted.stream()
+                .filter(rollup -> rollup.getScope().equals(LumensRollup.GROUP))
+                .collect(Collectors.toMap(LumensRollup::getKey, rollup -> rollup));
+        assertEquals(2, byGroup.size());
+        LumensRollup mainStreet = byGroup.get("main-street");
+        assertEquals(2, mainStreet.getLights());
+        assertEquals(1000, mainStreet.getMinLumens());
+        assertEquals(3000, mainStreet.getMaxLumens());
+        assertEquals(MINUTE + 30_000, mainStreet.getOnMs());
+        assertEquals(1, byGroup.get("circuit-a").getLights());
+    }
+
+    @Test
+    public void testGroupPartialsAreKeyedByInstance() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                0, 1_000, 1_000, id -> List.of("main-street"));
+
+        add(windows, "light-1", 0, 1000);
+        emitted.addAll(windows.flush());
+
+        for (LumensRollup rollup : emitted) {
+            LumensRollup attributed = rollup.withInstance("instance-a");
+            assertEquals("instance-a", attributed.getInstance());
+            assertEquals(rollup.getCount(), attributed.getCount());
+            if (rollup.getScope().equals(LumensRollup.GROUP)) {
+                assertEquals("main-street@instance-a", attributed.recordKey());
+            } else {
+                assertEquals("light-1", attributed.recordKey());
+            }
+        }
+        assertEquals(2, emitted.size());
+    }
+
+    @Test
+    public void testOpenWindowsAreBounded() {
+        LumensWindows windows = new LumensWindows(List.of(new LumensWindows.Spec("tumbling", MINUTE, MINUTE)),
+                10 * MINUTE, 100, 1_000, id -> List.of());
+
+        for (int minute = 0; minute < 5; minute++) {
+            for (int light = 0; light < 50; light++) {
+                add(windows, "light-" + light, minute * MINUTE, 1000);
+                assertTrue(windows.getOpenWindowCount() <= 100);
+            }
+        }
+        assertEquals(150, windows.getEarlyClosedCount());
+        assertEquals(150, emitted.size());
+        // measurements for windows closed early are late from then on
+        add(windows, "light-0", 0, 1000);
+        assertEquals(1, windows.getLateCount());
+    }
+
+    @Test
+    public void testRollupsAreFarFewerThanMeasurements() {
+        LumensWindows windows = new LumensWindows(List.of(
+                new LumensWindows.Spec("tumbling", MINUTE, MINUTE),
+                new LumensWindows.Spec("hopping", 5 * MINUTE, MINUTE)), 10_000, 100_000, 10_000, id -> List.of());
+
+        // 1000 lights measured once a second for an hour
+        long measurements = 0;
+        for (long time = 0; time < 60 * MINUTE; time += 1_000) {
+            for (int light = 0; light < 1000; light++) {
+                add(windows, "light-" + light, time, 5000);
+                measurements++;
+            }
+        }
+        emitted.addAll(windows.flush());
+
+        // per light, 60 tumbling windows and 64 hopping ones, including those starting before the first minute
+        assertEquals(0, windows.getLateCount());
+        assertEquals(1000 * (60 + 64), emitted.size());
+        assertTrue(measurements / emitted.size() >= 10, "rollups should cut volume by an order of magnitude");
+    }
+
+    private void add(LumensWindows windows, String streetlightId, long time, int lumens) {
+        emitted.addAll(windows.add(streetlightId, time, lumens));
+    }
+
+    private LumensRollup single(String streetlightId, long start) {
+        List<LumensRollup> matching = emitted.stream()
+                .filter(rollup -> rollup.getKey().equals(streetlightId) && rollup.getStart() == start)
+                .toList();
+        assertEquals(1, matching.size(), "rollups for " + streetlightId + " at " + start + ": " + matching);
+        return matching.get(0);
+    }
+}
@@ -0,0 +1,143 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.CommandType;
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.CommandPublisher;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ConsumerGroupListing;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Moves a keyed command partition away from and back to this instance and
+ * checks that its lights are dropped, served from the replica meanwhile, and
+ * restored from the changelog, then dropped again on the next revocation.
+ */
+@SpringBootTest(properties = {
+        "streetlights.command.layout=keyed",
+        "streetlights.changelog.enabled=true",
+        "streetlights.ownership.enabled=true"
+})
+@EmbeddedKafka(partitions = 1)
+public class PartitionOwnershipTest {
+
+    @Autowired
+    private CommandPublisher commandPublisher;
+
+    @Autowired
+    private StreetlightService streetlightService;
+
+    @Autowired
+    private StreetlightStateStore streetlights;
+
+    @Autowired
+    private PartitionOwnership partitionOwnership;
+
+    @Autowired
+    private StateReplica stateReplica;
+
+    @Value("${streetlights.command.topic}")
+    private String commandTopic;
+
+    @Autowired
+    @Qualifier("stateChangelogTemplate")
+    private KafkaTemplate<String, byte[]> changelogTemplate;
+
+    @Value("${streetlights.command.partitions}")
+    private int commandPartitions;
+
+    @Value("${streetlights.changelog.topic}")
+    private String changelogTopic;
+
+    @Value("${spring.kafka.bootstrap-servers}")
+    private String bootstrapServers;
+
+    @Test
+    public void testStateFollowsPartitionOwnership() throws InterruptedException {
+        String id = "owned-001";
+        LocalDateTime sentAt = LocalDateTime.now();
+        commandPublisher.send(id, CommandType.TURN_ON, new TurnOnOffCommand("on", sentAt, 50));
+        commandPublisher.send(id, CommandType.DIM, new DimLightCommand(30, sentAt.plusSeconds(1)));
+
+        StreetlightState applied = await(() -> {
+            StreetlightState state = streetlights.get(id);
+            return state != null && state.getDimPercentage() == 30 ? state : null;
+        });
+        // owned here, so the replica does not copy it
+        assertNull(stateReplica.get(id));
+
+        TopicPartition partition = new TopicPartition(commandTopic, PartitionOwnership.partitionOf(id, commandPartitions));
+        MockConsumer<String, Object> consumer = commandTopicConsumer();
+
+        partitionOwnership.onPartitionsRevokedBeforeCommit(consumer, List.of(partition));
+        assertNull(streetlights.get(id));
+        // handed over to the replica on revocation
+        assertEquals(applied.toString(), stateReplica.get(id).toString());
+        assertEquals(applied.toString(), streetlightService.getState(id).toString());
+
+        partitionOwnership.onPartitionsAssigned(consumer, List.of(partition));
+        assertEquals(applied.toString(), streetlights.get(id).toString());
+
+        // restored lights are indexed by partition, so they are found again on revocation
+        partitionOwnership.onPartitionsRevokedBeforeCommit(consumer, List.of(partition));
+        assertNull(streetlights.get(id));
+    }
+
+    @Test
+    public void testReplicaTailsTheChangelogWithoutAGroup() throws Exception {
+        String id = "peer-001";
+        StreetlightState published = new StreetlightState(id, true, 70, LocalDateTime.of(2024, 1, 1, 18, 0));
+        changelogTemplate.send(changelogTopic, id, StateChangelog.encode(published)).get();
+
+        StreetlightState copied = await(() -> stateReplica.get(id));
+        assertEquals(published.toString(), copied.toString());
+
+        try (AdminClient admin = AdminClient.create(
+                Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers))) {
+            for (ConsumerGroupListing group : admin.listConsumerGroups().all().get()) {
+                assertFalse(group.groupId().contains("replica"), "replica group " + group.groupId());
+            }
+        }
+    }
+
+    private MockConsumer<String, Object> commandTopicConsumer() {
+        MockConsumer<String, Object> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < commandPartitions; i++) {
+            partitions.add(new PartitionInfo(commandTopic, i, null, null, null));
+        }
+        consumer.updatePartitions(commandTopic, partitions);
+        return consumer;
+    }
+
+    private static <T> T await(Supplier<T> condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            T value = condition.get();
+            if (value != null) {
+                return value;
+            }
+            Thread.sleep(100);
+        }
+        return fail("condition not met within 10 s");
+    }
+}
@@ -0,0 +1,79 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Publishes state through the changelog on an embedded broker and rebuilds
+ * fresh stores from it, keeping the latest state of every light.
+ */
+@SpringBootTest(properties = "streetlights.changelog.enabled=true")
+@EmbeddedKafka(partitions = 1)
+public class StateChangelogRestoreTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_000_000);
+
+    @Autowired
+    private StreetlightService streetlightService;
+
+    @Autowired
+    private StateChangelog stateChangelog;
+
+    @Autowired
+    @Qualifier("stateChangelogTemplate")
+    private KafkaTemplate<String, byte[]> changelogTemplate;
+
+    @Value("${streetlights.changelog.topic}")
+    private String topic;
+
+    @Test
+    public void testRestoreRebuildsStateFromChangelog() {
+        streetlightService.turnOn("changelog-1", new TurnOnOffCommand("on", SENT_AT, 50));
+        streetlightService.dim("changelog-1", new DimLightCommand(40, SENT_AT.plusSeconds(1)));
+        streetlightService.turnOff("changelog-2", new TurnOnOffCommand("off", SENT_AT, 50));
+        changelogTemplate.flush();
+
+        StreetlightStateStore restored = new InMemoryStreetlightStateStore();
+        stateChangelog.restore(restored);
+
+        assertEquals(streetlightService.getState("changelog-1").toString(), restored.get("changelog-1").toString());
+        assertEquals(streetlightService.getState("changelog-2").toString(), restored.get("changelog-2").toString());
+    }
+
+    @Test
+    public void testRestoreKeepsLatestStateOfEveryLight() {
+        int lights = 5_000;
+        int updatesPerLight = 4;
+        for (int update = 0; update < updatesPerLight; update++) {
+            for (int i = 0; i < lights; i++) {
+                String streetlightId = "fleet-" + i;
+                StreetlightState state = new StreetlightState(streetlightId, update % 2 == 0, (i + update) % 101,
+                        SENT_AT.plusSeconds(update));
+                changelogTemplate.send(topic, streetlightId, StateChangelog.encode(state));
+            }
+        }
+        changelogTemplate.flush();
+
+        StreetlightStateStore restored = new PackedStreetlightStateStore();
+        int records = stateChangelog.restore(restored);
+
+        assertTrue(records >= lights * updatesPerLight);
+        assertTrue(restored.size() >= lights);
+        StreetlightState last = restored.get("fleet-7");
+        assertFalse(last.isOn());
+        assertEquals((7 + updatesPerLight - 1) % 101, last.getDimPercentage());
+        assertEquals(SENT_AT.plusSeconds(updatesPerLight - 1), last.getLastCommandTime());
+    }
+}
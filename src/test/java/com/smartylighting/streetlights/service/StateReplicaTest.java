@@ -0,0 +1,66 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the replica skips lights owned here, keeps the newest state of
+ * a handed-over light and evicts the least recently used light past its bound.
+ */
+public class StateReplicaTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0);
+
+    private final StreetlightStateStore streetlights = new InMemoryStreetlightStateStore();
+    private final StateReplica replica = new StateReplica(streetlights, 3);
+
+    @Test
+    public void testOwnedLightsAreNotCopied() {
+        receive(state("light-1", 0));
+        assertNotNull(replica.get("light-1"));
+
+        // taken over by this instance after it was copied
+        streetlights.put("light-1", state("light-1", 1));
+        receive(state("light-1", 1));
+        assertNull(replica.get("light-1"));
+        assertEquals(0, replica.size());
+    }
+
+    @Test
+    public void testOlderRecordDoesNotReplaceHandedOverState() {
+        replica.put(state("light-1", 5));
+        receive(state("light-1", 2));
+        assertEquals(SENT_AT.plusSeconds(5), replica.get("light-1").getLastCommandTime());
+
+        receive(state("light-1", 6));
+        assertEquals(SENT_AT.plusSeconds(6), replica.get("light-1").getLastCommandTime());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedLightIsEvicted() {
+        receive(state("light-1", 0));
+        receive(state("light-2", 0));
+        receive(state("light-3", 0));
+        replica.get("light-1");
+        receive(state("light-4", 0));
+
+        assertEquals(3, replica.size());
+        assertNull(replica.get("light-2"));
+        assertNotNull(replica.get("light-1"));
+        assertNotNull(replica.get("light-4"));
+    }
+
+    private void receive(StreetlightState state) {
+        replica.onChangelogRecord(new ConsumerRecord<>("changelog", 0, 0, state.getStreetlightId(),
+                StateChangelog.encode(state)));
+    }
+
+    private static StreetlightState state(String streetlightId, int seconds) {
+        return new StreetlightState(streetlightId, true, 40, SENT_AT.plusSeconds(seconds));
+    }
+}
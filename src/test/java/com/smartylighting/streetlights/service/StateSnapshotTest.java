@@ -0,0 +1,179 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Round-trips the snapshot format and checks that a restored snapshotter
+ * repositions consumers at the saved offsets, and that commands replayed
+ * against restored millisecond times are rejected as duplicates.
+ */
+public class StateSnapshotTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_000_000);
+    private static final String TOPIC = "smartylighting.streetlights.1.0.action.commands";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSnapshotRoundTripsStateAndOffsets() throws IOException {
+        Path file = dir.resolve("streetlights.snapshot");
+        StreetlightStateStore store = new InMemoryStreetlightStateStore();
+        for (int i = 0; i < 10_000; i++) {
+            store.put("light-" + i, state("light-" + i, i));
+        }
+        store.put("never-commanded", StreetlightState.initial("never-commanded"));
+        Map<TopicPartition, Long> offsets = Map.of(new TopicPartition(TOPIC, 0), 42L, new TopicPartition(TOPIC, 7), 9L);
+
+        assertEquals(10_001, StateSnapshotFile.write(file, offsets, store.getAll().values()));
+
+        Map<String, StreetlightState> restored = new HashMap<>();
+        assertEquals(offsets, StateSnapshotFile.read(file, s -> restored.put(s.getStreetlightId(), s)));
+        assertEquals(store.size(), restored.size());
+        store.getAll().forEach((id, expected) -> assertEquals(expected.toString(), restored.get(id).toString()));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejectedBeforeAnyStateIsLoaded() throws IOException {
+        Path file = dir.resolve("streetlights.snapshot");
+        StateSnapshotFile.write(file, Map.of(), List.of(state("light-1", 1), state("light-2", 2)));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 20);
+        }
+
+        List<StreetlightState> loaded = new ArrayList<>();
+        assertThrows(IOException.class, () -> StateSnapshotFile.read(file, loaded::add));
+        assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    public void testRestoredSnapshotterSeeksToSavedOffsets() throws IOException {
+        Path file = dir.resolve("streetlights.snapshot");
+        TopicPartition saved = new TopicPartition(TOPIC, 0);
+        TopicPartition unknown = new TopicPartition(TOPIC, 1);
+        StateSnapshotFile.write(file, Map.of(saved, 42L), List.of(state("light-1", 1)));
+
+        StreetlightStateStore store = new InMemoryStreetlightStateStore();
+        StateSnapshotter snapshotter = new StateSnapshotter(store,
+                new StaticListableBeanFactory().getBeanProvider(CommandCoalescer.class),
+                new StaticListableBeanFactory().getBeanProvider(FleetAggregates.class), file.toString(), 60_000);
+        snapshotter.restore();
+        assertEquals(state("light-1", 1).toString(), store.get("light-1").toString());
+
+        MockConsumer<String, Object> consumer = new MockConsumer<>(OffsetResetStrategy.LATEST);
+        consumer.assign(List.of(saved, unknown));
+        consumer.updateBeginningOffsets(Map.of(saved, 0L, unknown, 0L));
+        consumer.updateEndOffsets(Map.of(saved, 100L, unknown, 100L));
+        snapshotter.onPartitionsAssigned(consumer, List.of(saved, unknown));
+
+        assertEquals(42L, consumer.position(saved));
+        assertEquals(0L, consumer.position(unknown));
+    }
+
+    @Test
+    public void testWithoutSnapshotPartitionsKeepTheirCommittedOffsets() {
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        StateSnapshotter snapshotter = new StateSnapshotter(new InMemoryStreetlightStateStore(),
+                new StaticListableBeanFactory().getBeanProvider(CommandCoalescer.class),
+                new StaticListableBeanFactory().getBeanProvider(FleetAggregates.class),
+                dir.resolve("missing.snapshot").toString(), 60_000);
+        snapshotter.restore();
+
+        MockConsumer<String, Object> consumer = new MockConsumer<>(OffsetResetStrategy.LATEST);
+        consumer.assign(List.of(partition));
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+        consumer.updateEndOffsets(Map.of(partition, 100L));
+        consumer.seek(partition, 57L);
+        snapshotter.onPartitionsAssigned(consumer, List.of(partition));
+
+        assertEquals(57L, consumer.position(partition));
+    }
+
+    @Test
+    public void testReplayWithSubMillisecondSentAtIsADuplicate() throws IOException {
+        Path file = dir.resolve("streetlights.snapshot");
+        // a REST sender's clock has microsecond precision, the snapshot keeps milliseconds
+        LocalDateTime sentAt = LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_456_789);
+        TurnOnOffCommand turnOn = new TurnOnOffCommand("on", sentAt, 50);
+        DimLightCommand dim = new DimLightCommand(40, sentAt.plusNanos(1_000));
+
+        StreetlightStateStore before = new InMemoryStreetlightStateStore();
+        StreetlightService service = new StreetlightService(mock(LightMeasurementProducer.class), before);
+        service.turnOn("light-1", turnOn);
+        service.dim("light-1", dim);
+        StateSnapshotFile.write(file, Map.of(), before.getAll().values());
+
+        StreetlightStateStore after = new PackedStreetlightStateStore();
+        new StateSnapshotter(after,
+                new StaticListableBeanFactory().getBeanProvider(CommandCoalescer.class),
+                new StaticListableBeanFactory().getBeanProvider(FleetAggregates.class), file.toString(), 60_000)
+                .restore();
+        LightMeasurementProducer producer = mock(LightMeasurementProducer.class);
+        StreetlightService restarted = new StreetlightService(producer, after);
+        restarted.turnOn("light-1", turnOn);
+        restarted.dim("light-1", dim);
+        restarted.dim("light-1", dim);
+
+        verifyNoInteractions(producer);
+        assertEquals(3, restarted.getStaleCommandCount());
+        assertEquals(40, restarted.getState("light-1").getDimPercentage());
+
+        // a command a millisecond later still applies
+        restarted.dim("light-1", new DimLightCommand(60, sentAt.plusNanos(1_000_000)));
+        verify(producer, times(1)).publishLightMeasurement(eq("light-1"), any());
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testWarmRestartAtFleetScale() throws IOException {
+        Path file = dir.resolve("streetlights.snapshot");
+        int lights = 1_000_000;
+        StreetlightStateStore store = new PackedStreetlightStateStore();
+        for (int i = 0; i < lights; i++) {
+            store.put("light-" + i, state("light-" + i, i));
+        }
+
+        StateSnapshotFile.write(file, Map.of(new TopicPartition(TOPIC, 0), (long) lights), store.getAll().values());
+
+        StreetlightStateStore restored = new PackedStreetlightStateStore();
+        StateSnapshotFile.read(file, s -> restored.put(s.getStreetlightId(), s));
+
+        assertEquals(lights, restored.size());
+        StreetlightState last = restored.get("light-" + (lights - 1));
+        assertEquals((lights - 1) % 101, last.getDimPercentage());
+        assertEquals(SENT_AT.plusSeconds(lights - 1), last.getLastCommandTime());
+    }
+
+    private static StreetlightState state(String streetlightId, int i) {
+        return new StreetlightState(streetlightId, i % 2 == 0, i % 101, SENT_AT.plusSeconds(i));
+    }
+}
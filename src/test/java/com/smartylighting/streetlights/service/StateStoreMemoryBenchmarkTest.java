@@ -0,0 +1,107 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that both state stores behave the same and compares their retained
+ * heap per light. The footprint run needs -Pbenchmarks for its larger heap.
+ */
+public class StateStoreMemoryBenchmarkTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2024, 1, 1, 18, 0, 0, 123_000_000);
+
+    @Test
+    public void testPackedStoreMatchesMapStore() {
+        StreetlightStateStore map = new InMemoryStreetlightStateStore();
+        StreetlightStateStore packed = new PackedStreetlightStateStore();
+
+        for (StreetlightStateStore store : new StreetlightStateStore[]{map, packed}) {
+            assertNull(store.get("light-1"));
+            assertEquals(StreetlightState.initial("light-1").toString(), store.getOrCreate("light-1").toString());
+
+            for (int i = 0; i < 100_000; i++) {
+                store.put("light-" + i, state("light-" + i, i));
+            }
+        }
+
+        assertEquals(map.size(), packed.size());
+        Map<String, StreetlightState> expected = map.getAll();
+        Map<String, StreetlightState> actual = packed.getAll();
+        assertEquals(expected.size(), actual.size());
+        expected.forEach((id, state) -> assertEquals(state.toString(), actual.get(id).toString()));
+        assertEquals(map.get("light-99999").toString(), packed.get("light-99999").toString());
+    }
+
+    @Test
+    public void testScanPagesThroughEveryMatchingStateOnce() {
+        for (StreetlightStateStore store : new StreetlightStateStore[]{
+                new InMemoryStreetlightStateStore(), new PackedStreetlightStateStore()}) {
+            for (int i = 0; i < 1_000; i++) {
+                store.put("light-" + i, state("light-" + i, i));
+            }
+
+            Set<String> seen = new HashSet<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                List<StreetlightState> page = new ArrayList<>();
+                cursor = store.scan(cursor, 64, StreetlightState::isOn, page::add);
+                assertTrue(page.size() <= 64);
+                page.forEach(state -> assertTrue(seen.add(state.getStreetlightId()), "visited twice: " + state.getStreetlightId()));
+                pages++;
+            } while (cursor != null);
+
+            assertEquals(500, seen.size());
+            assertTrue(pages >= 8);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testPackedStoreFootprintAtFleetScale() {
+        for (int lights : new int[]{1_000_000, 5_000_000}) {
+            long mapBytes = retainedBytes(InMemoryStreetlightStateStore::new, lights);
+            long packedBytes = retainedBytes(PackedStreetlightStateStore::new, lights);
+
+            System.out.printf("%,d lights: map store %,d MB (%d B/light), packed store %,d MB (%d B/light)%n",
+                    lights, mapBytes >> 20, mapBytes / lights, packedBytes >> 20, packedBytes / lights);
+            assertTrue(packedBytes < mapBytes / 2, "packed store should need less than half the heap");
+        }
+    }
+
+    private static StreetlightState state(String streetlightId, int i) {
+        return new StreetlightState(streetlightId, i % 2 == 0, i % 101, SENT_AT.plusSeconds(i));
+    }
+
+    private static long retainedBytes(Supplier<StreetlightStateStore> factory, int lights) {
+        long before = usedHeapAfterGc();
+        StreetlightStateStore store = factory.get();
+        for (int i = 0; i < lights; i++) {
+            String streetlightId = "light-" + i;
+            store.put(streetlightId, state(streetlightId, i));
+        }
+        long after = usedHeapAfterGc();
+        assertEquals(lights, store.size());
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,106 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks group membership, set operations and aggregates, and that a zone
+ * aggregate from the group bitmap matches a scan of every state at fleet
+ * scale. {@code StreetlightGroupRegistryBenchmark} compares their cost.
+ */
+public class StreetlightGroupRegistryTest {
+
+    private final StreetlightService streetlightService =
+            new StreetlightService(mock(LightMeasurementProducer.class), new InMemoryStreetlightStateStore());
+    private final StreetlightGroupRegistry registry = new StreetlightGroupRegistry(streetlightService);
+
+    @Test
+    public void testMembershipAndSetOperations() {
+        assertEquals(3, registry.addMembers("main-street", List.of("light-1", "light-2", "light-3")));
+        assertEquals(3, registry.addMembers("circuit-a", List.of("light-3", "light-4", "light-5")));
+        assertEquals(4, registry.addMembers("main-street", List.of("light-3", "light-4")));
+
+        assertEquals(List.of("light-1", "light-2", "light-3", "light-4", "light-5"),
+                registry.members(List.of("main-street", "circuit-a"), null));
+        assertEquals(List.of("light-3", "light-4"), registry.members(null, List.of("main-street", "circuit-a")));
+        assertEquals(List.of("light-3", "light-4"),
+                registry.members(List.of("circuit-a"), List.of("main-street")));
+        assertEquals(List.of(), registry.members(null, List.of("main-street", "no-such-group")));
+
+        assertEquals(2, registry.removeMembers("main-street", List.of("light-1", "light-2", "unknown")));
+        assertEquals(Map.of("circuit-a", 3, "main-street", 2), registry.getGroupSizes());
+        assertEquals(0, registry.removeMembers("main-street", List.of("light-3", "light-4")));
+        assertFalse(registry.exists("main-street"));
+        assertTrue(registry.deleteGroup("circuit-a"));
+        assertThrows(IllegalArgumentException.class, () -> registry.members(null, List.of()));
+    }
+
+    @Test
+    public void testAggregateCoversKnownMembers() {
+        LocalDateTime now = LocalDateTime.now();
+        registry.addMembers("district-1", List.of("light-1", "light-2", "light-3", "light-4"));
+        streetlightService.turnOn("light-1", new TurnOnOffCommand("on", now, 50));
+        streetlightService.turnOn("light-2", new TurnOnOffCommand("on", now, 50));
+        streetlightService.dim("light-2", new DimLightCommand(40, now.plusSeconds(1)));
+        streetlightService.turnOff("light-3", new TurnOnOffCommand("off", now, 50));
+        streetlightService.turnOn("outside", new TurnOnOffCommand("on", now, 50));
+
+        GroupAggregate aggregate = registry.aggregate(List.of("district-1"), null);
+
+        assertEquals(4, aggregate.getMembers());
+        assertEquals(3, aggregate.getKnown());
+        assertEquals(2, aggregate.getOn());
+        assertEquals(80.0, aggregate.getAverageDimPercentage(), 0.001);
+        assertEquals(5000 + 2000, aggregate.getTotalLumens());
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testZoneAggregateFromBitmapMatchesFullScan() {
+        int fleet = 1_000_000;
+        int zones = 50;
+        LocalDateTime now = LocalDateTime.now();
+        List<List<String>> members = new ArrayList<>();
+        for (int zone = 0; zone < zones; zone++) {
+            members.add(new ArrayList<>());
+        }
+        for (int i = 0; i < fleet; i++) {
+            String id = "light-" + i;
+            if (i % 3 == 0) {
+                streetlightService.turnOff(id, new TurnOnOffCommand("off", now, 50));
+            } else {
+                streetlightService.turnOn(id, new TurnOnOffCommand("on", now, 50));
+            }
+            members.get(i % zones).add(id);
+        }
+        for (int zone = 0; zone < zones; zone++) {
+            registry.addMembers("zone-" + zone, members.get(zone));
+        }
+
+        Set<String> zone7 = new HashSet<>(members.get(7));
+        int on = 0;
+        for (StreetlightService.StreetlightState state : streetlightService.getAllStates().values()) {
+            if (zone7.contains(state.getStreetlightId()) && state.isOn()) {
+                on++;
+            }
+        }
+
+        GroupAggregate aggregate = registry.aggregate(List.of("zone-7"), null);
+        assertEquals(fleet / zones, aggregate.getMembers());
+        assertEquals(fleet / zones, aggregate.getKnown());
+        assertEquals(on, aggregate.getOn());
+    }
+}
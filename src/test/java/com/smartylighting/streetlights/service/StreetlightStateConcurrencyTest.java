@@ -0,0 +1,154 @@
+package com.smartylighting.streetlights.service;
+
+import com.smartylighting.streetlights.model.command.DimLightCommand;
+import com.smartylighting.streetlights.model.command.TurnOnOffCommand;
+import com.smartylighting.streetlights.producer.LightMeasurementProducer;
+import com.smartylighting.streetlights.service.StreetlightService.StreetlightState;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Hammers a handful of lights from several threads and checks that no
+ * transition is lost and stale commands never roll state back.
+ */
+public class StreetlightStateConcurrencyTest {
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int THREADS = 8;
+    private static final int UPDATES_PER_THREAD = 20_000;
+    private static final int COMMANDS_PER_THREAD = 2_000;
+    private static final String[] LIGHTS = {"light-1", "light-2", "light-3"};
+
+    @Test
+    public void testNoLostUpdatesUnderContention() throws Exception {
+        for (StreetlightStateStore store : stores()) {
+            // each update advances lastCommandTime by exactly one millisecond,
+            // so any lost update shows up as a shortfall in the final time
+            runConcurrently(UPDATES_PER_THREAD, (thread, i) -> store.update(LIGHTS[i % LIGHTS.length],
+                    state -> state.withLastCommandTime(plusMillis(state.getLastCommandTime(), 1))));
+
+            for (int l = 0; l < LIGHTS.length; l++) {
+                String light = LIGHTS[l];
+                long expectedMillis = (long) THREADS * ((UPDATES_PER_THREAD - l + LIGHTS.length - 1) / LIGHTS.length);
+                assertEquals(EPOCH.plusNanos(expectedMillis * 1_000_000), store.get(light).getLastCommandTime(),
+                        store.getClass().getSimpleName() + " lost updates for " + light);
+            }
+        }
+    }
+
+    @Test
+    public void testLatestCommandWinsAndStaleCommandsAreRejected() throws Exception {
+        for (StreetlightStateStore store : stores()) {
+            StreetlightService service = new StreetlightService(mock(LightMeasurementProducer.class), store);
+            AtomicLong clock = new AtomicLong();
+            AtomicLong lastDim = new AtomicLong(-1);
+            AtomicLong lastDimSentAt = new AtomicLong(-1);
+
+            // threads race to dim the same light; sentAt comes from a shared clock
+            runConcurrently(COMMANDS_PER_THREAD, (thread, i) -> {
+                long millis = clock.incrementAndGet();
+                int percentage = (int) (millis % 101);
+                service.dim("light-1", new DimLightCommand(percentage, EPOCH.plusNanos(millis * 1_000_000)));
+                synchronized (lastDim) {
+                    if (millis > lastDimSentAt.get()) {
+                        lastDimSentAt.set(millis);
+                        lastDim.set(percentage);
+                    }
+                }
+            });
+
+            StreetlightState state = service.getState("light-1");
+            assertEquals(EPOCH.plusNanos(lastDimSentAt.get() * 1_000_000), state.getLastCommandTime());
+            assertEquals(lastDim.get(), state.getDimPercentage());
+
+            // a dim older than the last applied one, or the last one delivered again, must not change anything
+            service.dim("light-1", new DimLightCommand(0, EPOCH, 50));
+            service.dim("light-1", new DimLightCommand(0, state.getLastDimTime(), 50));
+            assertEquals(state.toString(), service.getState("light-1").toString());
+            assertTrue(service.getStaleCommandCount() >= 2);
+        }
+    }
+
+    @Test
+    public void testSwitchAndDimAreOrderedIndependently() {
+        for (StreetlightStateStore store : stores()) {
+            StreetlightService service = new StreetlightService(mock(LightMeasurementProducer.class), store);
+
+            // on/off and dim arrive on separate topics, so a newer dim can overtake an older turn-on
+            service.dim("light-2", new DimLightCommand(30, EPOCH.plusSeconds(2), 50));
+            service.turnOn("light-2", new TurnOnOffCommand("on", EPOCH.plusSeconds(1), 50));
+            service.dim("light-2", new DimLightCommand(70, EPOCH.plusSeconds(1), 50));
+
+            StreetlightState state = service.getState("light-2");
+            assertTrue(state.isOn(), store.getClass().getSimpleName());
+            assertEquals(30, state.getDimPercentage());
+            assertEquals(EPOCH.plusSeconds(1), state.getLastSwitchTime());
+            assertEquals(EPOCH.plusSeconds(2), state.getLastDimTime());
+            assertEquals(1, service.getStaleCommandCount());
+
+            StreetlightState decoded = StateChangelog.decode("light-2", StateChangelog.encode(state));
+            assertEquals(state.toString(), decoded.toString());
+
+            StateChange removed = store.remove("light-2");
+            assertEquals(state.toString(), removed.getPrevious().toString());
+            assertTrue(removed.isRemoved());
+            assertNull(store.remove("light-2"));
+        }
+    }
+
+    private static List<StreetlightStateStore> stores() {
+        List<StreetlightStateStore> stores = new ArrayList<>();
+        stores.add(new InMemoryStreetlightStateStore());
+        stores.add(new PackedStreetlightStateStore());
+        for (StreetlightStateStore store : stores) {
+            for (String light : LIGHTS) {
+                store.put(light, StreetlightState.initial(light).withLastCommandTime(EPOCH));
+            }
+        }
+        return stores;
+    }
+
+    private static LocalDateTime plusMillis(LocalDateTime time, long millis) {
+        return time.plusNanos(millis * 1_000_000);
+    }
+
+    private static void runConcurrently(int iterations, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        task.run(thread, i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Task {
+        void run(int thread, int i);
+    }
+}